@@ -0,0 +1,10 @@
+#!/bin/bash
+# Build JMH benchmarks into benchmarks.jar.
+# JMH_LIB is a directory holding the JMH jars: jmh-core, jmh-generator-annprocess,
+# jopt-simple and commons-math3.
+JMH_LIB=${JMH_LIB:-../lib/jmh}
+JMH_CP=`echo $JMH_LIB/*.jar | tr ' ' ':'`
+rm -rf classes
+mkdir classes
+javac -classpath "../lib/morphognosis.jar:../lib/weka.jar:$JMH_CP" -d classes ../src/morphognosis/moxworx/*.java src/morphognosis/moxworx/*.java
+jar cf benchmarks.jar -C classes .
@@ -0,0 +1,6 @@
+#!/bin/bash
+# Run JMH benchmarks, passing JMH options, e.g.:
+#   ./run.sh MetamorphDB -p metamorphCount=1000 -rf csv -rff results.csv
+JMH_LIB=${JMH_LIB:-../lib/jmh}
+JMH_CP=`echo $JMH_LIB/*.jar | tr ' ' ':'`
+java -cp "benchmarks.jar:../lib/morphognosis.jar:../lib/weka.jar:$JMH_CP" org.openjdk.jmh.Main $*
@@ -0,0 +1,74 @@
+// For conditions of distribution and use, see copyright notice in MoxWorx.java
+
+// Evolve benchmark: member fitness evaluation.
+
+package morphognosis.moxworx;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class EvolveBenchmark
+{
+   // Grid width and height.
+   @Param({ "10", "20" })
+   public int gridSize;
+
+   // Evaluation steps.
+   @Param({ "100" })
+   public int steps;
+
+   // Evolver and member.
+   EvolveForage        evolver;
+   EvolveForage.Member member;
+
+   // Create evolver and an initial member.
+   // Neighborhood settings come from the member genome.
+   @Setup(Level.Trial)
+   public void setup() throws IOException
+   {
+      File output = File.createTempFile("evolve", ".out");
+
+      output.deleteOnExit();
+      evolver = new EvolveForage(new String[]
+                                 {
+                                    "-generations", "1",
+                                    "-steps", "" + steps,
+                                    "-dimensions", "" + gridSize, "" + gridSize,
+                                    "-numLandmarkTypes", "2",
+                                    "-numLandmarks", "" + ((gridSize * gridSize) / 5),
+                                    "-numFoods", "" + Math.max(1, gridSize / 5),
+                                    "-output", output.getPath()
+                                 }
+                                 );
+      member = evolver.new Member(0, evolver.Randomizer);
+   }
+
+
+   // Evaluate member fitness.
+   @Benchmark
+   public float memberEvaluate()
+   {
+      member.evaluate(steps, evolver);
+      return(member.fitness);
+   }
+}
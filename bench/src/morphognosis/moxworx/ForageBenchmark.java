@@ -0,0 +1,197 @@
+// For conditions of distribution and use, see copyright notice in MoxWorx.java
+
+// Forage benchmarks: forager step, autopilot response and food distances.
+// The world is rebuilt for each iteration and its food replenished when
+// eaten, so steps keep meeting new states and adding metamorphs.
+
+package morphognosis.moxworx;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import morphognosis.Morphognostic;
+import morphognosis.Orientation;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ForageBenchmark
+{
+   // World settings.
+   public static final int RANDOM_SEED        = 4517;
+   public static final int NUM_LANDMARK_TYPES = 2;
+   public static final int WARM_STEPS         = 50;
+   public static final int NUM_PROBES         = 1024;
+
+   // Grid width and height.
+   @Param({ "20", "40", "80" })
+   public int gridSize;
+
+   // Morphognostic neighborhoods.
+   @Param({ "1", "2", "3" })
+   public int numNeighborhoods;
+
+   // World.
+   Forage     forage;
+   ForagerMox mox;
+
+   // Food distance probe cells.
+   int[] probeX, probeY;
+   int   probe;
+
+   // Autopilot search start states.
+   int[] startX, startY, startDirection;
+   int   start;
+
+   // Food replenishing.
+   FastRandom foodRandom;
+
+   // Food cell to remove and replace.
+   int foodX, foodY;
+
+   // Create world with a mox that has some history.
+   @Setup(Level.Iteration)
+   public void setup()
+   {
+      forage = createForage(gridSize, numNeighborhoods, RANDOM_SEED);
+      mox    = forage.moxen.get(0);
+      for (int i = 0; i < WARM_STEPS && forage.forageCells.countFood() > 1; i++)
+      {
+         forage.stepMoxen();
+      }
+      FastRandom random = new FastRandom(RANDOM_SEED);
+      probeX         = new int[NUM_PROBES];
+      probeY         = new int[NUM_PROBES];
+      startX         = new int[NUM_PROBES];
+      startY         = new int[NUM_PROBES];
+      startDirection = new int[NUM_PROBES];
+      for (int i = 0; i < NUM_PROBES; i++)
+      {
+         probeX[i] = random.nextInt(gridSize);
+         probeY[i] = random.nextInt(gridSize);
+         do
+         {
+            startX[i] = random.nextInt(gridSize);
+            startY[i] = random.nextInt(gridSize);
+         } while (forage.forageCells.getCell(startX[i], startY[i]) != MoxWorx.EMPTY_CELL_VALUE);
+         startDirection[i] = random.nextInt(Orientation.NUM_ORIENTATIONS);
+      }
+      foodRandom = new FastRandom(RANDOM_SEED + 1);
+      foodX = foodY = -1;
+      for (int x = 0; x < gridSize && foodX == -1; x++)
+      {
+         for (int y = 0; y < gridSize; y++)
+         {
+            if (forage.forageCells.getCell(x, y) == ForageCells.FOOD_CELL_VALUE)
+            {
+               foodX = x;
+               foodY = y;
+               break;
+            }
+         }
+      }
+   }
+
+
+   // Create forage world with one autopilot mox.
+   static Forage createForage(int gridSize, int numNeighborhoods, int randomSeed)
+   {
+      Forage forage = new Forage();
+
+      forage.random = new FastRandom(randomSeed);
+      forage.initCells(gridSize, gridSize, NUM_LANDMARK_TYPES,
+                       (gridSize * gridSize) / 10, Math.max(1, gridSize / 4));
+      forage.createMoxen(1, NUM_LANDMARK_TYPES + 1, numNeighborhoods,
+                         Morphognostic.DEFAULT_NEIGHBORHOOD_INITIAL_DIMENSION,
+                         Morphognostic.DEFAULT_NEIGHBORHOOD_DIMENSION_STRIDE,
+                         Morphognostic.DEFAULT_NEIGHBORHOOD_DIMENSION_MULTIPLIER,
+                         Morphognostic.DEFAULT_EPOCH_INTERVAL_STRIDE,
+                         Morphognostic.DEFAULT_EPOCH_INTERVAL_MULTIPLIER);
+      forage.reset();
+      forage.moxen.get(0).driver = ForagerMox.DRIVER_TYPE.AUTOPILOT.getValue();
+      forage.stepMoxen();
+      return(forage);
+   }
+
+
+   // Sense, cycle and respond forager: morphognostic update, autopilot,
+   // metamorph add and world update.
+   @Benchmark
+   public int foragerStep()
+   {
+      if (forage.forageCells.countFood() == 0)
+      {
+         replenishFood();
+      }
+      forage.cycleMox(0);
+      forage.respondMox(0);
+      return(mox.metamorphs.size());
+   }
+
+
+   // Autopilot food search from recorded start states.
+   @Benchmark
+   public int autoResponse()
+   {
+      start         = (start + 1) % NUM_PROBES;
+      mox.x         = startX[start];
+      mox.y         = startY[start];
+      mox.direction = startDirection[start];
+      mox.autoResponse();
+      return(mox.response);
+   }
+
+
+   // Place food on random empty cells.
+   void replenishFood()
+   {
+      ForageCells forageCells = forage.forageCells;
+
+      for (int i = Math.max(1, gridSize / 4); i > 0; )
+      {
+         int x = foodRandom.nextInt(gridSize);
+         int y = foodRandom.nextInt(gridSize);
+         if (forageCells.getCell(x, y) == MoxWorx.EMPTY_CELL_VALUE)
+         {
+            forageCells.setCell(x, y, ForageCells.FOOD_CELL_VALUE);
+            i--;
+         }
+      }
+   }
+
+
+   // Food distance lookup.
+   @Benchmark
+   public int foodDist()
+   {
+      probe = (probe + 1) % NUM_PROBES;
+      return(forage.forageCells.foodDist(probeX[probe], probeY[probe]));
+   }
+
+
+   // Food distance maintenance for eating and replacing a food.
+   @Benchmark
+   public int foodDistUpdate()
+   {
+      forage.forageCells.setCell(foodX, foodY, MoxWorx.EMPTY_CELL_VALUE);
+      probe = (probe + 1) % NUM_PROBES;
+      int d = forage.forageCells.foodDist(probeX[probe], probeY[probe]);
+      forage.forageCells.setCell(foodX, foodY, ForageCells.FOOD_CELL_VALUE);
+      return(d + forage.forageCells.foodDist(probeX[probe], probeY[probe]));
+   }
+}
@@ -0,0 +1,122 @@
+// For conditions of distribution and use, see copyright notice in MoxWorx.java
+
+// Metamorph DB response benchmark over metamorph database sizes.
+
+package morphognosis.moxworx;
+
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import morphognosis.Morphognostic;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MetamorphDBBenchmark
+{
+   // Database collection settings.
+   public static final int MAX_WORLDS  = 1000;
+   public static final int NUM_QUERIES = 64;
+
+   // Metamorph database size.
+   // Smaller if the worlds run out before it is reached.
+   @Param({ "100", "1000", "10000" })
+   public int metamorphCount;
+
+   // Grid width and height.
+   @Param({ "20", "40" })
+   public int gridSize;
+
+   // Morphognostic neighborhoods.
+   @Param({ "1", "2", "3" })
+   public int numNeighborhoods;
+
+   // Mox with metamorph database.
+   ForagerMox mox;
+
+   // Query morphognostics from an unseen world.
+   Morphognostic[] queries;
+   int             query;
+
+   // Collect metamorphs from autopilot runs over successive worlds.
+   @Setup(Level.Trial)
+   public void setup()
+   {
+      int seed;
+
+      mox = null;
+      for (seed = 1; seed <= MAX_WORLDS; seed++)
+      {
+         Forage     forage = ForageBenchmark.createForage(gridSize, numNeighborhoods, seed);
+         ForagerMox m      = forage.moxen.get(0);
+         if (mox == null)
+         {
+            mox = m;
+         }
+         int n = 0;
+         if (m != mox)
+         {
+            n = mox.metamorphs.size();
+         }
+         for (int i = 0; i < gridSize * gridSize && forage.forageCells.countFood() > 0 &&
+              (n + m.metamorphs.size()) < metamorphCount; i++)
+         {
+            forage.stepMoxen();
+         }
+         if (m != mox)
+         {
+            mox.metamorphs.addAll(m.metamorphs);
+         }
+         if (mox.metamorphs.size() >= metamorphCount)
+         {
+            break;
+         }
+      }
+      ArrayList<?> metamorphs = mox.metamorphs;
+      while (metamorphs.size() > metamorphCount)
+      {
+         metamorphs.remove(metamorphs.size() - 1);
+      }
+
+      // Collect queries.
+      Forage     forage = ForageBenchmark.createForage(gridSize, numNeighborhoods, seed + 1);
+      ForagerMox m      = forage.moxen.get(0);
+      queries = new Morphognostic[NUM_QUERIES];
+      for (int i = 0; i < NUM_QUERIES; i++)
+      {
+         queries[i] = m.morphognostic.clone();
+         if (forage.forageCells.countFood() > 0)
+         {
+            forage.stepMoxen();
+         }
+      }
+      mox.driver = ForagerMox.DRIVER_TYPE.METAMORPH_DB.getValue();
+   }
+
+
+   // Nearest metamorph response.
+   @Benchmark
+   public int metamorphDBresponse()
+   {
+      mox.morphognostic = queries[query];
+      query             = (query + 1) % NUM_QUERIES;
+      mox.metamorphDBresponse();
+      return(mox.response);
+   }
+}
@@ -0,0 +1,122 @@
+// For conditions of distribution and use, see copyright notice in MoxWorx.java
+
+// Nest benchmarks: nesting mox step and colony step.
+// Autopilot colonies settle within a few hundred steps, after which steps
+// only repeat known states, so the world is rebuilt with the next random
+// seed every WORLD_STEPS benchmark steps, the rebuild counting in the times.
+
+package morphognosis.moxworx;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import morphognosis.Morphognostic;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class NestBenchmark
+{
+   // World settings.
+   public static final int RANDOM_SEED = 4517;
+   public static final int WARM_STEPS  = 50;
+   public static final int WORLD_STEPS = 200;
+
+   // Grid width and height.
+   @Param({ "20", "40" })
+   public int gridSize;
+
+   // Morphognostic neighborhoods.
+   @Param({ "1", "2", "3" })
+   public int numNeighborhoods;
+
+   // Colony size.
+   @Param({ "1", "4" })
+   public int numMoxen;
+
+   // World, its random seed and steps.
+   Nest nest;
+   int  seed;
+   int  steps;
+
+   // Create world with autopilot moxen that have some history.
+   @Setup(Level.Iteration)
+   public void setup()
+   {
+      seed = RANDOM_SEED;
+      createNest();
+      for (int i = 0; i < WARM_STEPS; i++)
+      {
+         nest.stepMoxen();
+      }
+   }
+
+
+   // Create world with autopilot moxen.
+   void createNest()
+   {
+      nest = new Nest(seed);
+      nest.init(gridSize, gridSize, (gridSize * gridSize) / 20, numMoxen, numNeighborhoods,
+                Morphognostic.DEFAULT_NEIGHBORHOOD_INITIAL_DIMENSION,
+                Morphognostic.DEFAULT_NEIGHBORHOOD_DIMENSION_STRIDE,
+                Morphognostic.DEFAULT_NEIGHBORHOOD_DIMENSION_MULTIPLIER,
+                Morphognostic.DEFAULT_EPOCH_INTERVAL_STRIDE,
+                Morphognostic.DEFAULT_EPOCH_INTERVAL_MULTIPLIER);
+      nest.reset();
+      for (NestingMox mox : nest.moxen)
+      {
+         mox.driver = NestingMox.DRIVER_TYPE.AUTOPILOT.getValue();
+      }
+      nest.stepMoxen();
+      steps = 0;
+   }
+
+
+   // Count step, rebuilding world with next seed when settled.
+   void countStep()
+   {
+      steps++;
+      if (steps >= WORLD_STEPS)
+      {
+         seed++;
+         createNest();
+      }
+   }
+
+
+   // Sense, cycle and respond nesting mox: morphognostic update, autopilot,
+   // metamorph add and world update.
+   @Benchmark
+   public int nestingMoxStep()
+   {
+      nest.cycleMox(0);
+      nest.respondMox(0);
+      countStep();
+      return(nest.moxen.get(0).metamorphs.size());
+   }
+
+
+   // Step colony: sense, cycle and respond for each mox.
+   @Benchmark
+   public int stepMoxen()
+   {
+      nest.stepMoxen();
+      countStep();
+      return(nest.moxen.get(0).direction);
+   }
+}
@@ -0,0 +1,729 @@
+// For conditions of distribution and use, see copyright notice in MoxWorx.java
+
+// Batch experiment runner.
+// Runs every configuration of a parameter grid in one JVM on a worker pool,
+// and writes a CSV row per configuration aggregated over its random seeds,
+// as the work/batch_*.sh scripts do with a JVM per run.
+
+package morphognosis.moxworx;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import morphognosis.Morphognostic;
+
+public class BatchRunner
+{
+   // Tasks.
+   public static final String FORAGE_TASK = "forage";
+   public static final String NEST_TASK   = "nest";
+   public static final String EVOLVE_TASK = "evolve";
+
+   // Defaults.
+   public static final int DEFAULT_STEPS        = 200;
+   public static final int DEFAULT_EVOLVE_STEPS = 500;
+   public static final int DEFAULT_GENERATIONS  = 10;
+   public static final int DEFAULT_NUM_STONES   = 4;
+
+   // Usage.
+   public static final String Usage =
+      "Usage:\n" +
+      "  java morphognosis.moxworx.BatchRunner\n" +
+      "      -task <forage | nest | evolve>\n" +
+      "     [-grid <parameter>=<value list> (repeatable)]\n" +
+      "     [-steps <steps> (default: forage/nest=" + DEFAULT_STEPS + ", evolve=" + DEFAULT_EVOLVE_STEPS + ")]\n" +
+      "     [-generations <evolve generations> (default=" + DEFAULT_GENERATIONS + ")]\n" +
+      "     [-threads <worker threads> (default=1)]\n" +
+      "     [-output <CSV file name> (default=standard output)]\n" +
+      "  Tasks:\n" +
+      "    forage: train with autopilot, then test with metamorphDB; value is test success rate\n" +
+      "    nest: build with autopilot, then with metamorphDB; value is mean stone elevation\n" +
+      "    evolve: evolve forage parameters; value is final fittest member fitness\n" +
+      "  Parameters are the task's options without the dash, dimensions being square:\n" +
+      "    forage: dimensions, numLandmarkTypes, numLandmarks, numFoods, numMoxen, numNeighborhoods,\n" +
+      "      neighborhoodInitialDimension, neighborhoodDimensionStride, neighborhoodDimensionMultiplier,\n" +
+      "      epochIntervalStride, epochIntervalMultiplier, randomSeed\n" +
+      "    nest: dimensions, numStones, and the forage mox and randomSeed parameters\n" +
+      "    evolve: dimensions, numLandmarkTypes, numLandmarks, numFoods, trainingSetSize,\n" +
+      "      trainingCellNoise, moxTestDriver, fitPopulationSize, numMutants, numOffspring,\n" +
+      "      mutationRate, randomMutationRate, randomSeed\n" +
+      "  Value lists are comma-separated values and ranges, e.g. numFoods=1,2,3 randomSeed=1-10\n" +
+      "  A grid parameter replaces the task's default values for it.\n" +
+      "  Values are averaged over randomSeed; other parameters form the CSV key columns.\n" +
+      "  A configuration that fails is reported on standard error and valued NaN.\n" +
+      "Exit codes:\n" +
+      "  0=success\n" +
+      "  2=error";
+
+   // Random seed parameter.
+   public static final String RANDOM_SEED = "randomSeed";
+
+   // Grid parameters by task.
+   static final String[] MOX_PARAMETERS =
+   {
+      "numMoxen", "numNeighborhoods", "neighborhoodInitialDimension",
+      "neighborhoodDimensionStride", "neighborhoodDimensionMultiplier",
+      "epochIntervalStride", "epochIntervalMultiplier"
+   };
+   static final String[] FORAGE_PARAMETERS =
+   {
+      "dimensions", "numLandmarkTypes", "numLandmarks", "numFoods", RANDOM_SEED
+   };
+   static final String[] NEST_PARAMETERS =
+   {
+      "dimensions", "numStones", RANDOM_SEED
+   };
+   static final String[] EVOLVE_PARAMETERS =
+   {
+      "dimensions", "numLandmarkTypes", "numLandmarks", "numFoods",
+      "trainingSetSize", "trainingCellNoise", "moxTestDriver",
+      "fitPopulationSize", "numMutants", "numOffspring",
+      "mutationRate", "randomMutationRate", RANDOM_SEED
+   };
+
+   // Task.
+   String task;
+   int    steps;
+   int    generations;
+
+   // Parameter grid: name to values.
+   LinkedHashMap<String, String[]> grid;
+
+   // Worker threads.
+   int threads;
+
+   // Constructor.
+   public BatchRunner(String task)
+   {
+      this.task   = task;
+      generations = DEFAULT_GENERATIONS;
+      threads     = 1;
+      grid        = new LinkedHashMap<String, String[]>();
+      if (task.equals(FORAGE_TASK))
+      {
+         // As work/batch_neighborhood_compare.sh.
+         steps = DEFAULT_STEPS;
+         grid.put("dimensions", parseValues("10"));
+         grid.put("numLandmarkTypes", parseValues("1,2,4"));
+         grid.put("numLandmarks", parseValues("10,20"));
+         grid.put("numFoods", parseValues("1"));
+         grid.put("numNeighborhoods", parseValues("3,2,1"));
+      }
+      else if (task.equals(NEST_TASK))
+      {
+         steps = DEFAULT_STEPS;
+         grid.put("dimensions", parseValues("10"));
+         grid.put("numStones", parseValues("" + DEFAULT_NUM_STONES));
+         grid.put("numNeighborhoods", parseValues("3,2,1"));
+      }
+      else
+      {
+         // As work/batch_evolve.sh.
+         steps = DEFAULT_EVOLVE_STEPS;
+         grid.put("dimensions", parseValues("10,15,20"));
+         grid.put("numLandmarkTypes", parseValues("1,2,4"));
+         grid.put("numLandmarks", parseValues("20,30,40"));
+         grid.put("numFoods", parseValues("1,2,3"));
+      }
+      grid.put(RANDOM_SEED, parseValues("1-10"));
+   }
+
+
+   // Parse value list.
+   // Returns null if invalid.
+   public static String[] parseValues(String list)
+   {
+      ArrayList<String> values = new ArrayList<String>();
+      for (String item : list.split(","))
+      {
+         item = item.trim();
+         if (item.length() == 0)
+         {
+            return(null);
+         }
+         int dash = item.indexOf('-', 1);
+         if (dash == -1)
+         {
+            values.add(item);
+            continue;
+         }
+         try
+         {
+            int from = Integer.parseInt(item.substring(0, dash));
+            int to   = Integer.parseInt(item.substring(dash + 1));
+            if (from > to)
+            {
+               return(null);
+            }
+            for (int i = from; i <= to; i++)
+            {
+               values.add("" + i);
+            }
+         }
+         catch (NumberFormatException e) {
+            return(null);
+         }
+      }
+      return(values.toArray(new String[values.size()]));
+   }
+
+
+   // Is name a grid parameter of task?
+   public static boolean isParameter(String task, String name)
+   {
+      if (task.equals(EVOLVE_TASK))
+      {
+         return(Arrays.asList(EVOLVE_PARAMETERS).contains(name));
+      }
+      if (Arrays.asList(MOX_PARAMETERS).contains(name))
+      {
+         return(true);
+      }
+      if (task.equals(FORAGE_TASK))
+      {
+         return(Arrays.asList(FORAGE_PARAMETERS).contains(name));
+      }
+      else
+      {
+         return(Arrays.asList(NEST_PARAMETERS).contains(name));
+      }
+   }
+
+
+   // Set grid parameter values.
+   // Key parameters keep their order; the random seed stays last.
+   public void setGrid(String name, String[] values)
+   {
+      String[] seeds = grid.remove(RANDOM_SEED);
+      if (name.equals(RANDOM_SEED))
+      {
+         seeds = values;
+      }
+      else
+      {
+         grid.put(name, values);
+      }
+      grid.put(RANDOM_SEED, seeds);
+   }
+
+
+   // Run grid and write CSV.
+   public void run(PrintWriter writer) throws Exception
+   {
+      // Enumerate configurations, seeds varying fastest.
+      ArrayList<String> names      = new ArrayList<String>(grid.keySet());
+      int[]             sizes      = new int[names.size()];
+      int               numConfigs = 1;
+      for (int i = 0; i < sizes.length; i++)
+      {
+         sizes[i]    = grid.get(names.get(i)).length;
+         numConfigs *= sizes[i];
+      }
+      final ArrayList<Map<String, String> > configs = new ArrayList<Map<String, String> >(numConfigs);
+      int[] digits = new int[sizes.length];
+      for (int c = 0; c < numConfigs; c++)
+      {
+         LinkedHashMap<String, String> config = new LinkedHashMap<String, String>();
+         for (int i = 0; i < sizes.length; i++)
+         {
+            config.put(names.get(i), grid.get(names.get(i))[digits[i]]);
+         }
+         configs.add(config);
+         for (int i = sizes.length - 1; i >= 0; i--)
+         {
+            digits[i]++;
+            if (digits[i] < sizes[i])
+            {
+               break;
+            }
+            digits[i] = 0;
+         }
+      }
+
+      // Run configurations.
+      final double[] values = new double[numConfigs];
+      ArrayList<Callable<Object> > tasks = new ArrayList<Callable<Object> >(numConfigs);
+      for (int c = 0; c < numConfigs; c++)
+      {
+         final int index = c;
+         tasks.add(new Callable<Object>()
+                   {
+                      public Object call()
+                      {
+                         // A failed configuration is reported and valued NaN.
+                         try
+                         {
+                            values[index] = runConfig(configs.get(index));
+                         }
+                         catch (Exception e)
+                         {
+                            System.err.println("Cannot run configuration " + configs.get(index) +
+                                               ": " + e.getMessage());
+                            values[index] = Double.NaN;
+                         }
+                         return(null);
+                      }
+                   }
+                   );
+      }
+      ExecutorService workers = Executors.newFixedThreadPool(threads);
+      try
+      {
+         for (Future<Object> result : workers.invokeAll(tasks))
+         {
+            result.get();
+         }
+      }
+      finally
+      {
+         workers.shutdown();
+      }
+
+      // Write key columns and value averaged over seeds.
+      int numSeeds = grid.get(RANDOM_SEED).length;
+      writer.println(join(names.subList(0, names.size() - 1)) + "," + getValueName());
+      for (int c = 0; c < numConfigs; c += numSeeds)
+      {
+         double sum = 0.0;
+         for (int s = 0; s < numSeeds; s++)
+         {
+            sum += values[c + s];
+         }
+         ArrayList<String> key = new ArrayList<String>(configs.get(c).values());
+         writer.println(join(key.subList(0, key.size() - 1)) + "," +
+                        String.format("%.2f", sum / (double)numSeeds));
+      }
+      writer.flush();
+   }
+
+
+   // Run configuration and return its value.
+   double runConfig(Map<String, String> config) throws Exception
+   {
+      if (task.equals(FORAGE_TASK))
+      {
+         return(runForage(config));
+      }
+      else if (task.equals(NEST_TASK))
+      {
+         return(runNest(config));
+      }
+      else
+      {
+         return(runEvolve(config));
+      }
+   }
+
+
+   // Train forager with autopilot, then test with metamorph DB.
+   // Returns 1 if test forages all food, else 0.
+   double runForage(Map<String, String> config) throws Exception
+   {
+      int dimensions       = getInt(config, "dimensions", -1);
+      int numLandmarkTypes = getInt(config, "numLandmarkTypes", 1);
+
+      Forage forage = new Forage();
+      forage.random = new FastRandom(getInt(config, RANDOM_SEED, Forage.DEFAULT_RANDOM_SEED));
+      forage.initCells(dimensions, dimensions, numLandmarkTypes,
+                       getInt(config, "numLandmarks", 0),
+                       getInt(config, "numFoods", 0));
+      forage.createMoxen(getInt(config, "numMoxen", 1), numLandmarkTypes + 1,
+                         getInt(config, "numNeighborhoods", Morphognostic.DEFAULT_NUM_NEIGHBORHOODS),
+                         getInt(config, "neighborhoodInitialDimension", Morphognostic.DEFAULT_NEIGHBORHOOD_INITIAL_DIMENSION),
+                         getInt(config, "neighborhoodDimensionStride", Morphognostic.DEFAULT_NEIGHBORHOOD_DIMENSION_STRIDE),
+                         getInt(config, "neighborhoodDimensionMultiplier", Morphognostic.DEFAULT_NEIGHBORHOOD_DIMENSION_MULTIPLIER),
+                         getInt(config, "epochIntervalStride", Morphognostic.DEFAULT_EPOCH_INTERVAL_STRIDE),
+                         getInt(config, "epochIntervalMultiplier", Morphognostic.DEFAULT_EPOCH_INTERVAL_MULTIPLIER));
+      forage.reset();
+      for (ForagerMox mox : forage.moxen)
+      {
+         mox.driver = ForagerMox.DRIVER_TYPE.AUTOPILOT.getValue();
+         mox.evaluateMetamorphNN = false;
+      }
+      forage.run(steps);
+
+      // Test as a resumed run with the default seed.
+      forage.random = new FastRandom(Forage.DEFAULT_RANDOM_SEED);
+      forage.reset();
+      for (ForagerMox mox : forage.moxen)
+      {
+         mox.driver = ForagerMox.DRIVER_TYPE.METAMORPH_DB.getValue();
+      }
+      if (forage.run(steps) == 0)
+      {
+         return(1.0);
+      }
+      else
+      {
+         return(0.0);
+      }
+   }
+
+
+   // Build nest with autopilot, then with metamorph DB.
+   // Returns mean elevation of stones.
+   double runNest(Map<String, String> config) throws Exception
+   {
+      int dimensions = getInt(config, "dimensions", -1);
+
+      Nest nest = new Nest(getInt(config, RANDOM_SEED, Nest.DEFAULT_RANDOM_SEED));
+      nest.init(dimensions, dimensions,
+                getInt(config, "numStones", DEFAULT_NUM_STONES),
+                getInt(config, "numMoxen", 1),
+                getInt(config, "numNeighborhoods", Morphognostic.DEFAULT_NUM_NEIGHBORHOODS),
+                getInt(config, "neighborhoodInitialDimension", Morphognostic.DEFAULT_NEIGHBORHOOD_INITIAL_DIMENSION),
+                getInt(config, "neighborhoodDimensionStride", Morphognostic.DEFAULT_NEIGHBORHOOD_DIMENSION_STRIDE),
+                getInt(config, "neighborhoodDimensionMultiplier", Morphognostic.DEFAULT_NEIGHBORHOOD_DIMENSION_MULTIPLIER),
+                getInt(config, "epochIntervalStride", Morphognostic.DEFAULT_EPOCH_INTERVAL_STRIDE),
+                getInt(config, "epochIntervalMultiplier", Morphognostic.DEFAULT_EPOCH_INTERVAL_MULTIPLIER));
+      nest.reset();
+      for (NestingMox mox : nest.moxen)
+      {
+         mox.driver = NestingMox.DRIVER_TYPE.AUTOPILOT.getValue();
+         mox.evaluateMetamorphNN = false;
+      }
+      nest.run(steps);
+      nest.reset();
+      for (NestingMox mox : nest.moxen)
+      {
+         mox.driver = NestingMox.DRIVER_TYPE.METAMORPH_DB.getValue();
+      }
+      nest.run(steps);
+
+      NestCells cells = nest.nestCells;
+      int       n     = 0;
+      double    sum   = 0.0;
+      for (int x = 0; x < cells.size.width; x++)
+      {
+         for (int y = 0; y < cells.size.height; y++)
+         {
+            if (cells.getStone(x, y) == NestCells.STONE_CELL_VALUE)
+            {
+               sum += cells.getElevation(x, y);
+               n++;
+            }
+         }
+      }
+      for (NestingMox mox : nest.moxen)
+      {
+         if (mox.hasStone)
+         {
+            sum += cells.getElevation(mox.x, mox.y);
+            n++;
+         }
+      }
+      if (n > 0)
+      {
+         return(sum / (double)n);
+      }
+      else
+      {
+         return(0.0);
+      }
+   }
+
+
+   // Evolve forage parameters.
+   // Returns fitness of the fittest member of the final generation.
+   double runEvolve(Map<String, String> config) throws Exception
+   {
+      File output = File.createTempFile("evolve", ".out");
+
+      try
+      {
+         ArrayList<String> args = new ArrayList<String>();
+         args.add("-generations");
+         args.add("" + generations);
+         args.add("-steps");
+         args.add("" + steps);
+         args.add("-output");
+         args.add(output.getPath());
+         for (Map.Entry<String, String> entry : config.entrySet())
+         {
+            args.add("-" + entry.getKey());
+            args.add(entry.getValue());
+            if (entry.getKey().equals("dimensions"))
+            {
+               args.add(entry.getValue());
+            }
+         }
+         EvolveForage evolveForage = EvolveForage.create(args.toArray(new String[args.size()]));
+         evolveForage.EvaluateMetamorphNN = false;
+         evolveForage.run();
+         return(evolveForage.Fittest[evolveForage.Generation - 1]);
+      }
+      finally
+      {
+         output.delete();
+      }
+   }
+
+
+   // Get value column name.
+   String getValueName()
+   {
+      if (task.equals(FORAGE_TASK))
+      {
+         return("success");
+      }
+      else if (task.equals(NEST_TASK))
+      {
+         return("stoneElevation");
+      }
+      else
+      {
+         return("fitness");
+      }
+   }
+
+
+   // Get integer parameter.
+   static int getInt(Map<String, String> config, String name, int defaultValue)
+   {
+      String value = config.get(name);
+
+      if (value == null)
+      {
+         return(defaultValue);
+      }
+      return(Integer.parseInt(value));
+   }
+
+
+   // Join strings with commas.
+   static String join(List<String> items)
+   {
+      StringBuilder buffer = new StringBuilder();
+
+      for (int i = 0; i < items.size(); i++)
+      {
+         if (i > 0)
+         {
+            buffer.append(',');
+         }
+         buffer.append(items.get(i));
+      }
+      return(buffer.toString());
+   }
+
+
+   // Main.
+   // Exit codes:
+   // 0=success
+   // 2=error
+   public static void main(String[] args)
+   {
+      // Get options.
+      String task        = null;
+      int    steps       = -1;
+      int    generations = -1;
+      int    threads     = 1;
+      String outfile     = null;
+
+      ArrayList<String>   gridNames  = new ArrayList<String>();
+      ArrayList<String[]> gridValues = new ArrayList<String[]>();
+
+      for (int i = 0; i < args.length; i++)
+      {
+         if (args[i].equals("-task"))
+         {
+            i++;
+            if ((i >= args.length) || (!args[i].equals(FORAGE_TASK) &&
+                                       !args[i].equals(NEST_TASK) && !args[i].equals(EVOLVE_TASK)))
+            {
+               System.err.println("Invalid task option");
+               System.err.println(BatchRunner.Usage);
+               System.exit(2);
+            }
+            task = args[i];
+            continue;
+         }
+         if (args[i].equals("-grid"))
+         {
+            i++;
+            if (i >= args.length)
+            {
+               System.err.println("Invalid grid option");
+               System.err.println(BatchRunner.Usage);
+               System.exit(2);
+            }
+            int      equals = args[i].indexOf('=');
+            String[] values = null;
+            if (equals > 0)
+            {
+               values = parseValues(args[i].substring(equals + 1));
+            }
+            if (values == null)
+            {
+               System.err.println("Invalid grid option");
+               System.err.println(BatchRunner.Usage);
+               System.exit(2);
+            }
+            gridNames.add(args[i].substring(0, equals));
+            gridValues.add(values);
+            continue;
+         }
+         if (args[i].equals("-steps"))
+         {
+            i++;
+            if (i >= args.length)
+            {
+               System.err.println("Invalid steps option");
+               System.err.println(BatchRunner.Usage);
+               System.exit(2);
+            }
+            try
+            {
+               steps = Integer.parseInt(args[i]);
+            }
+            catch (NumberFormatException e) {
+               System.err.println("Invalid steps option");
+               System.err.println(BatchRunner.Usage);
+               System.exit(2);
+            }
+            if (steps < 0)
+            {
+               System.err.println("Invalid steps option");
+               System.err.println(BatchRunner.Usage);
+               System.exit(2);
+            }
+            continue;
+         }
+         if (args[i].equals("-generations"))
+         {
+            i++;
+            if (i >= args.length)
+            {
+               System.err.println("Invalid generations option");
+               System.err.println(BatchRunner.Usage);
+               System.exit(2);
+            }
+            try
+            {
+               generations = Integer.parseInt(args[i]);
+            }
+            catch (NumberFormatException e) {
+               System.err.println("Invalid generations option");
+               System.err.println(BatchRunner.Usage);
+               System.exit(2);
+            }
+            if (generations < 1)
+            {
+               System.err.println("Invalid generations option");
+               System.err.println(BatchRunner.Usage);
+               System.exit(2);
+            }
+            continue;
+         }
+         if (args[i].equals("-threads"))
+         {
+            i++;
+            if (i >= args.length)
+            {
+               System.err.println("Invalid threads option");
+               System.err.println(BatchRunner.Usage);
+               System.exit(2);
+            }
+            try
+            {
+               threads = Integer.parseInt(args[i]);
+            }
+            catch (NumberFormatException e) {
+               System.err.println("Invalid threads option");
+               System.err.println(BatchRunner.Usage);
+               System.exit(2);
+            }
+            if (threads < 1)
+            {
+               System.err.println("Invalid threads option");
+               System.err.println(BatchRunner.Usage);
+               System.exit(2);
+            }
+            continue;
+         }
+         if (args[i].equals("-output"))
+         {
+            i++;
+            if ((i >= args.length) || (outfile != null))
+            {
+               System.err.println("Invalid output option");
+               System.err.println(BatchRunner.Usage);
+               System.exit(2);
+            }
+            outfile = args[i];
+            continue;
+         }
+         System.err.println(BatchRunner.Usage);
+         System.exit(2);
+      }
+
+      // Check options.
+      if (task == null)
+      {
+         System.err.println(BatchRunner.Usage);
+         System.exit(2);
+      }
+      if ((generations != -1) && !task.equals(EVOLVE_TASK))
+      {
+         System.err.println(BatchRunner.Usage);
+         System.exit(2);
+      }
+      for (String name : gridNames)
+      {
+         if (!isParameter(task, name))
+         {
+            System.err.println("Invalid grid option");
+            System.err.println(BatchRunner.Usage);
+            System.exit(2);
+         }
+      }
+
+      // Create runner.
+      BatchRunner runner = new BatchRunner(task);
+      if (steps != -1)
+      {
+         runner.steps = steps;
+      }
+      if (generations != -1)
+      {
+         runner.generations = generations;
+      }
+      runner.threads = threads;
+      for (int i = 0; i < gridNames.size(); i++)
+      {
+         runner.setGrid(gridNames.get(i), gridValues.get(i));
+      }
+
+      // Run.
+      try
+      {
+         PrintWriter writer;
+         if (outfile != null)
+         {
+            writer = new PrintWriter(new FileOutputStream(new File(outfile)));
+         }
+         else
+         {
+            writer = new PrintWriter(System.out);
+         }
+         runner.run(writer);
+         writer.close();
+      }
+      catch (Exception e)
+      {
+         System.err.println("Cannot run batch: " + e.getMessage());
+         System.exit(2);
+      }
+      System.exit(0);
+   }
+}
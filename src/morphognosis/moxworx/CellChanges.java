@@ -0,0 +1,91 @@
+// For conditions of distribution and use, see copyright notice in MoxWorx.java
+
+// Changed cells.
+// Cells set since the list was last drained, listed once each by flat
+// index (x * height + y). Bulk changes such as restores mark all cells.
+
+package morphognosis.moxworx;
+
+public class CellChanges
+{
+   // Dimensions.
+   public int width;
+   public int height;
+
+   // Changed cell indices.
+   public int[] indices;
+   public int   count;
+   boolean[]    changed;
+
+   // All cells changed?
+   public boolean all;
+
+   // Constructor: all cells initially changed.
+   public CellChanges(int width, int height)
+   {
+      this.width  = width;
+      this.height = height;
+      indices     = new int[64];
+      count       = 0;
+      all         = true;
+   }
+
+
+   // Add changed cell.
+   public synchronized void add(int x, int y)
+   {
+      if (all) { return; }
+      if (changed == null)
+      {
+         changed = new boolean[width * height];
+      }
+      int i = (x * height) + y;
+      if (!changed[i])
+      {
+         changed[i] = true;
+         if (count == indices.length)
+         {
+            int[] a = new int[count * 2];
+            System.arraycopy(indices, 0, a, 0, count);
+            indices = a;
+         }
+         indices[count++] = i;
+      }
+   }
+
+
+   // Mark all cells changed.
+   public synchronized void addAll()
+   {
+      clearChanged();
+      count = 0;
+      all   = true;
+   }
+
+
+   // Move changes to given list, leaving this one empty.
+   public synchronized void drainTo(CellChanges list)
+   {
+      clearChanged();
+      int[] a = list.indices;
+      list.indices = indices;
+      list.count   = count;
+      list.all     = all;
+      indices      = a;
+      count        = 0;
+      all          = false;
+   }
+
+
+   // Clear changed cell marks.
+   void clearChanged()
+   {
+      if (changed != null)
+      {
+         for (int i = 0; i < count; i++)
+         {
+            changed[indices[i]] = false;
+         }
+      }
+   }
+}
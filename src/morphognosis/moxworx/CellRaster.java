@@ -0,0 +1,102 @@
+// For conditions of distribution and use, see copyright notice in MoxWorx.java
+
+// Cell raster.
+// Cells are written straight into an image pixel raster, a block of pixels
+// per cell, and only when they change. The raster is scaled onto the display
+// when drawn, so a frame costs one blit instead of a fill per cell.
+
+package morphognosis.moxworx;
+
+import java.awt.Graphics;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+
+public class CellRaster
+{
+   // Largest cell block size in pixels.
+   public static final int MAX_BLOCK_SIZE = 32;
+
+   // Dimensions in cells.
+   public int width;
+   public int height;
+
+   // Cell block size in pixels.
+   public int blockSize;
+
+   // Raster image and pixels.
+   BufferedImage image;
+   int[]         pixels;
+
+   // Dot pixels within a block.
+   boolean[] dot;
+
+   // Constructor.
+   public CellRaster(int width, int height, int blockSize)
+   {
+      this.width     = width;
+      this.height    = height;
+      this.blockSize = blockSize;
+      image          = new BufferedImage(width * blockSize, height * blockSize,
+                                         BufferedImage.TYPE_INT_RGB);
+      pixels = ((DataBufferInt)image.getRaster().getDataBuffer()).getData();
+      dot    = new boolean[blockSize * blockSize];
+      float r = (float)blockSize / 2.0f;
+      for (int i = 0; i < blockSize; i++)
+      {
+         for (int j = 0; j < blockSize; j++)
+         {
+            float dx = ((float)i + 0.5f) - r;
+            float dy = ((float)j + 0.5f) - r;
+            dot[(j * blockSize) + i] = ((dx * dx) + (dy * dy)) <= (r * r);
+         }
+      }
+   }
+
+
+   // Get block size for display cell size.
+   public static int getBlockSize(float cellWidth, float cellHeight)
+   {
+      int size = (int)Math.min(cellWidth, cellHeight);
+
+      return(Math.max(1, Math.min(size, MAX_BLOCK_SIZE)));
+   }
+
+
+   // Set cell color.
+   public void setCell(int x, int y, int rgb)
+   {
+      int rowWidth = width * blockSize;
+      int p        = ((((height - 1) - y) * blockSize) * rowWidth) + (x * blockSize);
+
+      for (int j = 0; j < blockSize; j++, p += rowWidth)
+      {
+         for (int i = 0; i < blockSize; i++)
+         {
+            pixels[p + i] = rgb;
+         }
+      }
+   }
+
+
+   // Set cell to dot color on background color.
+   public void setDot(int x, int y, int background, int rgb)
+   {
+      int rowWidth = width * blockSize;
+      int p        = ((((height - 1) - y) * blockSize) * rowWidth) + (x * blockSize);
+
+      for (int j = 0, k = 0; j < blockSize; j++, p += rowWidth)
+      {
+         for (int i = 0; i < blockSize; i++, k++)
+         {
+            pixels[p + i] = dot[k] ? rgb : background;
+         }
+      }
+   }
+
+
+   // Draw raster scaled to given size.
+   public void draw(Graphics graphics, int displayWidth, int displayHeight)
+   {
+      graphics.drawImage(image, 0, 0, displayWidth, displayHeight, null);
+   }
+}
@@ -0,0 +1,145 @@
+// For conditions of distribution and use, see copyright notice in MoxWorx.java
+
+// Mox event history.
+// A ring buffer of events held in parallel int arrays, oldest first.
+// It grows to the span of retained event ages, after which adding and
+// expiring events allocates nothing.
+
+package morphognosis.moxworx;
+
+public class EventHistory
+{
+   // Values per event.
+   public int numValues;
+
+   // Events.
+   int[] xs;
+   int[] ys;
+   int[] times;
+   int[] values;
+   int   first;
+   int   size;
+
+   // Constructor.
+   public EventHistory(int numValues)
+   {
+      this.numValues = numValues;
+      int n = 16;
+      xs     = new int[n];
+      ys     = new int[n];
+      times  = new int[n];
+      values = new int[n * numValues];
+      first  = 0;
+      size   = 0;
+   }
+
+
+   // Number of events.
+   public int size()
+   {
+      return(size);
+   }
+
+
+   // Clear events.
+   public void clear()
+   {
+      first = 0;
+      size  = 0;
+   }
+
+
+   // Add event and return its index.
+   public int add(int x, int y, int time)
+   {
+      if (size == xs.length)
+      {
+         grow();
+      }
+      int j = slot(size);
+      xs[j]    = x;
+      ys[j]    = y;
+      times[j] = time;
+      size++;
+      return(size - 1);
+   }
+
+
+   // Remove oldest event.
+   public void removeFirst()
+   {
+      if (size > 0)
+      {
+         first = (first + 1) % xs.length;
+         size--;
+      }
+   }
+
+
+   // Event accessors by index, oldest first.
+   public int getX(int i)
+   {
+      return(xs[slot(i)]);
+   }
+
+
+   public int getY(int i)
+   {
+      return(ys[slot(i)]);
+   }
+
+
+   public int getTime(int i)
+   {
+      return(times[slot(i)]);
+   }
+
+
+   public int getValue(int i, int n)
+   {
+      return(values[(slot(i) * numValues) + n]);
+   }
+
+
+   public void setValue(int i, int n, int value)
+   {
+      values[(slot(i) * numValues) + n] = value;
+   }
+
+
+   // Get array slot of index.
+   int slot(int i)
+   {
+      i += first;
+      if (i >= xs.length)
+      {
+         i -= xs.length;
+      }
+      return(i);
+   }
+
+
+   // Double capacity, unwrapping events.
+   void grow()
+   {
+      int n = xs.length * 2;
+
+      int[] xs2     = new int[n];
+      int[] ys2     = new int[n];
+      int[] times2  = new int[n];
+      int[] values2 = new int[n * numValues];
+      for (int i = 0; i < size; i++)
+      {
+         int j = slot(i);
+         xs2[i]    = xs[j];
+         ys2[i]    = ys[j];
+         times2[i] = times[j];
+         System.arraycopy(values, j * numValues, values2, i * numValues, numValues);
+      }
+      xs     = xs2;
+      ys     = ys2;
+      times  = times2;
+      values = values2;
+      first  = 0;
+   }
+}
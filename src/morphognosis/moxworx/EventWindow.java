@@ -0,0 +1,182 @@
+// For conditions of distribution and use, see copyright notice in MoxWorx.java
+
+// Sparse morphognostic event window.
+// Morphognostic.update only reads the cells covered by the mox's neighborhoods,
+// so events are written into a reusable tensor that spans just those cells,
+// and only the entries written by the previous update are cleared.
+
+package morphognosis.moxworx;
+
+import java.util.Arrays;
+
+import morphognosis.Morphognostic;
+
+public class EventWindow
+{
+   // Grid dimensions.
+   public int gridWidth, gridHeight;
+
+   // Window dimensions.
+   // An axis spans the whole grid if the neighborhoods do not fit within it.
+   public int  width, height;
+   boolean     wrapX, wrapY;
+   int         loX, loY;
+   int         eventDimensions;
+   public int  maxEventAge;
+
+   // Window events: [x][y][event dimension][age], -1 when empty.
+   public int[][][][] events;
+
+   // Current window origin.
+   int centerX, centerY;
+   int moxX, moxY;
+
+   // Entries set since the last clear.
+   int[] setX, setY, setD, setT;
+   int   numSet;
+
+   // Constructor.
+   public EventWindow(Morphognostic morphognostic, int gridWidth, int gridHeight, int maxEventAge)
+   {
+      this.gridWidth   = gridWidth;
+      this.gridHeight  = gridHeight;
+      this.maxEventAge = maxEventAge;
+      eventDimensions  = morphognostic.eventDimensions;
+
+      // Get neighborhood extents.
+      int hiX = 0, hiY = 0;
+      loX = loY = 0;
+      for (int i = 0; i < morphognostic.NUM_NEIGHBORHOODS; i++)
+      {
+         Morphognostic.Neighborhood n = morphognostic.neighborhoods.get(i);
+         if ((i == 0) || (n.dx < loX)) { loX = n.dx; }
+         if ((i == 0) || (n.dy < loY)) { loY = n.dy; }
+         if ((i == 0) || ((n.dx + n.dimension) > hiX)) { hiX = n.dx + n.dimension; }
+         if ((i == 0) || ((n.dy + n.dimension) > hiY)) { hiY = n.dy + n.dimension; }
+      }
+      if ((hiX - loX) <= gridWidth)
+      {
+         wrapX = false;
+         width = hiX - loX;
+      }
+      else
+      {
+         wrapX = true;
+         width = gridWidth;
+      }
+      if ((hiY - loY) <= gridHeight)
+      {
+         wrapY = false;
+         height = hiY - loY;
+      }
+      else
+      {
+         wrapY = true;
+         height = gridHeight;
+      }
+      if (width < 1) { width = 1; }
+      if (height < 1) { height = 1; }
+
+      // Create events.
+      int a = maxEventAge + 1;
+      events = new int[width][height][eventDimensions][a];
+      for (int x = 0; x < width; x++)
+      {
+         for (int y = 0; y < height; y++)
+         {
+            for (int d = 0; d < eventDimensions; d++)
+            {
+               for (int t = 0; t < a; t++)
+               {
+                  events[x][y][d][t] = -1;
+               }
+            }
+         }
+      }
+      int n = a * eventDimensions;
+      setX   = new int[n];
+      setY   = new int[n];
+      setD   = new int[n];
+      setT   = new int[n];
+      numSet = 0;
+   }
+
+
+   // Clear events and center window on mox location.
+   public void clear(int moxX, int moxY)
+   {
+      for (int i = 0; i < numSet; i++)
+      {
+         events[setX[i]][setY[i]][setD[i]][setT[i]] = -1;
+      }
+      numSet    = 0;
+      this.moxX = moxX;
+      this.moxY = moxY;
+      if (wrapX)
+      {
+         centerX = moxX;
+      }
+      else
+      {
+         centerX = -loX;
+      }
+      if (wrapY)
+      {
+         centerY = moxY;
+      }
+      else
+      {
+         centerY = -loY;
+      }
+   }
+
+
+   // Set event at grid location.
+   // Events outside the neighborhoods are ignored.
+   public void set(int x, int y, int dimension, int age, int value)
+   {
+      int wx, wy;
+
+      if (wrapX)
+      {
+         wx = x;
+      }
+      else
+      {
+         wx = (x - moxX - loX) % gridWidth;
+         if (wx < 0) { wx += gridWidth; }
+         if (wx >= width) { return; }
+      }
+      if (wrapY)
+      {
+         wy = y;
+      }
+      else
+      {
+         wy = (y - moxY - loY) % gridHeight;
+         if (wy < 0) { wy += gridHeight; }
+         if (wy >= height) { return; }
+      }
+      if (numSet == setX.length)
+      {
+         int n = numSet * 2;
+         setX = Arrays.copyOf(setX, n);
+         setY = Arrays.copyOf(setY, n);
+         setD = Arrays.copyOf(setD, n);
+         setT = Arrays.copyOf(setT, n);
+      }
+      setX[numSet] = wx;
+      setY[numSet] = wy;
+      setD[numSet] = dimension;
+      setT[numSet] = age;
+      numSet++;
+      events[wx][wy][dimension][age] = value;
+   }
+
+
+   // Update morphognostic with window events.
+   public void update(Morphognostic morphognostic)
+   {
+      morphognostic.update(events, centerX, centerY);
+   }
+}
@@ -5,6 +5,7 @@
 package morphognosis.moxworx;
 
 import java.util.*;
+import java.util.concurrent.*;
 
 import morphognosis.Utility;
 
@@ -42,6 +43,7 @@ public class EvolveForage
    public float              RANDOM_MUTATION_RATE         = DEFAULT_RANDOM_MUTATION_RATE;
    public static final int   DEFAULT_RANDOM_SEED          = 4517;
    public int                RANDOM_SEED                  = DEFAULT_RANDOM_SEED;
+   public static final int   DEFAULT_THREADS              = 1;
    public static final int   SAVE_FREQUENCY               = 1;
    public static final float INVALID_FITNESS              = 1000.0f;
 
@@ -121,6 +123,7 @@ public class EvolveForage
       "     [-mutationRate <mutation rate> (default=" + DEFAULT_MUTATION_RATE + ")]\n" +
       "     [-randomMutationRate <random mutation rate> (default=" + DEFAULT_RANDOM_MUTATION_RATE + ")]\n" +
       "     [-randomSeed <random seed> (default=" + DEFAULT_RANDOM_SEED + ")]\n" +
+      "     [-threads <member evaluation threads> (default=" + DEFAULT_THREADS + ")]\n" +
       "     [-logfile <log file name>]\n" +
       "  Resume run:\n" +
       "    java EvolveForage\n" +
@@ -128,6 +131,7 @@ public class EvolveForage
       "      -steps <moxen steps>\n" +
       "      -input <evolution input file name>\n" +
       "      -output <evolution output file name>\n" +
+      "     [-threads <member evaluation threads> (default=" + DEFAULT_THREADS + ")]\n" +
       "     [-logfile <log file name>]\n" +
       "  Print population properties:\n" +
       "    java EvolveForage\n" +
@@ -152,7 +156,14 @@ public class EvolveForage
    PrintWriter LogWriter;
 
    // Random numbers.
-   Random Randomizer;
+   FastRandom Randomizer;
+
+   // Member evaluation threads.
+   int             Threads;
+   ExecutorService Evaluators;
+
+   // Fitness cache: evaluation settings and genome values to fitness.
+   TreeMap<String, Float> FitnessCache;
 
    // Print population properties.
    boolean PrintProperties;
@@ -160,6 +171,9 @@ public class EvolveForage
    // Print evolution statistics.
    boolean PrintStatistics;
 
+   // Print member metamorph NN evaluations.
+   boolean EvaluateMetamorphNN;
+
    // Evolution statistics.
    float[] Fittest;
    float[] Average;
@@ -168,7 +182,40 @@ public class EvolveForage
    Member[] Population;
 
    // Constructor.
+   // Exits on invalid options.
    public EvolveForage(String[] args)
+   {
+      try
+      {
+         setOptions(args);
+      }
+      catch (IllegalArgumentException e) {
+         System.err.println(e.getMessage());
+         System.err.println(Usage);
+         System.exit(1);
+      }
+   }
+
+
+   // Constructor for create.
+   EvolveForage()
+   {
+   }
+
+
+   // Create with options.
+   // Throws IllegalArgumentException on invalid options instead of exiting.
+   public static EvolveForage create(String[] args)
+   {
+      EvolveForage evolveForage = new EvolveForage();
+
+      evolveForage.setOptions(args);
+      return(evolveForage);
+   }
+
+
+   // Set options.
+   void setOptions(String[] args)
    {
       int i;
 
@@ -178,6 +225,10 @@ public class EvolveForage
       Steps         = -1;
       InputFileName = OutputFileName = LogFileName = null;
       LogWriter     = null;
+      Threads       = DEFAULT_THREADS;
+      Evaluators    = null;
+      FitnessCache  = new TreeMap<String, Float>();
+      boolean gotThreads            = false;
       boolean gotDimensions         = false;
       boolean gotNumLandmarkTypes   = false;
       boolean gotNumLandmarks       = false;
@@ -191,8 +242,9 @@ public class EvolveForage
       boolean gotMutationRate       = false;
       boolean gotRandomMutationRate = false;
       boolean gotRandomSeed         = false;
-      PrintProperties = false;
-      PrintStatistics = false;
+      PrintProperties     = false;
+      PrintStatistics     = false;
+      EvaluateMetamorphNN = true;
 
       for (i = 0; i < args.length; i++)
       {
@@ -201,14 +253,12 @@ public class EvolveForage
             i++;
             if (i >= args.length)
             {
-               System.err.println(Usage);
-               System.exit(1);
+               throw (new IllegalArgumentException("Invalid generations option"));
             }
             Generations = Integer.parseInt(args[i]);
             if (Generations < 0)
             {
-               System.err.println(Usage);
-               System.exit(1);
+               throw (new IllegalArgumentException("Invalid generations option"));
             }
             continue;
          }
@@ -218,14 +268,12 @@ public class EvolveForage
             i++;
             if (i >= args.length)
             {
-               System.err.println(Usage);
-               System.exit(1);
+               throw (new IllegalArgumentException("Invalid steps option"));
             }
             Steps = Integer.parseInt(args[i]);
             if (Steps < 0)
             {
-               System.err.println(Usage);
-               System.exit(1);
+               throw (new IllegalArgumentException("Invalid steps option"));
             }
             continue;
          }
@@ -235,8 +283,7 @@ public class EvolveForage
             i++;
             if (i >= args.length)
             {
-               System.err.println(Usage);
-               System.exit(1);
+               throw (new IllegalArgumentException("Invalid input option"));
             }
             InputFileName = new String(args[i]);
             continue;
@@ -247,8 +294,7 @@ public class EvolveForage
             i++;
             if (i >= args.length)
             {
-               System.err.println(Usage);
-               System.exit(1);
+               throw (new IllegalArgumentException("Invalid output option"));
             }
             OutputFileName = new String(args[i]);
             continue;
@@ -259,46 +305,34 @@ public class EvolveForage
             i++;
             if (i >= args.length)
             {
-               System.err.println("Invalid dimensions option");
-               System.err.println(EvolveForage.Usage);
-               System.exit(2);
+               throw (new IllegalArgumentException("Invalid dimensions option"));
             }
             try
             {
                WIDTH = Integer.parseInt(args[i]);
             }
             catch (NumberFormatException e) {
-               System.err.println("Invalid width option");
-               System.err.println(EvolveForage.Usage);
-               System.exit(2);
+               throw (new IllegalArgumentException("Invalid width option"));
             }
             if (WIDTH < 2)
             {
-               System.err.println("Invalid width option");
-               System.err.println(EvolveForage.Usage);
-               System.exit(2);
+               throw (new IllegalArgumentException("Invalid width option"));
             }
             i++;
             if (i >= args.length)
             {
-               System.err.println("Invalid dimensions option");
-               System.err.println(EvolveForage.Usage);
-               System.exit(2);
+               throw (new IllegalArgumentException("Invalid dimensions option"));
             }
             try
             {
                HEIGHT = Integer.parseInt(args[i]);
             }
             catch (NumberFormatException e) {
-               System.err.println("Invalid height option");
-               System.err.println(EvolveForage.Usage);
-               System.exit(2);
+               throw (new IllegalArgumentException("Invalid height option"));
             }
             if (HEIGHT < 2)
             {
-               System.err.println("Invalid height option");
-               System.err.println(EvolveForage.Usage);
-               System.exit(2);
+               throw (new IllegalArgumentException("Invalid height option"));
             }
             gotDimensions = true;
             continue;
@@ -309,14 +343,13 @@ public class EvolveForage
             i++;
             if (i >= args.length)
             {
-               System.err.println(Usage);
-               System.exit(1);
+               throw (new IllegalArgumentException("Invalid numLandmarkTypes option"));
             }
             NUM_LANDMARK_TYPES = Integer.parseInt(args[i]);
-            if (NUM_LANDMARK_TYPES < 1)
+            if ((NUM_LANDMARK_TYPES < 1) ||
+                (NUM_LANDMARK_TYPES > (ForageCells.MAX_CELL_VALUE - ForageCells.LANDMARK_CELLS_BEGIN_VALUE + 1)))
             {
-               System.err.println(Usage);
-               System.exit(1);
+               throw (new IllegalArgumentException("Invalid numLandmarkTypes option"));
             }
             gotNumLandmarkTypes = true;
             continue;
@@ -327,14 +360,12 @@ public class EvolveForage
             i++;
             if (i >= args.length)
             {
-               System.err.println(Usage);
-               System.exit(1);
+               throw (new IllegalArgumentException("Invalid numLandmarks option"));
             }
             NUM_LANDMARKS = Integer.parseInt(args[i]);
             if (NUM_LANDMARKS < 0)
             {
-               System.err.println(Usage);
-               System.exit(1);
+               throw (new IllegalArgumentException("Invalid numLandmarks option"));
             }
             gotNumLandmarks = true;
             continue;
@@ -345,14 +376,12 @@ public class EvolveForage
             i++;
             if (i >= args.length)
             {
-               System.err.println(Usage);
-               System.exit(1);
+               throw (new IllegalArgumentException("Invalid numFoods option"));
             }
             NUM_FOODS = Integer.parseInt(args[i]);
             if (NUM_FOODS < 0)
             {
-               System.err.println(Usage);
-               System.exit(1);
+               throw (new IllegalArgumentException("Invalid numFoods option"));
             }
             gotNumFoods = true;
             continue;
@@ -363,14 +392,12 @@ public class EvolveForage
             i++;
             if (i >= args.length)
             {
-               System.err.println(Usage);
-               System.exit(1);
+               throw (new IllegalArgumentException("Invalid trainingSetSize option"));
             }
             TRAINING_SET_SIZE = Integer.parseInt(args[i]);
             if (TRAINING_SET_SIZE < 1)
             {
-               System.err.println(Usage);
-               System.exit(1);
+               throw (new IllegalArgumentException("Invalid trainingSetSize option"));
             }
             gotTrainingSetSize = true;
             continue;
@@ -381,14 +408,12 @@ public class EvolveForage
             i++;
             if (i >= args.length)
             {
-               System.err.println(Usage);
-               System.exit(1);
+               throw (new IllegalArgumentException("Invalid trainingCellNoise option"));
             }
             TRAINING_CELL_NOISE = Float.parseFloat(args[i]);
             if ((TRAINING_CELL_NOISE < 0.0f) || (TRAINING_CELL_NOISE > 1.0f))
             {
-               System.err.println(Usage);
-               System.exit(1);
+               throw (new IllegalArgumentException("Invalid trainingCellNoise option"));
             }
             gotTrainingCellNoise = true;
             continue;
@@ -399,8 +424,7 @@ public class EvolveForage
             i++;
             if (i >= args.length)
             {
-               System.err.println(Usage);
-               System.exit(1);
+               throw (new IllegalArgumentException("Invalid moxTestDriver option"));
             }
             if (args[i].equals("metamorphDB"))
             {
@@ -412,8 +436,7 @@ public class EvolveForage
             }
             else
             {
-               System.err.println(Usage);
-               System.exit(1);
+               throw (new IllegalArgumentException("Invalid moxTestDriver option"));
             }
             gotMoxTestDriver = true;
             continue;
@@ -424,14 +447,12 @@ public class EvolveForage
             i++;
             if (i >= args.length)
             {
-               System.err.println(Usage);
-               System.exit(1);
+               throw (new IllegalArgumentException("Invalid fitPopulationSize option"));
             }
             FIT_POPULATION_SIZE = Integer.parseInt(args[i]);
             if (FIT_POPULATION_SIZE < 0)
             {
-               System.err.println(Usage);
-               System.exit(1);
+               throw (new IllegalArgumentException("Invalid fitPopulationSize option"));
             }
             setPopulationSize();
             gotFitPopulationSize = true;
@@ -443,14 +464,12 @@ public class EvolveForage
             i++;
             if (i >= args.length)
             {
-               System.err.println(Usage);
-               System.exit(1);
+               throw (new IllegalArgumentException("Invalid numMutants option"));
             }
             NUM_MUTANTS = Integer.parseInt(args[i]);
             if (NUM_MUTANTS < 0)
             {
-               System.err.println(Usage);
-               System.exit(1);
+               throw (new IllegalArgumentException("Invalid numMutants option"));
             }
             setPopulationSize();
             gotNumMutants = true;
@@ -462,14 +481,12 @@ public class EvolveForage
             i++;
             if (i >= args.length)
             {
-               System.err.println(Usage);
-               System.exit(1);
+               throw (new IllegalArgumentException("Invalid numOffspring option"));
             }
             NUM_OFFSPRING = Integer.parseInt(args[i]);
             if (NUM_OFFSPRING < 0)
             {
-               System.err.println(Usage);
-               System.exit(1);
+               throw (new IllegalArgumentException("Invalid numOffspring option"));
             }
             setPopulationSize();
             gotNumOffspring = true;
@@ -481,14 +498,12 @@ public class EvolveForage
             i++;
             if (i >= args.length)
             {
-               System.err.println(Usage);
-               System.exit(1);
+               throw (new IllegalArgumentException("Invalid mutationRate option"));
             }
             MUTATION_RATE = Float.parseFloat(args[i]);
             if ((MUTATION_RATE < 0.0f) || (MUTATION_RATE > 1.0f))
             {
-               System.err.println(Usage);
-               System.exit(1);
+               throw (new IllegalArgumentException("Invalid mutationRate option"));
             }
             gotMutationRate = true;
             continue;
@@ -499,14 +514,12 @@ public class EvolveForage
             i++;
             if (i >= args.length)
             {
-               System.err.println(Usage);
-               System.exit(1);
+               throw (new IllegalArgumentException("Invalid randomMutationRate option"));
             }
             RANDOM_MUTATION_RATE = Float.parseFloat(args[i]);
             if ((RANDOM_MUTATION_RATE < 0.0f) || (RANDOM_MUTATION_RATE > 1.0f))
             {
-               System.err.println(Usage);
-               System.exit(1);
+               throw (new IllegalArgumentException("Invalid randomMutationRate option"));
             }
             gotRandomMutationRate = true;
             continue;
@@ -517,21 +530,35 @@ public class EvolveForage
             i++;
             if (i >= args.length)
             {
-               System.err.println(Usage);
-               System.exit(1);
+               throw (new IllegalArgumentException("Invalid randomSeed option"));
             }
             RANDOM_SEED   = Integer.parseInt(args[i]);
             gotRandomSeed = true;
             continue;
          }
 
+         if (args[i].equals("-threads"))
+         {
+            i++;
+            if (i >= args.length)
+            {
+               throw (new IllegalArgumentException("Invalid threads option"));
+            }
+            Threads = Integer.parseInt(args[i]);
+            if (Threads < 1)
+            {
+               throw (new IllegalArgumentException("Invalid threads option"));
+            }
+            gotThreads = true;
+            continue;
+         }
+
          if (args[i].equals("-logfile"))
          {
             i++;
             if (i >= args.length)
             {
-               System.err.println(Usage);
-               System.exit(1);
+               throw (new IllegalArgumentException("Invalid logfile option"));
             }
             LogFileName = new String(args[i]);
             continue;
@@ -549,8 +576,7 @@ public class EvolveForage
             continue;
          }
 
-         System.err.println(Usage);
-         System.exit(1);
+         throw (new IllegalArgumentException("Invalid option " + args[i]));
       }
 
       // Print properties?
@@ -559,37 +585,30 @@ public class EvolveForage
          if ((Generations != -1) || (Steps != -1) ||
              (InputFileName == null) ||
              (OutputFileName != null) ||
-             (LogFileName != null) ||
+             (LogFileName != null) || gotThreads ||
              gotDimensions || gotNumLandmarkTypes || gotNumLandmarks || gotNumFoods ||
              gotTrainingSetSize || gotTrainingCellNoise || gotMoxTestDriver ||
              gotFitPopulationSize || gotNumMutants || gotNumOffspring ||
              gotMutationRate || gotRandomMutationRate || gotRandomSeed)
          {
-            System.err.println(Usage);
-            System.exit(1);
+            throw (new IllegalArgumentException("Invalid options"));
          }
       }
       else
       {
          if (Generations == -1)
          {
-            System.err.println("Generations option required");
-            System.err.println(Usage);
-            System.exit(1);
+            throw (new IllegalArgumentException("Generations option required"));
          }
 
          if (Steps == -1)
          {
-            System.err.println("Steps option required");
-            System.err.println(Usage);
-            System.exit(1);
+            throw (new IllegalArgumentException("Steps option required"));
          }
 
          if (OutputFileName == null)
          {
-            System.err.println("Output file required");
-            System.err.println(Usage);
-            System.exit(1);
+            throw (new IllegalArgumentException("Output file required"));
          }
 
          if (InputFileName != null)
@@ -599,14 +618,13 @@ public class EvolveForage
                 gotNumFoods || gotTrainingSetSize || gotTrainingCellNoise || gotMoxTestDriver ||
                 gotMutationRate || gotRandomMutationRate || gotRandomSeed)
             {
-               System.err.println(Usage);
-               System.exit(1);
+               throw (new IllegalArgumentException("Invalid options"));
             }
          }
       }
 
       // Seed random numbers.
-      Randomizer = new Random(RANDOM_SEED);
+      Randomizer = new FastRandom(RANDOM_SEED);
 
       // Open log file?
       if (LogFileName != null)
@@ -616,9 +634,8 @@ public class EvolveForage
             LogWriter = new PrintWriter(new FileOutputStream(new File(LogFileName)));
          }
          catch (Exception e) {
-            System.err.println("Cannot open log file " + LogFileName +
-                               ":" + e.getMessage());
-            System.exit(1);
+            throw (new IllegalArgumentException("Cannot open log file " + LogFileName +
+                                                ":" + e.getMessage()));
          }
       }
    }
@@ -654,6 +671,7 @@ public class EvolveForage
       log("    MUTATION_RATE=" + MUTATION_RATE);
       log("    RANDOM_MUTATION_RATE=" + RANDOM_MUTATION_RATE);
       log("    RANDOM_SEED=" + RANDOM_SEED);
+      log("    threads=" + Threads);
 
       // Print population properties?
       if (PrintProperties)
@@ -687,6 +705,11 @@ public class EvolveForage
       // Save populations.
       save(Generation - 1);
 
+      if (Evaluators != null)
+      {
+         Evaluators.shutdown();
+         Evaluators = null;
+      }
       log("End evolve");
    }
 
@@ -702,15 +725,14 @@ public class EvolveForage
          if (i == 0)
          {
             Population[i] = new Member(0, Randomizer);
-            Population[i].evaluate(Steps, this);
          }
          else
          {
             // Mutate parameters.
             Population[i] = new Member(Population[0], 0, Randomizer);
-            Population[i].evaluate(Steps, this);
          }
       }
+      evaluate(0, POPULATION_SIZE);
       Fittest = new float[Generations + 1];
       Average = new float[Generations + 1];
    }
@@ -764,6 +786,21 @@ public class EvolveForage
             Fittest[i] = Utility.loadFloat(reader);
             Average[i] = Utility.loadFloat(reader);
          }
+
+         // Load fitness cache, absent in older files.
+         int n;
+         try
+         {
+            n = Utility.loadInt(reader);
+         }
+         catch (EOFException e) {
+            n = 0;
+         }
+         for (i = 0; i < n; i++)
+         {
+            String key = Utility.loadString(reader);
+            FitnessCache.put(key, Utility.loadFloat(reader));
+         }
          input.close();
       }
       catch (Exception e) {
@@ -806,7 +843,9 @@ public class EvolveForage
       try
       {
          // Save parameters.
+         // Flush before members write to the underlying stream.
          saveParameters(writer);
+         writer.flush();
 
          // Save population.
          for (i = 0; i < POPULATION_SIZE; i++)
@@ -818,6 +857,14 @@ public class EvolveForage
             Utility.saveFloat(writer, Fittest[i]);
             Utility.saveFloat(writer, Average[i]);
          }
+
+         // Save fitness cache.
+         Utility.saveInt(writer, FitnessCache.size());
+         for (Map.Entry<String, Float> entry : FitnessCache.entrySet())
+         {
+            Utility.saveString(writer, entry.getKey());
+            Utility.saveFloat(writer, entry.getValue());
+         }
          writer.flush();
          output.close();
       }
@@ -911,16 +958,24 @@ public class EvolveForage
       Member member, mutant;
 
       log("Mutate:");
+      int[] parents = new int[NUM_MUTANTS];
       for (i = 0; i < NUM_MUTANTS; i++)
       {
          // Select a fit member to mutate.
-         j      = Randomizer.nextInt(FIT_POPULATION_SIZE);
-         member = Population[j];
+         j          = Randomizer.nextInt(FIT_POPULATION_SIZE);
+         member     = Population[j];
+         parents[i] = j;
 
          // Create mutant member.
          mutant = new Member(member, member.generation + 1, Randomizer);
-         mutant.evaluate(Steps, this);
          Population[FIT_POPULATION_SIZE + i] = mutant;
+      }
+      evaluate(FIT_POPULATION_SIZE, FIT_POPULATION_SIZE + NUM_MUTANTS);
+      for (i = 0; i < NUM_MUTANTS; i++)
+      {
+         j      = parents[i];
+         member = Population[j];
+         mutant = Population[FIT_POPULATION_SIZE + i];
          log("    member=" + j + ", " + member.getInfo() +
              " -> member=" + (FIT_POPULATION_SIZE + i) +
              ", " + mutant.getInfo());
@@ -938,20 +993,32 @@ public class EvolveForage
       log("Mate:");
       if (FIT_POPULATION_SIZE > 1)
       {
+         int[] parents1 = new int[NUM_OFFSPRING];
+         int[] parents2 = new int[NUM_OFFSPRING];
          for (i = 0; i < NUM_OFFSPRING; i++)
          {
             // Select a pair of fit members to mate.
             j       = Randomizer.nextInt(FIT_POPULATION_SIZE);
             member1 = Population[j];
             while ((k = Randomizer.nextInt(FIT_POPULATION_SIZE)) == j) {}
-            member2 = Population[k];
+            member2     = Population[k];
+            parents1[i] = j;
+            parents2[i] = k;
 
             // Create offspring.
             offspring = new Member(member1, member2,
                                    (member1.generation > member2.generation ?
                                     member1.generation : member2.generation) + 1, Randomizer);
-            offspring.evaluate(Steps, this);
             Population[FIT_POPULATION_SIZE + NUM_MUTANTS + i] = offspring;
+         }
+         evaluate(FIT_POPULATION_SIZE + NUM_MUTANTS, POPULATION_SIZE);
+         for (i = 0; i < NUM_OFFSPRING; i++)
+         {
+            j         = parents1[i];
+            k         = parents2[i];
+            member1   = Population[j];
+            member2   = Population[k];
+            offspring = Population[FIT_POPULATION_SIZE + NUM_MUTANTS + i];
             log("    member=" + j + ", " + member1.getInfo() + " + member=" +
                 k + ", " + member2.getInfo() +
                 " -> member=" + (FIT_POPULATION_SIZE +
@@ -962,6 +1029,116 @@ public class EvolveForage
    }
 
 
+   // Evaluate population members in range [begin, end).
+   // Members with cached fitness are not evaluated, and members with
+   // equal genomes are evaluated once.
+   // Members are evaluated concurrently when multiple threads are configured.
+   void evaluate(int begin, int end)
+   {
+      String[] keys = new String[end - begin];
+      ArrayList<Member> members = new ArrayList<Member>();
+      HashSet<String>   pending = new HashSet<String>();
+      for (int i = begin; i < end; i++)
+      {
+         Member member = Population[i];
+         String key    = getFitnessKey(member);
+         keys[i - begin] = key;
+         if (!FitnessCache.containsKey(key) && pending.add(key))
+         {
+            members.add(member);
+         }
+      }
+      evaluate(members);
+      for (int i = 0; i < members.size(); i++)
+      {
+         Member member = members.get(i);
+         if (member.fitness != INVALID_FITNESS)
+         {
+            FitnessCache.put(getFitnessKey(member), member.fitness);
+         }
+      }
+      for (int i = begin; i < end; i++)
+      {
+         Float fitness = FitnessCache.get(keys[i - begin]);
+         if (fitness != null)
+         {
+            Population[i].fitness = fitness;
+         }
+         else
+         {
+            Population[i].fitness = INVALID_FITNESS;
+         }
+      }
+   }
+
+
+   // Evaluate members.
+   void evaluate(ArrayList<Member> members)
+   {
+      if ((Threads == 1) || (members.size() < 2))
+      {
+         for (Member member : members)
+         {
+            member.evaluate(Steps, this);
+         }
+         return;
+      }
+      if (Evaluators == null)
+      {
+         Evaluators = Executors.newFixedThreadPool(Threads);
+      }
+      ArrayList<Callable<Object> > tasks = new ArrayList<Callable<Object> >();
+      for (final Member member : members)
+      {
+         tasks.add(Executors.callable(new Runnable()
+                                      {
+                                         public void run()
+                                         {
+                                            member.evaluate(Steps, EvolveForage.this);
+                                         }
+                                      }
+                                      ));
+      }
+      try
+      {
+         for (Future<Object> result : Evaluators.invokeAll(tasks))
+         {
+            result.get();
+         }
+      }
+      catch (Exception e)
+      {
+         System.err.println("Cannot evaluate members: " + e.getMessage());
+         System.exit(1);
+      }
+   }
+
+
+   // Get fitness cache key for member.
+   String getFitnessKey(Member member)
+   {
+      return("steps=" + Steps +
+             ",width=" + WIDTH + ",height=" + HEIGHT +
+             ",numLandmarkTypes=" + NUM_LANDMARK_TYPES +
+             ",numLandmarks=" + NUM_LANDMARKS +
+             ",numFoods=" + NUM_FOODS +
+             ",trainingSetSize=" + TRAINING_SET_SIZE +
+             ",trainingCellNoise=" + TRAINING_CELL_NOISE +
+             ",moxTestDriver=" + MOX_TEST_DRIVER.getValue() +
+             ",randomSeed=" + RANDOM_SEED +
+             ":" + member.moxParmGenome.getValuesKey());
+   }
+
+
+   // Get random seed for evaluating member.
+   // The stream depends only on the fitness key, so fitness is a function
+   // of the genome and settings, independent of evaluation order.
+   long getEvaluationSeed(Member member)
+   {
+      return(FastRandom.mix((((long)RANDOM_SEED) << 32) + getFitnessKey(member).hashCode() + FastRandom.GOLDEN_GAMMA));
+   }
+
+
    // Print population properties.
    void printProperties()
    {
@@ -1013,7 +1190,7 @@ public class EvolveForage
    public class MoxParmGenome extends Genome
    {
       // Constructor.
-      public MoxParmGenome(Random randomizer)
+      public MoxParmGenome(FastRandom randomizer)
       {
          super(MUTATION_RATE, RANDOM_MUTATION_RATE, randomizer.nextInt());
 
@@ -1062,16 +1239,16 @@ public class EvolveForage
    // Population member.
    public class Member
    {
-      public int    id;
-      public int    generation;
-      public float  fitness;
-      public Random randomizer;
+      public int        id;
+      public int        generation;
+      public float      fitness;
+      public FastRandom randomizer;
 
       // Mox parameters.
       public MoxParmGenome moxParmGenome;
 
       // Constructors.
-      public Member(int generation, Random randomizer)
+      public Member(int generation, FastRandom randomizer)
       {
          id = IDdispenser++;
          this.generation = generation;
@@ -1084,7 +1261,7 @@ public class EvolveForage
 
 
       // Construct mutation of given member.
-      public Member(Member member, int generation, Random randomizer)
+      public Member(Member member, int generation, FastRandom randomizer)
       {
          id = IDdispenser++;
          this.generation = generation;
@@ -1099,7 +1276,7 @@ public class EvolveForage
 
 
       // Construct by mating given members.
-      public Member(Member member1, Member member2, int generation, Random randomizer)
+      public Member(Member member1, Member member2, int generation, FastRandom randomizer)
       {
          id = IDdispenser++;
          this.generation = generation;
@@ -1130,7 +1307,7 @@ public class EvolveForage
 
          // Create world.
          Forage forage = new Forage();
-         forage.random = new Random(RANDOM_SEED);
+         forage.random = new FastRandom(RANDOM_SEED);
          try
          {
             forage.initCells(WIDTH, HEIGHT, NUM_LANDMARK_TYPES, NUM_LANDMARKS, NUM_FOODS);
@@ -1144,12 +1321,16 @@ public class EvolveForage
          }
          catch (Exception e)
          {
-            System.err.println("Cannot initialize: " + e.getMessage());
-            System.exit(2);
+            System.err.println("Cannot initialize member " + id + ": " + e.getMessage());
+            return;
+         }
+         for (ForagerMox mox : forage.moxen)
+         {
+            mox.evaluateMetamorphNN = evolver.EvaluateMetamorphNN;
          }
 
          // Train.
-         Random      random      = evolver.Randomizer;
+         FastRandom  random      = new FastRandom(evolver.getEvaluationSeed(this));
          ForageCells forageCells = forage.forageCells;
          int         w           = forageCells.size.width;
          int         h           = forageCells.size.height;
@@ -1162,17 +1343,17 @@ public class EvolveForage
                {
                   if (random.nextFloat() < evolver.TRAINING_CELL_NOISE)
                   {
-                     if ((forageCells.cells[x][y] == MoxWorx.EMPTY_CELL_VALUE) ||
-                         (forageCells.cells[x][y] >= ForageCells.LANDMARK_CELLS_BEGIN_VALUE))
+                     if ((forageCells.getCell(x, y) == MoxWorx.EMPTY_CELL_VALUE) ||
+                         (forageCells.getCell(x, y) >= ForageCells.LANDMARK_CELLS_BEGIN_VALUE))
                      {
                         v = random.nextInt(NUM_LANDMARK_TYPES + 1);
                         if (v == 0)
                         {
-                           forageCells.cells[x][y] = MoxWorx.EMPTY_CELL_VALUE;
+                           forageCells.setCell(x, y, MoxWorx.EMPTY_CELL_VALUE);
                         }
                         else
                         {
-                           forageCells.cells[x][y] = v + ForageCells.LANDMARK_CELLS_BEGIN_VALUE - 1;
+                           forageCells.setCell(x, y, v + ForageCells.LANDMARK_CELLS_BEGIN_VALUE - 1);
                         }
                      }
                   }
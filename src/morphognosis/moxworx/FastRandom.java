@@ -0,0 +1,97 @@
+// For conditions of distribution and use, see copyright notice in MoxWorx.java
+
+// Fast seedable, splittable random numbers.
+// A xoshiro256** generator whose state is expanded from the seed by SplitMix64.
+// Unlike SecureRandom, a seed always reproduces the same sequence. Unlike
+// Random, whose seed updates are thread-safe by atomic compare-and-set, it is
+// not thread-safe: each thread must use its own generator, split from a
+// parent to get an independent stream.
+
+package morphognosis.moxworx;
+
+import java.util.Random;
+
+public class FastRandom extends Random
+{
+   private static final long serialVersionUID = 1L;
+
+   // SplitMix64 increment.
+   public static final long GOLDEN_GAMMA = 0x9e3779b97f4a7c15L;
+
+   // Generator state.
+   long s0, s1, s2, s3;
+
+   // Constructor.
+   public FastRandom(long seed)
+   {
+      super(seed);
+      setSeed(seed);
+   }
+
+
+   // Set seed.
+   @Override
+   public void setSeed(long seed)
+   {
+      // Clears the inherited gaussian cache.
+      super.setSeed(seed);
+      long z = seed;
+      z += GOLDEN_GAMMA;
+      s0 = mix(z);
+      z += GOLDEN_GAMMA;
+      s1 = mix(z);
+      z += GOLDEN_GAMMA;
+      s2 = mix(z);
+      z += GOLDEN_GAMMA;
+      s3 = mix(z);
+   }
+
+
+   // SplitMix64 finalizer: scramble value.
+   public static long mix(long z)
+   {
+      z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+      z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+      return(z ^ (z >>> 31));
+   }
+
+
+   // Split off an independent generator.
+   public FastRandom split()
+   {
+      return(new FastRandom(nextLong()));
+   }
+
+
+   // Next random long.
+   @Override
+   public long nextLong()
+   {
+      long result = Long.rotateLeft(s1 * 5, 7) * 9;
+      long t      = s1 << 17;
+
+      s2 ^= s0;
+      s3 ^= s1;
+      s1 ^= s2;
+      s0 ^= s3;
+      s2 ^= t;
+      s3  = Long.rotateLeft(s3, 45);
+      return(result);
+   }
+
+
+   // Next random int.
+   @Override
+   public int nextInt()
+   {
+      return((int)(nextLong() >>> 32));
+   }
+
+
+   // Next random bits, from which Random derives its other values.
+   @Override
+   protected int next(int bits)
+   {
+      return((int)(nextLong() >>> (64 - bits)));
+   }
+}
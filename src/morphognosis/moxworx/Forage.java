@@ -4,21 +4,20 @@
 
 package morphognosis.moxworx;
 
-import java.awt.Dimension;
-import java.io.BufferedOutputStream;
-import java.io.DataInputStream;
-import java.io.DataOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.util.ArrayList;
-import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 import javax.swing.UIManager;
 
 import morphognosis.Morphognostic;
 import morphognosis.Orientation;
-import morphognosis.Utility;
 
 public class Forage
 {
@@ -30,6 +29,8 @@ public class Forage
       "      -steps <steps> (stops when food consumed) | -display\n" +
       "      -dimensions <width> <height>\n" +
       "     [-driver <metamorphDB | metamorphNN | autopilot> (mox driver: default=autopilot)]\n" +
+      "     [-nativeNN (train metamorph NN natively instead of with Weka)]\n" +
+      "     [-noNNevaluation (skip metamorph NN evaluation after training)]\n" +
       "     [-numMoxen <quantity> (default=0)]\n" +
       "     [-numLandmarkTypes <quantity> (default=1)]\n" +
       "     [-numLandmarks <quantity> (default=0)]\n" +
@@ -41,13 +42,29 @@ public class Forage
       "     [-epochIntervalStride <quantity> (default=" + Morphognostic.DEFAULT_EPOCH_INTERVAL_STRIDE + ")]\n" +
       "     [-epochIntervalMultiplier <quantity> (default=" + Morphognostic.DEFAULT_EPOCH_INTERVAL_MULTIPLIER + ")]\n" +
       "     [-randomSeed <random number seed>]\n" +
+      "     [-threads <mox stepping threads> (default=1)]\n" +
+      "     [-frameRate <display frames per second> (default=" + RenderLoop.DEFAULT_FRAME_RATE + ")]\n" +
+      "     [-stepsPerFrame <display fast-forward steps per frame> (default=1)]\n" +
+      "     [-metrics <metrics file name> (CSV, or JSON lines if named .json)]\n" +
+      "     [-metricsInterval <steps between metrics dumps> (default=" + MetricsLog.DEFAULT_INTERVAL + ")]\n" +
+      "     [-frameLog <frame log file name> | -pngFrames <frame image directory>]\n" +
+      "     [-frameInterval <steps between cell frames> (default=" + FrameExporter.DEFAULT_INTERVAL + ")]\n" +
       "     [-save <file name>]\n" +
       "  Resume run:\n" +
       "    java moxworx.Forage\n" +
       "      -steps <steps> (stops when food consumed) | -display\n" +
       "      -load <file name>\n" +
       "     [-driver <metamorphDB | metamorphNN | autopilot> (default=autopilot)]\n" +
+      "     [-nativeNN (train metamorph NN natively instead of with Weka)]\n" +
+      "     [-noNNevaluation (skip metamorph NN evaluation after training)]\n" +
       "     [-randomSeed <random number seed>]\n" +
+      "     [-threads <mox stepping threads> (default=1)]\n" +
+      "     [-frameRate <display frames per second> (default=" + RenderLoop.DEFAULT_FRAME_RATE + ")]\n" +
+      "     [-stepsPerFrame <display fast-forward steps per frame> (default=1)]\n" +
+      "     [-metrics <metrics file name> (CSV, or JSON lines if named .json)]\n" +
+      "     [-metricsInterval <steps between metrics dumps> (default=" + MetricsLog.DEFAULT_INTERVAL + ")]\n" +
+      "     [-frameLog <frame log file name> | -pngFrames <frame image directory>]\n" +
+      "     [-frameInterval <steps between cell frames> (default=" + FrameExporter.DEFAULT_INTERVAL + ")]\n" +
       "     [-save <file name>]\n" +
       "Exit codes:\n" +
       "  0=success\n" +
@@ -70,7 +87,21 @@ public class Forage
    ForageDisplay display;
 
    // Random numbers.
-   Random random;
+   FastRandom random;
+
+   // Mox stepping threads.
+   // With multiple threads, moxen sense and cycle concurrently while the
+   // cells are unchanged, then their responses are committed in step order.
+   int             threads = 1;
+   ExecutorService stepper;
+   int[]           moxResponses;
+   int[]           moxForwardX, moxForwardY;
+
+   // Step metrics log, null when off.
+   MetricsLog metricsLog;
+
+   // Frame exporter, null when off.
+   FrameExporter frameExporter;
 
    // Constructor.
    public Forage()
@@ -86,12 +117,12 @@ public class Forage
       this.numLandmarkTypes = numLandmarkTypes;
 
       // Create cells.
-      forageCells = new ForageCells(new Dimension(width, height));
+      forageCells = new ForageCells(new GridSize(width, height));
       for (x = 0; x < width; x++)
       {
          for (y = 0; y < height; y++)
          {
-            forageCells.cells[x][y] = forageCells.restoreCells[x][y] = MoxWorx.EMPTY_CELL_VALUE;
+            forageCells.setCell(x, y, MoxWorx.EMPTY_CELL_VALUE);
          }
       }
 
@@ -103,14 +134,14 @@ public class Forage
          {
             x = random.nextInt(width);
             y = random.nextInt(height);
-            if (forageCells.cells[x][y] == MoxWorx.EMPTY_CELL_VALUE)
+            if (forageCells.getCell(x, y) == MoxWorx.EMPTY_CELL_VALUE)
             {
                int k = 0;
                if (numLandmarkTypes > 1)
                {
                   k = random.nextInt(numLandmarkTypes);
                }
-               forageCells.cells[x][y] = forageCells.restoreCells[x][y] = ForageCells.LANDMARK_CELLS_BEGIN_VALUE + k;
+               forageCells.setCell(x, y, ForageCells.LANDMARK_CELLS_BEGIN_VALUE + k);
                break;
             }
          }
@@ -123,9 +154,9 @@ public class Forage
          {
             x = random.nextInt(width);
             y = random.nextInt(height);
-            if (forageCells.cells[x][y] == MoxWorx.EMPTY_CELL_VALUE)
+            if (forageCells.getCell(x, y) == MoxWorx.EMPTY_CELL_VALUE)
             {
-               forageCells.cells[x][y] = forageCells.restoreCells[x][y] = ForageCells.FOOD_CELL_VALUE;
+               forageCells.setCell(x, y, ForageCells.FOOD_CELL_VALUE);
                break;
             }
          }
@@ -184,7 +215,7 @@ public class Forage
          {
             x = random.nextInt(w);
             y = random.nextInt(h);
-            if (forageCells.cells[x][y] == MoxWorx.EMPTY_CELL_VALUE)
+            if (forageCells.getCell(x, y) == MoxWorx.EMPTY_CELL_VALUE)
             {
                int o = Orientation.NORTH;
                o = random.nextInt(Orientation.NUM_ORIENTATIONS);
@@ -195,7 +226,8 @@ public class Forage
                                            NEIGHBORHOOD_DIMENSION_MULTIPLIER,
                                            EPOCH_INTERVAL_STRIDE,
                                            EPOCH_INTERVAL_MULTIPLIER));
-               forageCells.cells[x][y] = forageCells.restoreCells[x][y] = ForageCells.MOX_CELL_VALUE;
+               forageCells.setCell(x, y, ForageCells.MOX_CELL_VALUE);
+               forageCells.setRestoreCell(x, y, ForageCells.MOX_CELL_VALUE);
                break;
             }
          }
@@ -270,23 +302,30 @@ public class Forage
    // Save.
    public void save(FileOutputStream output) throws IOException
    {
-      DataOutputStream writer = new DataOutputStream(new BufferedOutputStream(output));
+      SnapshotWriter writer = new SnapshotWriter(output);
 
+      save(writer);
+      writer.flush();
+   }
+
+
+   // Save to snapshot.
+   public void save(SnapshotWriter writer) throws IOException
+   {
       // Save landmark types.
-      Utility.saveInt(writer, numLandmarkTypes);
+      writer.writeInt(numLandmarkTypes);
 
       // Save cells.
-      forageCells.save(output);
+      forageCells.save(writer);
 
       // Save moxen.
       int numMoxen = moxen.size();
-      Utility.saveInt(writer, numMoxen);
-      writer.flush();
+      writer.writeInt(numMoxen);
       ForagerMox mox;
       for (int i = 0; i < numMoxen; i++)
       {
          mox = moxen.get(i);
-         mox.save(output);
+         mox.save(writer);
       }
    }
 
@@ -311,23 +350,31 @@ public class Forage
    // Load.
    public void load(FileInputStream input) throws IOException
    {
-      DataInputStream reader = new DataInputStream(input);
+      SnapshotReader reader = new SnapshotReader(input);
 
+      load(reader);
+      reader.finish();
+   }
+
+
+   // Load from snapshot.
+   public void load(SnapshotReader reader) throws IOException
+   {
       // Load landmark types.
-      numLandmarkTypes = Utility.loadInt(reader);
+      numLandmarkTypes = reader.readInt();
 
       // Load cells.
       forageCells = new ForageCells();
-      forageCells.load(input);
+      forageCells.load(reader);
 
       // Load moxen.
-      int numMoxen = Utility.loadInt(reader);
+      int numMoxen = reader.readInt();
       moxen = new ArrayList<ForagerMox>(numMoxen);
       ForagerMox mox;
       for (int i = 0; i < numMoxen; i++)
       {
          mox = new ForagerMox(forageCells);
-         mox.load(input);
+         mox.load(reader);
          moxen.add(i, mox);
       }
    }
@@ -337,11 +384,13 @@ public class Forage
    // Return count of remaining food.
    public int run(int steps)
    {
+      exportFrame(0);
       if (steps >= 0)
       {
          for (int i = 0; i < steps && forageCells.countFood() > 0; i++)
          {
             stepMoxen();
+            exportFrame(i + 1);
          }
       }
       else
@@ -352,9 +401,11 @@ public class Forage
             {
                stepMoxen();
                i++;
+               exportFrame(i);
             }
          }
       }
+      stopStepper();
       return(forageCells.countFood());
    }
 
@@ -364,130 +415,263 @@ public class Forage
    {
       int i, j, numMoxen;
 
+      MetricsLog log   = metricsLog;
+      long       start = 0;
+
+      if (log != null) { start = System.nanoTime(); }
+
       // Step moxen.
       numMoxen = moxen.size();
-      if (numMoxen > 0)
+      if ((moxResponses == null) || (moxResponses.length < numMoxen))
+      {
+         moxResponses = new int[numMoxen];
+         moxForwardX  = new int[numMoxen];
+         moxForwardY  = new int[numMoxen];
+      }
+      if ((threads > 1) && (numMoxen > 1))
       {
+         cycleMoxen();
          for (i = 0, j = random.nextInt(numMoxen); i < numMoxen; i++, j = (j + 1) % numMoxen)
          {
-            stepMox(j);
+            respondMox(j);
          }
       }
+      else if (numMoxen > 0)
+      {
+         for (i = 0, j = random.nextInt(numMoxen); i < numMoxen; i++, j = (j + 1) % numMoxen)
+         {
+            cycleMox(j);
+            respondMox(j);
+         }
+      }
+      if (log != null) { log.step(start); }
+   }
+
+
+   // Start recording step metrics to log.
+   public void startMetrics(MetricsLog log)
+   {
+      stopMetrics();
+      metricsLog = log;
+      for (ForagerMox mox : moxen)
+      {
+         mox.metrics = log.register();
+      }
+   }
+
+
+   // Stop recording step metrics and close log.
+   public void stopMetrics()
+   {
+      if (metricsLog != null)
+      {
+         for (ForagerMox mox : moxen)
+         {
+            mox.metrics = null;
+         }
+         metricsLog.close();
+         metricsLog = null;
+      }
+   }
+
+
+   // Stop stepping threads; a later concurrent step restarts them.
+   public void stopStepper()
+   {
+      if (stepper != null)
+      {
+         stepper.shutdown();
+         stepper = null;
+      }
+   }
+
+
+   // Start exporting frames.
+   public void startFrameExport(FrameExporter exporter) throws IOException
+   {
+      stopFrameExport();
+      frameExporter = exporter;
+   }
+
+
+   // Stop exporting frames and write remaining ones.
+   public void stopFrameExport() throws IOException
+   {
+      if (frameExporter != null)
+      {
+         FrameExporter exporter = frameExporter;
+         frameExporter = null;
+         exporter.close();
+      }
+   }
+
+
+   // Export frame for step, if due.
+   void exportFrame(int steps)
+   {
+      FrameExporter exporter = frameExporter;
+
+      if ((exporter == null) || !exporter.isDue(steps))
+      {
+         return;
+      }
+      int width    = forageCells.size.width;
+      int height   = forageCells.size.height;
+      int numMoxen = moxen.size();
+      FrameExporter.Frame frame = exporter.take(steps);
+      frame.setSize(width, height, numMoxen);
+      if (frame.hasCells)
+      {
+         for (int i = 0, n = width * height; i < n; i++)
+         {
+            frame.cells[i] = (short)forageCells.getCell(i);
+         }
+      }
+      for (int i = 0; i < numMoxen; i++)
+      {
+         ForagerMox mox = moxen.get(i);
+         frame.moxX[i]         = mox.x;
+         frame.moxY[i]         = mox.y;
+         frame.moxDirection[i] = mox.direction;
+         frame.moxFlag[i]      = false;
+      }
+      exporter.put(frame);
    }
 
 
-   // Step mox.
-   void stepMox(int moxIndex)
+   // Cycle moxen concurrently.
+   void cycleMoxen()
    {
-      int fx, fy, lx, ly, rx, ry, width, height;
+      final int numMoxen = moxen.size();
+      int       n        = Math.min(threads, numMoxen);
+
+      if (stepper == null)
+      {
+         stepper = Executors.newFixedThreadPool(threads, new ThreadFactory()
+                                                {
+                                                   public Thread newThread(Runnable r)
+                                                   {
+                                                      Thread thread = new Thread(r);
+                                                      thread.setDaemon(true);
+                                                      return(thread);
+                                                   }
+                                                }
+                                                );
+      }
+
+      // Food distances are brought up to date before concurrent lookups.
+      forageCells.updateFoodDists();
+      ArrayList<Callable<Object> > tasks = new ArrayList<Callable<Object> >();
+      for (int t = 0; t < n; t++)
+      {
+         final int begin = (numMoxen * t) / n;
+         final int end   = (numMoxen * (t + 1)) / n;
+         tasks.add(Executors.callable(new Runnable()
+                                      {
+                                         public void run()
+                                         {
+                                            for (int i = begin; i < end; i++)
+                                            {
+                                               cycleMox(i);
+                                            }
+                                         }
+                                      }
+                                      ));
+      }
+      try
+      {
+         for (Future<Object> result : stepper.invokeAll(tasks))
+         {
+            result.get();
+         }
+      }
+      catch (Exception e)
+      {
+         throw new RuntimeException("Cannot cycle moxen: " + e.getMessage(), e);
+      }
+   }
+
+
+   // Sense and cycle mox.
+   void cycleMox(int moxIndex)
+   {
+      int fx, fy;
       int landmarkIndex, foodIndex;
 
-      int        response;
-      ForagerMox mox;
+      ForagerMox    mox;
+      NeighborTable neighbors = forageCells.neighbors;
 
       float[] sensors        = new float[ForagerMox.NUM_SENSORS];
       landmarkIndex          = ForagerMoxDashboard.LANDMARK_SENSOR_INDEX;
       foodIndex              = ForagerMoxDashboard.FOOD_SENSOR_INDEX;
       sensors[landmarkIndex] = 0.0f;
       sensors[foodIndex]     = 0.0f;
-      width  = forageCells.size.width;
-      height = forageCells.size.height;
-      mox    = moxen.get(moxIndex);
+      mox = moxen.get(moxIndex);
+      StepMetrics metrics = mox.metrics;
+      long        time    = 0;
+      if (metrics != null) { time = System.nanoTime(); }
 
       // Detect object ahead.
-      switch (mox.direction)
-      {
-      case Orientation.NORTH:
-         fx = mox.x;
-         fy = ((mox.y + 1) % height);
-         lx = mox.x - 1;
-         if (lx < 0) { lx += width; }
-         ly = mox.y;
-         rx = (mox.x + 1) % width;
-         ry = mox.y;
-         break;
-
-      case Orientation.EAST:
-         fx = (mox.x + 1) % width;
-         fy = mox.y;
-         lx = mox.x;
-         ly = ((mox.y + 1) % height);
-         rx = mox.x;
-         ry = mox.y - 1;
-         if (ry < 0) { ry += height; }
-         break;
-
-      case Orientation.SOUTH:
-         fx = mox.x;
-         fy = mox.y - 1;
-         if (fy < 0) { fy += height; }
-         lx = (mox.x + 1) % width;
-         ly = mox.y;
-         rx = mox.x - 1;
-         if (rx < 0) { rx += width; }
-         ry = mox.y;
-         break;
-
-      case Orientation.WEST:
-         fx = mox.x - 1;
-         if (fx < 0) { fx += width; }
-         fy = mox.y;
-         lx = mox.x;
-         ly = mox.y - 1;
-         if (ly < 0) { ly += height; }
-         rx = mox.x;
-         ry = ((mox.y + 1) % height);
-         break;
-
-      default:
-         fx = fy = lx = ly = rx = ry = -1;
-         break;
-      }
-      if (forageCells.cells[fx][fy] != MoxWorx.EMPTY_CELL_VALUE)
+      fx = neighbors.getX(mox.x, mox.direction);
+      fy = neighbors.getY(mox.y, mox.direction);
+      if (forageCells.getCell(fx, fy) != MoxWorx.EMPTY_CELL_VALUE)
       {
          sensors[landmarkIndex] = 1.0f;
       }
-      if (forageCells.cells[fx][fy] >= ForageCells.LANDMARK_CELLS_BEGIN_VALUE)
+      if (forageCells.getCell(fx, fy) >= ForageCells.LANDMARK_CELLS_BEGIN_VALUE)
       {
-         mox.landmarkMap[fx][fy] = true;
+         mox.landmarkMap.set(fx, fy, true);
       }
 
       // Detect food.
       sensors[foodIndex] = 1.0f / ((float)forageCells.foodDist(fx, fy) + 1.0f);
 
       // Cycle mox.
-      response = mox.cycle(sensors, fx, fy);
+      if (metrics != null) { metrics.record(StepMetrics.SENSE, time); }
+      moxResponses[moxIndex] = mox.cycle(sensors, fx, fy);
+      moxForwardX[moxIndex]  = fx;
+      moxForwardY[moxIndex]  = fy;
+   }
+
+
+   // Process mox response.
+   void respondMox(int moxIndex)
+   {
+      ForagerMox  mox      = moxen.get(moxIndex);
+      int         response = moxResponses[moxIndex];
+      int         fx       = moxForwardX[moxIndex];
+      int         fy       = moxForwardY[moxIndex];
+      StepMetrics metrics  = mox.metrics;
+      long        time     = 0;
+
+      if (metrics != null) { time = System.nanoTime(); }
 
-      // Process response.
       if (response == ForagerMox.FORWARD)
       {
-         if (forageCells.cells[fx][fy] == MoxWorx.EMPTY_CELL_VALUE)
+         if (forageCells.getCell(fx, fy) == MoxWorx.EMPTY_CELL_VALUE)
          {
-            forageCells.cells[mox.x][mox.y] = MoxWorx.EMPTY_CELL_VALUE;
+            forageCells.setCell(mox.x, mox.y, MoxWorx.EMPTY_CELL_VALUE);
             mox.x = fx;
             mox.y = fy;
-            forageCells.cells[mox.x][mox.y] = ForageCells.MOX_CELL_VALUE;
+            forageCells.setCell(mox.x, mox.y, ForageCells.MOX_CELL_VALUE);
          }
       }
       else if (response == ForagerMox.RIGHT)
       {
-         mox.direction = (mox.direction + 1) % Orientation.NUM_ORIENTATIONS;
+         mox.direction = NeighborTable.turn(mox.direction, NeighborTable.RIGHT);
       }
       else if (response == ForagerMox.LEFT)
       {
-         mox.direction = mox.direction - 1;
-         if (mox.direction < 0)
-         {
-            mox.direction = mox.direction + Orientation.NUM_ORIENTATIONS;
-         }
+         mox.direction = NeighborTable.turn(mox.direction, NeighborTable.LEFT);
       }
       else if (response == ForagerMox.EAT)
       {
-         if (forageCells.cells[fx][fy] == ForageCells.FOOD_CELL_VALUE)
+         if (forageCells.getCell(fx, fy) == ForageCells.FOOD_CELL_VALUE)
          {
-            forageCells.cells[fx][fy] = MoxWorx.EMPTY_CELL_VALUE;
+            forageCells.setCell(fx, fy, MoxWorx.EMPTY_CELL_VALUE);
          }
       }
+      if (metrics != null) { metrics.record(StepMetrics.COMMIT, time); }
    }
 
 
@@ -560,9 +744,19 @@ public class Forage
       int     numLandmarks      = -1;
       int     numFoods          = -1;
       int     randomSeed        = DEFAULT_RANDOM_SEED;
+      int     threads           = 1;
+      int     frameRate         = RenderLoop.DEFAULT_FRAME_RATE;
+      int     stepsPerFrame     = 1;
+      String  metricsfile       = null;
+      int     metricsInterval   = MetricsLog.DEFAULT_INTERVAL;
+      String  frameLogfile      = null;
+      String  pngFramesDir      = null;
+      int     frameInterval     = FrameExporter.DEFAULT_INTERVAL;
       String  loadfile          = null;
       String  savefile          = null;
       boolean display           = false;
+      boolean evaluateNN        = true;
+      boolean nativeNN          = false;
       boolean gotParm           = false;
       int     NUM_NEIGHBORHOODS = Morphognostic.DEFAULT_NUM_NEIGHBORHOODS;
       int     NEIGHBORHOOD_INITIAL_DIMENSION    = Morphognostic.DEFAULT_NEIGHBORHOOD_INITIAL_DIMENSION;
@@ -604,6 +798,16 @@ public class Forage
             display = true;
             continue;
          }
+         if (args[i].equals("-nativeNN"))
+         {
+            nativeNN = true;
+            continue;
+         }
+         if (args[i].equals("-noNNevaluation"))
+         {
+            evaluateNN = false;
+            continue;
+         }
          if (args[i].equals("-dimensions"))
          {
             i++;
@@ -725,7 +929,8 @@ public class Forage
                System.err.println(Forage.Usage);
                System.exit(2);
             }
-            if (numLandmarkTypes < 1)
+            if ((numLandmarkTypes < 1) ||
+                (numLandmarkTypes > (ForageCells.MAX_CELL_VALUE - ForageCells.LANDMARK_CELLS_BEGIN_VALUE + 1)))
             {
                System.err.println("Invalid numLandmarkTypes option");
                System.err.println(Forage.Usage);
@@ -968,6 +1173,172 @@ public class Forage
             }
             continue;
          }
+         if (args[i].equals("-threads"))
+         {
+            i++;
+            if (i >= args.length)
+            {
+               System.err.println("Invalid threads option");
+               System.err.println(Forage.Usage);
+               System.exit(2);
+            }
+            try
+            {
+               threads = Integer.parseInt(args[i]);
+            }
+            catch (NumberFormatException e) {
+               System.err.println("Invalid threads option");
+               System.err.println(Forage.Usage);
+               System.exit(2);
+            }
+            if (threads < 1)
+            {
+               System.err.println("Invalid threads option");
+               System.err.println(Forage.Usage);
+               System.exit(2);
+            }
+            continue;
+         }
+         if (args[i].equals("-frameRate"))
+         {
+            i++;
+            if (i >= args.length)
+            {
+               System.err.println("Invalid frame rate option");
+               System.err.println(Forage.Usage);
+               System.exit(2);
+            }
+            try
+            {
+               frameRate = Integer.parseInt(args[i]);
+            }
+            catch (NumberFormatException e) {
+               System.err.println("Invalid frame rate option");
+               System.err.println(Forage.Usage);
+               System.exit(2);
+            }
+            if (frameRate < 1)
+            {
+               System.err.println("Invalid frame rate option");
+               System.err.println(Forage.Usage);
+               System.exit(2);
+            }
+            continue;
+         }
+         if (args[i].equals("-stepsPerFrame"))
+         {
+            i++;
+            if (i >= args.length)
+            {
+               System.err.println("Invalid steps per frame option");
+               System.err.println(Forage.Usage);
+               System.exit(2);
+            }
+            try
+            {
+               stepsPerFrame = Integer.parseInt(args[i]);
+            }
+            catch (NumberFormatException e) {
+               System.err.println("Invalid steps per frame option");
+               System.err.println(Forage.Usage);
+               System.exit(2);
+            }
+            if (stepsPerFrame < 1)
+            {
+               System.err.println("Invalid steps per frame option");
+               System.err.println(Forage.Usage);
+               System.exit(2);
+            }
+            continue;
+         }
+         if (args[i].equals("-metrics"))
+         {
+            i++;
+            if ((i >= args.length) || (metricsfile != null))
+            {
+               System.err.println("Invalid metrics option");
+               System.err.println(Forage.Usage);
+               System.exit(2);
+            }
+            metricsfile = args[i];
+            continue;
+         }
+         if (args[i].equals("-metricsInterval"))
+         {
+            i++;
+            if (i >= args.length)
+            {
+               System.err.println("Invalid metricsInterval option");
+               System.err.println(Forage.Usage);
+               System.exit(2);
+            }
+            try
+            {
+               metricsInterval = Integer.parseInt(args[i]);
+            }
+            catch (NumberFormatException e) {
+               System.err.println("Invalid metricsInterval option");
+               System.err.println(Forage.Usage);
+               System.exit(2);
+            }
+            if (metricsInterval < 1)
+            {
+               System.err.println("Invalid metricsInterval option");
+               System.err.println(Forage.Usage);
+               System.exit(2);
+            }
+            continue;
+         }
+         if (args[i].equals("-frameLog"))
+         {
+            i++;
+            if ((i >= args.length) || (frameLogfile != null) || (pngFramesDir != null))
+            {
+               System.err.println("Invalid frameLog option");
+               System.err.println(Forage.Usage);
+               System.exit(2);
+            }
+            frameLogfile = args[i];
+            continue;
+         }
+         if (args[i].equals("-pngFrames"))
+         {
+            i++;
+            if ((i >= args.length) || (frameLogfile != null) || (pngFramesDir != null))
+            {
+               System.err.println("Invalid pngFrames option");
+               System.err.println(Forage.Usage);
+               System.exit(2);
+            }
+            pngFramesDir = args[i];
+            continue;
+         }
+         if (args[i].equals("-frameInterval"))
+         {
+            i++;
+            if (i >= args.length)
+            {
+               System.err.println("Invalid frameInterval option");
+               System.err.println(Forage.Usage);
+               System.exit(2);
+            }
+            try
+            {
+               frameInterval = Integer.parseInt(args[i]);
+            }
+            catch (NumberFormatException e) {
+               System.err.println("Invalid frameInterval option");
+               System.err.println(Forage.Usage);
+               System.exit(2);
+            }
+            if (frameInterval < 1)
+            {
+               System.err.println("Invalid frameInterval option");
+               System.err.println(Forage.Usage);
+               System.exit(2);
+            }
+            continue;
+         }
          if (args[i].equals("-load"))
          {
             i++;
@@ -1051,18 +1422,10 @@ public class Forage
          }
       }
 
-      // Set look and feel.
-      try {
-         UIManager.setLookAndFeel(UIManager.getSystemLookAndFeelClassName());
-      }
-      catch (Exception e)
-      {
-         System.err.println("Warning: cannot set look and feel");
-      }
-
       // Create world.
       Forage forage = new Forage();
-      forage.random = new Random(randomSeed);
+      forage.random  = new FastRandom(randomSeed);
+      forage.threads = threads;
       if (loadfile != null)
       {
          try
@@ -1098,7 +1461,17 @@ public class Forage
       // Create display?
       if (display)
       {
+         // Set look and feel.
+         try {
+            UIManager.setLookAndFeel(UIManager.getSystemLookAndFeelClassName());
+         }
+         catch (Exception e)
+         {
+            System.err.println("Warning: cannot set look and feel");
+         }
          forage.createDisplay();
+         forage.display.setFrameRate(frameRate);
+         forage.display.setStepsPerFrame(stepsPerFrame);
       }
       else
       {
@@ -1109,6 +1482,8 @@ public class Forage
       for (ForagerMox mox : forage.moxen)
       {
          mox.driver = driver;
+         mox.evaluateMetamorphNN = evaluateNN;
+         mox.nativeMetamorphNN   = nativeNN;
          if (driver == ForagerMox.DRIVER_TYPE.METAMORPH_NN.getValue())
          {
             try
@@ -1123,8 +1498,54 @@ public class Forage
          }
       }
 
+      // Record metrics?
+      if (metricsfile != null)
+      {
+         try
+         {
+            forage.startMetrics(MetricsLog.open(metricsfile, metricsInterval));
+         }
+         catch (Exception e)
+         {
+            System.err.println(e.getMessage());
+            System.exit(2);
+         }
+      }
+
+      // Export frames?
+      if ((frameLogfile != null) || (pngFramesDir != null))
+      {
+         try
+         {
+            if (frameLogfile != null)
+            {
+               forage.startFrameExport(FrameExporter.openLog(frameLogfile,
+                                                              FrameExporter.FORAGE, frameInterval));
+            }
+            else
+            {
+               forage.startFrameExport(FrameExporter.openPNG(pngFramesDir,
+                                                              FrameExporter.FORAGE, frameInterval));
+            }
+         }
+         catch (Exception e)
+         {
+            System.err.println(e.getMessage());
+            System.exit(2);
+         }
+      }
+
       // Run.
       int foodCount = forage.run(steps);
+      forage.stopMetrics();
+      try
+      {
+         forage.stopFrameExport();
+      }
+      catch (Exception e)
+      {
+         System.err.println("Cannot export frames: " + e.getMessage());
+      }
 
       // Save?
       if (savefile != null)
@@ -5,10 +5,9 @@
 package morphognosis.moxworx;
 
 import java.io.*;
+import java.util.Arrays;
 
-import morphognosis.Utility;
-
-import java.awt.*;
+import morphognosis.Orientation;
 
 public class ForageCells
 {
@@ -18,36 +17,58 @@ public class ForageCells
    public static final int MOX_CELL_VALUE             = 2;
    public static final int LANDMARK_CELLS_BEGIN_VALUE = 3;
 
-   // Colors.
-   // See MoxWorx.EMPTY_CELL_COLOR.
-   public static final Color FOOD_CELL_COLOR = Color.GREEN;
-   public static final Color MOX_CELL_COLOR  = Color.BLUE;
+   // Cell values are stored as unsigned bytes.
+   public static final int MAX_CELL_VALUE = 255;
+
+   // Cells, indexed by x * height + y.
+   // Change cells with setCell to keep the food count and distances current.
+   public GridSize size;
+   byte[]          cells;
+   byte[]          restoreCells;
+
+   // Neighbor table for grid size.
+   public NeighborTable neighbors;
+
+   // Food count.
+   int foodCount;
 
-   // Cells.
-   public Dimension size;
-   public int[][]   cells;
-   public int[][]   restoreCells;
+   // Changed cells, tracked for display.
+   CellChanges changes;
+
+   // Distances to nearest food by cell index, -1 if none.
+   // Updated incrementally by setCell, recomputed after bulk changes.
+   int[]   foodDists;
+   boolean foodDistsValid;
+   int[]   cellQueue;
+   int[]   regionCells;
+   long[]  regionSeeds;
+
+   // Initial food removal region buffer size, grown as needed.
+   static final int REGION_SIZE = 1024;
 
    // Constructors.
-   public ForageCells(Dimension size)
+   public ForageCells(GridSize size)
    {
       // Create cells.
-      this.size    = size;
-      cells        = new int[size.width][size.height];
-      restoreCells = new int[size.width][size.height];
-      for (int x = 0; x < size.width; x++)
-      {
-         for (int y = 0; y < size.height; y++)
-         {
-            cells[x][y] = restoreCells[x][y] = 0;
-         }
-      }
+      this.size = size;
+      allocate(size.width, size.height);
+      foodCount      = 0;
+      foodDistsValid = false;
    }
 
 
    public ForageCells()
    {
-      size = new Dimension();
+      size = new GridSize();
+   }
+
+
+   // Allocate empty cells.
+   void allocate(int width, int height)
+   {
+      cells        = new byte[width * height];
+      restoreCells = new byte[width * height];
+      neighbors    = NeighborTable.get(width, height);
    }
 
 
@@ -68,48 +89,249 @@ public class ForageCells
    // Count existing food.
    public int countFood()
    {
-      int x, y;
-      int w     = size.width;
-      int h     = size.height;
-      int count = 0;
+      return(foodCount);
+   }
+
+
+   // Get cell value.
+   public int getCell(int x, int y)
+   {
+      return(cells[(x * size.height) + y] & 0xff);
+   }
+
+
+   // Get cell value by index (x * height + y).
+   public int getCell(int index)
+   {
+      return(cells[index] & 0xff);
+   }
+
 
-      for (x = 0; x < w; x++)
+   // Set cell value.
+   public void setCell(int x, int y, int value)
+   {
+      int i = (x * size.height) + y;
+      int v = cells[i] & 0xff;
+
+      cells[i] = (byte)value;
+      if (changes != null) { changes.add(x, y); }
+      if (v == FOOD_CELL_VALUE) { foodCount--; }
+      if (value == FOOD_CELL_VALUE) { foodCount++; }
+      if (foodDistsValid)
       {
-         for (y = 0; y < h; y++)
+         if ((v != FOOD_CELL_VALUE) && (value == FOOD_CELL_VALUE))
          {
-            if (cells[x][y] == FOOD_CELL_VALUE)
-            {
-               count++;
-            }
+            addFoodDists(x, y);
+         }
+         else if ((v == FOOD_CELL_VALUE) && (value != FOOD_CELL_VALUE))
+         {
+            removeFoodDists(x, y);
          }
       }
-      return(count);
+   }
+
+
+   // Get restore cell value.
+   public int getRestoreCell(int x, int y)
+   {
+      return(restoreCells[(x * size.height) + y] & 0xff);
+   }
+
+
+   // Set restore cell value.
+   public void setRestoreCell(int x, int y, int value)
+   {
+      restoreCells[(x * size.height) + y] = (byte)value;
    }
 
 
    // Distance to nearest food.
    int foodDist(int x, int y)
    {
-      int x2, y2, d, d2;
-      int w = size.width;
+      updateFoodDists();
+      return(foodDists[(x * size.height) + y]);
+   }
+
+
+   // Bring food distances up to date.
+   void updateFoodDists()
+   {
+      if (!foodDistsValid)
+      {
+         initFoodDists();
+      }
+   }
+
+
+   // Initialize food distances with a breadth-first search from all food.
+   void initFoodDists()
+   {
+      int n = size.width * size.height;
+
+      if ((foodDists == null) || (foodDists.length != n))
+      {
+         foodDists   = new int[n];
+         cellQueue   = new int[n];
+         regionCells = new int[REGION_SIZE];
+         regionSeeds = new long[REGION_SIZE];
+      }
+      int tail = 0;
+      for (int i = 0; i < n; i++)
+      {
+         if (cells[i] == FOOD_CELL_VALUE)
+         {
+            foodDists[i]      = 0;
+            cellQueue[tail++] = i;
+         }
+         else
+         {
+            foodDists[i] = -1;
+         }
+      }
+      spreadFoodDists(0, tail);
+      foodDistsValid = true;
+   }
+
+
+   // Add food distances for new food.
+   void addFoodDists(int x, int y)
+   {
+      int c = (x * size.height) + y;
+
+      foodDists[c] = 0;
+      cellQueue[0] = c;
+      spreadFoodDists(0, 1);
+   }
+
+
+   // Spread shorter distances from queued cells to their neighbors.
+   void spreadFoodDists(int head, int tail)
+   {
       int h = size.height;
 
-      d = -1;
-      for (x2 = 0; x2 < w; x2++)
+      while (head < tail)
       {
-         for (y2 = 0; y2 < h; y2++)
+         int c  = cellQueue[head++];
+         int cx = c / h;
+         int cy = c % h;
+         int d  = foodDists[c] + 1;
+         for (int o = 0; o < Orientation.NUM_ORIENTATIONS; o++)
          {
-            if (cells[x2][y2] == FOOD_CELL_VALUE)
+            int n = (neighbors.getX(cx, o) * h) + neighbors.getY(cy, o);
+            int v = foodDists[n];
+            if ((v == -1) || (v > d))
             {
-               d2 = cellDist(x, y, x2, y2);
-               if ((d == -1) || (d2 < d))
+               foodDists[n]      = d;
+               cellQueue[tail++] = n;
+            }
+         }
+      }
+   }
+
+
+   // Remove food distances for eliminated food.
+   // Cells whose distance was to this food form a connected region around it:
+   // their distances are cleared and recomputed from the region boundary.
+   void removeFoodDists(int x, int y)
+   {
+      int h = size.height;
+
+      // Find region.
+      int n = 0;
+      foodDists[(x * h) + y] = Integer.MAX_VALUE;
+      regionCells[n++]       = (x * h) + y;
+      for (int i = 0; i < n; i++)
+      {
+         int c  = regionCells[i];
+         int cx = c / h;
+         int cy = c % h;
+         for (int o = 0; o < Orientation.NUM_ORIENTATIONS; o++)
+         {
+            int nx = neighbors.getX(cx, o);
+            int ny = neighbors.getY(cy, o);
+            int nc = (nx * h) + ny;
+            if (foodDists[nc] == cellDist(nx, ny, x, y))
+            {
+               if (n == regionCells.length)
                {
-                  d = d2;
+                  regionCells = Arrays.copyOf(regionCells, n * 2);
                }
+               foodDists[nc]    = Integer.MAX_VALUE;
+               regionCells[n++] = nc;
+            }
+         }
+      }
+
+      // Seed region cells bordering outside distances.
+      if (regionSeeds.length < n)
+      {
+         regionSeeds = new long[regionCells.length];
+      }
+      int numSeeds = 0;
+      for (int i = 0; i < n; i++)
+      {
+         int c  = regionCells[i];
+         int cx = c / h;
+         int cy = c % h;
+         int d  = Integer.MAX_VALUE;
+         for (int o = 0; o < Orientation.NUM_ORIENTATIONS; o++)
+         {
+            int v = foodDists[(neighbors.getX(cx, o) * h) + neighbors.getY(cy, o)];
+            if ((v != -1) && (v != Integer.MAX_VALUE) && ((v + 1) < d))
+            {
+               d = v + 1;
             }
          }
+         if (d != Integer.MAX_VALUE)
+         {
+            foodDists[c]            = d;
+            regionSeeds[numSeeds++] = ((long)d << 32) | c;
+         }
+      }
+      Arrays.sort(regionSeeds, 0, numSeeds);
+
+      // Spread distances in increasing order, merging seeds with the queue.
+      int head = 0, tail = 0;
+      int s    = 0;
+      while ((s < numSeeds) || (head < tail))
+      {
+         int c;
+         if ((head == tail) || ((s < numSeeds) &&
+                                ((int)(regionSeeds[s] >>> 32) <= foodDists[cellQueue[head]])))
+         {
+            c = (int)(regionSeeds[s++] & 0xffffffffL);
+            if (foodDists[c] < (int)(regionSeeds[s - 1] >>> 32))
+            {
+               continue;
+            }
+         }
+         else
+         {
+            c = cellQueue[head++];
+         }
+         int cx = c / h;
+         int cy = c % h;
+         int d  = foodDists[c] + 1;
+         for (int o = 0; o < Orientation.NUM_ORIENTATIONS; o++)
+         {
+            int nc = (neighbors.getX(cx, o) * h) + neighbors.getY(cy, o);
+            if (foodDists[nc] > d)
+            {
+               foodDists[nc]     = d;
+               cellQueue[tail++] = nc;
+            }
+         }
+      }
+
+      // Unreached cells have no food.
+      for (int i = 0; i < n; i++)
+      {
+         int c = regionCells[i];
+         if (foodDists[c] == Integer.MAX_VALUE)
+         {
+            foodDists[c] = -1;
+         }
       }
-      return(d);
    }
 
 
@@ -150,63 +372,20 @@ public class ForageCells
    // Save cells.
    public void save(FileOutputStream output) throws IOException
    {
-      int n, x, y;
-
-      DataOutputStream writer = new DataOutputStream(new BufferedOutputStream(output));
-
-      Utility.saveInt(writer, size.width);
-      Utility.saveInt(writer, size.height);
-      n = 0;
-      for (x = 0; x < size.width; x++)
-      {
-         for (y = 0; y < size.height; y++)
-         {
-            if (cells[x][y] > 0)
-            {
-               n++;
-            }
-         }
-      }
-      Utility.saveInt(writer, n);
+      SnapshotWriter writer = new SnapshotWriter(output);
 
-      for (x = 0; x < size.width; x++)
-      {
-         for (y = 0; y < size.height; y++)
-         {
-            if (cells[x][y] > 0)
-            {
-               Utility.saveInt(writer, x);
-               Utility.saveInt(writer, y);
-               Utility.saveInt(writer, cells[x][y]);
-            }
-         }
-      }
+      save(writer);
+      writer.flush();
+   }
 
-      n = 0;
-      for (x = 0; x < size.width; x++)
-      {
-         for (y = 0; y < size.height; y++)
-         {
-            if (restoreCells[x][y] > 0)
-            {
-               n++;
-            }
-         }
-      }
-      Utility.saveInt(writer, n);
 
-      for (x = 0; x < size.width; x++)
-      {
-         for (y = 0; y < size.height; y++)
-         {
-            if (restoreCells[x][y] > 0)
-            {
-               Utility.saveInt(writer, x);
-               Utility.saveInt(writer, y);
-               Utility.saveInt(writer, restoreCells[x][y]);
-            }
-         }
-      }
+   // Save cells to snapshot.
+   public void save(SnapshotWriter writer) throws IOException
+   {
+      writer.writeInt(size.width);
+      writer.writeInt(size.height);
+      writer.writeBytes(cells);
+      writer.writeBytes(restoreCells);
    }
 
 
@@ -230,24 +409,99 @@ public class ForageCells
    // Load cells.
    public void load(FileInputStream input) throws IOException
    {
-      int w, h, n, x, y;
+      SnapshotReader reader = new SnapshotReader(input);
 
-      DataInputStream reader = new DataInputStream(input);
+      load(reader);
+      reader.finish();
+   }
+
+
+   // Load cells from snapshot.
+   public void load(SnapshotReader reader) throws IOException
+   {
+      int w, h;
 
-      w = Utility.loadInt(reader);
-      h = Utility.loadInt(reader);
+      w = reader.readInt();
+      h = reader.readInt();
+      if ((w < 0) || (h < 0))
+      {
+         throw (new IOException("Invalid dimensions " + w + "x" + h));
+      }
 
-      size.width   = w;
-      size.height  = h;
-      cells        = new int[size.width][size.height];
-      restoreCells = new int[size.width][size.height];
+      size.width  = w;
+      size.height = h;
+      allocate(w, h);
+      if (changes != null)
+      {
+         changes = new CellChanges(w, h);
+      }
       clear();
 
-      n = Utility.loadInt(reader);
+      if (reader.isLegacy())
+      {
+         loadLegacy(reader);
+         return;
+      }
+      if (reader.version == 1)
+      {
+         int[] column = new int[h];
+         loadCells(reader, cells, column);
+         loadCells(reader, restoreCells, column);
+      }
+      else
+      {
+         reader.readBytes(cells);
+         reader.readBytes(restoreCells);
+      }
+      for (int i = 0; i < cells.length; i++)
+      {
+         if (cells[i] == FOOD_CELL_VALUE)
+         {
+            foodCount++;
+         }
+      }
+   }
+
+
+   // Load version 1 cells: ints by column.
+   void loadCells(SnapshotReader reader, byte[] cells, int[] column) throws IOException
+   {
+      int h = size.height;
+
+      for (int x = 0; x < size.width; x++)
+      {
+         reader.readInts(column);
+         for (int y = 0, i = x * h; y < h; y++, i++)
+         {
+            cells[i] = (byte)checkCellValue(column[y]);
+         }
+      }
+   }
+
+
+   // Check loaded cell value fits in a cell.
+   static int checkCellValue(int value) throws IOException
+   {
+      if ((value < 0) || (value > MAX_CELL_VALUE))
+      {
+         throw (new IOException("Invalid cell value " + value));
+      }
+      return(value);
+   }
+
+
+   // Load legacy cells: non-empty cells as position and value.
+   void loadLegacy(SnapshotReader reader) throws IOException
+   {
+      int w = size.width;
+      int h = size.height;
+      int n, x, y;
+
+      n = reader.readInt();
       for (int i = 0; i < n; i++)
       {
-         x = Utility.loadInt(reader);
-         y = Utility.loadInt(reader);
+         x = reader.readInt();
+         y = reader.readInt();
          if ((x < 0) || (x >= w))
          {
             throw (new IOException("Invalid x value " + x));
@@ -256,14 +510,14 @@ public class ForageCells
          {
             throw (new IOException("Invalid y value " + y));
          }
-         cells[x][y] = Utility.loadInt(reader);
+         setCell(x, y, checkCellValue(reader.readInt()));
       }
 
-      n = Utility.loadInt(reader);
+      n = reader.readInt();
       for (int i = 0; i < n; i++)
       {
-         x = Utility.loadInt(reader);
-         y = Utility.loadInt(reader);
+         x = reader.readInt();
+         y = reader.readInt();
          if ((x < 0) || (x >= w))
          {
             throw (new IOException("Invalid x value " + x));
@@ -272,7 +526,7 @@ public class ForageCells
          {
             throw (new IOException("Invalid y value " + y));
          }
-         restoreCells[x][y] = Utility.loadInt(reader);
+         setRestoreCell(x, y, checkCellValue(reader.readInt()));
       }
    }
 
@@ -280,44 +534,33 @@ public class ForageCells
    // Clear cells.
    public void clear()
    {
-      int x, y;
-
-      for (x = 0; x < size.width; x++)
-      {
-         for (y = 0; y < size.height; y++)
-         {
-            cells[x][y] = 0;
-         }
-      }
+      Arrays.fill(cells, (byte)0);
+      foodCount      = 0;
+      foodDistsValid = false;
+      if (changes != null) { changes.addAll(); }
    }
 
 
    // Checkpoint cells.
    public void checkpoint()
    {
-      int x, y;
-
-      for (x = 0; x < size.width; x++)
-      {
-         for (y = 0; y < size.height; y++)
-         {
-            restoreCells[x][y] = cells[x][y];
-         }
-      }
+      System.arraycopy(cells, 0, restoreCells, 0, cells.length);
    }
 
 
    // Restore cells.
    public void restore()
    {
-      int x, y;
-
-      for (x = 0; x < size.width; x++)
+      System.arraycopy(restoreCells, 0, cells, 0, cells.length);
+      foodCount = 0;
+      for (int i = 0; i < cells.length; i++)
       {
-         for (y = 0; y < size.height; y++)
+         if (cells[i] == FOOD_CELL_VALUE)
          {
-            cells[x][y] = restoreCells[x][y];
+            foodCount++;
          }
       }
+      foodDistsValid = false;
+      if (changes != null) { changes.addAll(); }
    }
 }
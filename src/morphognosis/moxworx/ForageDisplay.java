@@ -28,6 +28,11 @@ public class ForageDisplay extends JFrame
    // Forage cells.
    ForageCells forageCells;
 
+   // Colors.
+   // See MoxWorx.EMPTY_CELL_COLOR.
+   public static final Color FOOD_CELL_COLOR = Color.GREEN;
+   public static final Color MOX_CELL_COLOR  = Color.BLUE;
+
    // Number of landmark types.
    int numLandmarkTypes;
 
@@ -44,9 +49,35 @@ public class ForageDisplay extends JFrame
    static final int MIN_STEP_DELAY = 0;
    static final int MAX_STEP_DELAY = 1000;
    int              stepDelay      = MAX_STEP_DELAY;
+   long             stepTime;
+   boolean          stepping;
+
+   // Fast-forward steps per frame.
+   static final int[] STEPS_PER_FRAME = { 1, 10, 100, 1000 };
+   int                stepsPerFrame   = 1;
+   int                frameSteps;
+
+   // Render loop.
+   RenderLoop<Frame> renderLoop;
+
+   // Cell changes drained for frame.
+   CellChanges changes;
+
+   // Smallest cell size in pixels for grid lines.
+   static final int GRID_MIN_CELL_SIZE = 4;
+
+   // Steps, and unpublished step or edit?
+   int              steps = -1;
+   boolean          pending;
+   volatile boolean refresh;
 
    // Quit.
-   boolean quit;
+   volatile boolean quit;
+
+   // Cell edits and reset queued by the event thread and applied by the
+   // simulation thread, as cell updates must not race stepping.
+   ArrayList<Point> edits = new ArrayList<Point>();
+   boolean          resetting;
 
    // Constructors.
    public ForageDisplay(ForageCells forageCells, int numLandmarkTypes, ArrayList<ForagerMox> moxen)
@@ -102,6 +133,39 @@ public class ForageDisplay extends JFrame
       pack();
       setCenterLocation();
       setVisible(true);
+
+      // Track cell changes.
+      forageCells.changes = new CellChanges(forageCells.size.width, forageCells.size.height);
+      changes             = new CellChanges(forageCells.size.width, forageCells.size.height);
+
+      // Start render loop.
+      renderLoop = new RenderLoop<Frame>(RenderLoop.DEFAULT_FRAME_RATE)
+      {
+         protected Frame newFrame()
+         {
+            return(new Frame());
+         }
+
+
+         protected void capture(Frame frame)
+         {
+            captureFrame(frame);
+         }
+
+
+         protected void merge(Frame frame, Frame newer)
+         {
+            mergeFrame(frame, newer);
+         }
+
+
+         protected void render(Frame frame)
+         {
+            controls.updateStepCounter(frame.steps);
+            display.update(frame);
+         }
+      };
+      renderLoop.start();
    }
 
 
@@ -138,6 +202,11 @@ public class ForageDisplay extends JFrame
    // Close.
    void close()
    {
+      if (renderLoop != null)
+      {
+         renderLoop.stop();
+         forageCells.changes = null;
+      }
       currentMox = -1;
       if (moxenDashboards != null)
       {
@@ -151,17 +220,130 @@ public class ForageDisplay extends JFrame
 
 
    // Update display.
+   // Called by the simulation thread after each step: publishes a frame
+   // when the render loop wants one, then waits out the step delay. When
+   // fast-forwarding, frames and delays come once per steps per frame.
    public void update(int steps)
    {
-      controls.updateStepCounter(steps);
-      update();
+      if (quit) { return; }
+      applyEdits();
+
+      boolean stepped = (steps != this.steps);
+      this.steps = steps;
+      if (stepped)
+      {
+         pending = true;
+         if ((++frameSteps < stepsPerFrame) && (stepDelay < MAX_STEP_DELAY))
+         {
+            return;
+         }
+      }
+      frameSteps = 0;
+
+      // Wait for step, publishing requested frames meanwhile.
+      synchronized (this)
+      {
+         stepTime = System.currentTimeMillis() + stepDelay;
+         if (!stepped)
+         {
+            stepTime += renderLoop.getFrameInterval();
+         }
+      }
+      while (true)
+      {
+         applyEdits();
+         if ((pending || refresh) && renderLoop.isFrameRequested())
+         {
+            pending = refresh = false;
+            renderLoop.publish();
+         }
+         synchronized (this)
+         {
+            if (quit) { return; }
+            if (stepping)
+            {
+               stepping = false;
+               return;
+            }
+            long wait = renderLoop.getFrameInterval();
+            if (stepDelay < MAX_STEP_DELAY)
+            {
+               long remaining = stepTime - System.currentTimeMillis();
+               if (remaining <= 0) { return; }
+               wait = Math.min(wait, remaining);
+            }
+            try
+            {
+               wait(wait);
+            }
+            catch (InterruptedException e) {
+               return;
+            }
+         }
+      }
    }
 
 
-   private int timer = 0;
-   public void update()
+   // Queue cell edit.
+   synchronized void queueEdit(int x, int y)
    {
-      if (quit) { return; }
+      edits.add(new Point(x, y));
+   }
+
+
+   // Queue reset.
+   synchronized void queueReset()
+   {
+      edits.clear();
+      resetting = true;
+   }
+
+
+   // Apply queued reset and cell edits on simulation thread.
+   synchronized void applyEdits()
+   {
+      if (resetting)
+      {
+         resetting = false;
+         forageCells.restore();
+         int numMoxen = moxen.size();
+         for (int i = 0; i < numMoxen; i++)
+         {
+            moxen.get(i).reset();
+            moxenDashboards.get(i).update();
+         }
+         refresh();
+      }
+      if (edits.isEmpty()) { return; }
+      int n = ForageCells.LANDMARK_CELLS_BEGIN_VALUE + numLandmarkTypes;
+      for (Point edit : edits)
+      {
+         int x = edit.x;
+         int y = edit.y;
+         int v = (forageCells.getCell(x, y) + 1) % n;
+         if (v == ForageCells.MOX_CELL_VALUE)
+         {
+            v = (v + 1) % n;
+         }
+         forageCells.setCell(x, y, v);
+         if (forageCells.getCell(x, y) == MoxWorx.EMPTY_CELL_VALUE)
+         {
+            for (int i = 0; i < moxen.size(); i++)
+            {
+               moxen.get(i).landmarkMap.set(x, y, false);
+            }
+         }
+      }
+      edits.clear();
+      refresh();
+   }
+
+
+   // Capture display frame on simulation thread.
+   void captureFrame(Frame frame)
+   {
+      int width  = forageCells.size.width;
+      int height = forageCells.size.height;
 
       // Update moxen dashboards.
       for (int i = 0; i < moxenDashboards.size(); i++)
@@ -169,34 +351,115 @@ public class ForageDisplay extends JFrame
          moxenDashboards.get(i).update();
       }
 
-      // Update display.
-      display.update();
-
-      // Timer loop: count down delay by 1ms.
-      for (timer = stepDelay; timer > 0 && !quit; )
+      // Copy changed cells and moxen.
+      frame.steps = steps;
+      forageCells.changes.drainTo(changes);
+      if (changes.all)
+      {
+         captureCells(frame);
+      }
+      else
       {
-         try
+         frame.width    = width;
+         frame.height   = height;
+         frame.all      = false;
+         frame.numCells = 0;
+         for (int i = 0; i < changes.count; i++)
          {
-            Thread.sleep(1);
-         }
-         catch (InterruptedException e) {
-            break;
+            int index = changes.indices[i];
+            frame.addCell(index, forageCells.getCell(index));
          }
+      }
+      int numMoxen = moxen.size();
+      if ((frame.moxX == null) || (frame.moxX.length < numMoxen))
+      {
+         frame.moxX         = new int[numMoxen];
+         frame.moxY         = new int[numMoxen];
+         frame.moxDirection = new int[numMoxen];
+      }
+      for (int i = 0; i < numMoxen; i++)
+      {
+         ForagerMox mox = moxen.get(i);
+         frame.moxX[i]         = mox.x;
+         frame.moxY[i]         = mox.y;
+         frame.moxDirection[i] = mox.direction;
+      }
+      frame.numMoxen = numMoxen;
+   }
 
-         display.update();
 
-         if (stepDelay < MAX_STEP_DELAY)
+   // Capture all cells into frame.
+   void captureCells(Frame frame)
+   {
+      int width  = forageCells.size.width;
+      int height = forageCells.size.height;
+
+      frame.width    = width;
+      frame.height   = height;
+      frame.all      = true;
+      frame.numCells = 0;
+      for (int x = 0; x < width; x++)
+      {
+         for (int y = 0; y < height; y++)
          {
-            timer--;
+            frame.addCell((x * height) + y, forageCells.getCell(x, y));
          }
       }
    }
 
 
+   // Merge unrendered frame cell changes into newer frame.
+   void mergeFrame(Frame frame, Frame newer)
+   {
+      if (newer.all) { return; }
+      if (frame.all || ((frame.numCells + newer.numCells) > (newer.width * newer.height)))
+      {
+         captureCells(newer);
+         return;
+      }
+      int n = frame.numCells + newer.numCells;
+      if (newer.cellIndices.length < n)
+      {
+         newer.cellIndices = Arrays.copyOf(newer.cellIndices, n);
+         newer.cellValues  = Arrays.copyOf(newer.cellValues, n);
+      }
+      System.arraycopy(newer.cellIndices, 0, newer.cellIndices, frame.numCells, newer.numCells);
+      System.arraycopy(newer.cellValues, 0, newer.cellValues, frame.numCells, newer.numCells);
+      System.arraycopy(frame.cellIndices, 0, newer.cellIndices, 0, frame.numCells);
+      System.arraycopy(frame.cellValues, 0, newer.cellValues, 0, frame.numCells);
+      newer.numCells = n;
+   }
+
+
+   // Refresh display with next frame.
+   void refresh()
+   {
+      refresh = true;
+   }
+
+
+   // Set frame rate.
+   public void setFrameRate(int frameRate)
+   {
+      renderLoop.setFrameRate(frameRate);
+   }
+
+
+   // Set fast-forward steps per frame.
+   public void setStepsPerFrame(int steps)
+   {
+      if (steps < 1) { steps = 1; }
+      stepsPerFrame = steps;
+      controls.updateStepsPerFrame(steps);
+   }
+
+
    // Set step delay.
-   void setStepDelay(int delay)
+   synchronized void setStepDelay(int delay)
    {
-      stepDelay = timer = delay;
+      stepDelay = delay;
+      stepTime  = System.currentTimeMillis() + delay;
+      notifyAll();
    }
 
 
@@ -205,7 +468,11 @@ public class ForageDisplay extends JFrame
    {
       setStepDelay(MAX_STEP_DELAY);
       controls.speedSlider.setValue(MAX_STEP_DELAY);
-      timer = 0;
+      synchronized (this)
+      {
+         stepping = true;
+         notifyAll();
+      }
    }
 
 
@@ -230,6 +497,37 @@ public class ForageDisplay extends JFrame
    }
 
 
+   // Display frame: world state captured from the simulation.
+   // Cells changed since the previous frame, or all cells, are listed
+   // by flat index (x * height + y) and value.
+   static class Frame
+   {
+      int     steps;
+      int     width;
+      int     height;
+      boolean all;
+      int     numCells;
+      int[]   cellIndices = new int[64];
+      int[]   cellValues  = new int[64];
+      int     numMoxen;
+      int[]   moxX;
+      int[]   moxY;
+      int[]   moxDirection;
+
+      // Add cell.
+      void addCell(int index, int value)
+      {
+         if (numCells == cellIndices.length)
+         {
+            cellIndices = Arrays.copyOf(cellIndices, numCells * 2);
+            cellValues  = Arrays.copyOf(cellValues, numCells * 2);
+         }
+         cellIndices[numCells] = index;
+         cellValues[numCells]  = value;
+         numCells++;
+      }
+   }
+
    // Mox display.
    public class MoxDisplay extends Canvas
    {
@@ -241,6 +539,9 @@ public class ForageDisplay extends JFrame
       private Image     image;
       private Graphics  imageGraphics;
 
+      // Cell raster.
+      private CellRaster raster;
+
       // Last cell visited by mouse.
       private int lastX = -1;
       private int lastY = -1;
@@ -256,8 +557,8 @@ public class ForageDisplay extends JFrame
       }
 
 
-      // Update display.
-      synchronized void update()
+      // Update display from frame.
+      synchronized void update(Frame frame)
       {
          int   x;
          int   y;
@@ -271,6 +572,45 @@ public class ForageDisplay extends JFrame
             return;
          }
 
+         cellWidth  = (float)canvasSize.width / (float)forageCells.size.width;
+         cellHeight = (float)canvasSize.height / (float)forageCells.size.height;
+
+         // Draw changed cells into raster.
+         if (frame.all && ((raster == null) || (raster.width != frame.width) ||
+                           (raster.height != frame.height)))
+         {
+            raster = new CellRaster(frame.width, frame.height,
+                                    CellRaster.getBlockSize(cellWidth, cellHeight));
+         }
+         if (raster == null)
+         {
+            return;
+         }
+         int emptyColor = MoxWorx.EMPTY_CELL_COLOR.getRGB();
+         int foodColor  = FOOD_CELL_COLOR.getRGB();
+         int whiteColor = Color.white.getRGB();
+         for (int i = 0; i < frame.numCells; i++)
+         {
+            x = frame.cellIndices[i] / frame.height;
+            y = frame.cellIndices[i] % frame.height;
+            switch (frame.cellValues[i])
+            {
+            case MoxWorx.EMPTY_CELL_VALUE:
+               raster.setCell(x, y, emptyColor);
+               break;
+
+            case ForageCells.FOOD_CELL_VALUE:
+               raster.setDot(x, y, whiteColor, foodColor);
+               break;
+
+            default:
+               Color color = SectorDisplay.getEventColor(0, frame.cellValues[i] -
+                                                         ForageCells.LANDMARK_CELLS_BEGIN_VALUE + 1);
+               raster.setCell(x, y, color.getRGB());
+               break;
+            }
+         }
+
          if (graphics == null)
          {
             graphics      = getGraphics();
@@ -283,71 +623,36 @@ public class ForageDisplay extends JFrame
             return;
          }
 
-         // Clear display.
-         imageGraphics.setColor(Color.white);
-         imageGraphics.fillRect(0, 0, canvasSize.width, canvasSize.height);
-
-         cellWidth  = (float)canvasSize.width / (float)forageCells.size.width;
-         cellHeight = (float)canvasSize.height / (float)forageCells.size.height;
-
          // Draw cells.
-         for (x = x2 = 0; x < forageCells.size.width;
-              x++, x2 = (int)(cellWidth * (double)x))
-         {
-            for (y = 0, y2 = canvasSize.height - (int)cellHeight;
-                 y < forageCells.size.height;
-                 y++, y2 = (int)(cellHeight * (double)(forageCells.size.height - (y + 1))))
-            {
-               switch (forageCells.cells[x][y])
-               {
-               case MoxWorx.EMPTY_CELL_VALUE:
-                  imageGraphics.setColor(MoxWorx.EMPTY_CELL_COLOR);
-                  imageGraphics.fillRect(x2, y2, (int)cellWidth + 1, (int)cellHeight + 1);
-                  break;
-
-               case ForageCells.FOOD_CELL_VALUE:
-                  imageGraphics.setColor(Color.white);
-                  imageGraphics.fillRect(x2 + 1, y2 + 1, (int)cellWidth - 1,
-                                         (int)cellHeight - 1);
-                  imageGraphics.setColor(ForageCells.FOOD_CELL_COLOR);
-                  imageGraphics.fillOval(x2, y2, (int)cellWidth, (int)cellHeight);
-                  break;
-
-               default:
-                  Color color = SectorDisplay.getEventColor(0, forageCells.cells[x][y] -
-                                                            ForageCells.LANDMARK_CELLS_BEGIN_VALUE + 1);
-                  imageGraphics.setColor(color);
-                  imageGraphics.fillRect(x2, y2, (int)cellWidth + 1, (int)cellHeight + 1);
-                  break;
-               }
-            }
-         }
+         raster.draw(imageGraphics, canvasSize.width, canvasSize.height);
 
          // Draw grid.
          imageGraphics.setColor(Color.black);
-         y2 = canvasSize.height;
-         for (x = 1, x2 = (int)cellWidth; x < forageCells.size.width;
-              x++, x2 = (int)(cellWidth * (double)x))
+         if ((cellWidth >= GRID_MIN_CELL_SIZE) && (cellHeight >= GRID_MIN_CELL_SIZE))
          {
-            imageGraphics.drawLine(x2, 0, x2, y2);
-         }
-         x2 = canvasSize.width;
-         for (y = 1, y2 = (int)cellHeight; y < forageCells.size.height;
-              y++, y2 = (int)(cellHeight * (double)y))
-         {
-            imageGraphics.drawLine(0, y2, x2, y2);
+            y2 = canvasSize.height;
+            for (x = 1, x2 = (int)cellWidth; x < forageCells.size.width;
+                 x++, x2 = (int)(cellWidth * (double)x))
+            {
+               imageGraphics.drawLine(x2, 0, x2, y2);
+            }
+            x2 = canvasSize.width;
+            for (y = 1, y2 = (int)cellHeight; y < forageCells.size.height;
+                 y++, y2 = (int)(cellHeight * (double)y))
+            {
+               imageGraphics.drawLine(0, y2, x2, y2);
+            }
          }
-         imageGraphics.setColor(Color.black);
 
          // Draw moxen.
-         ForagerMox mox;
+         int direction;
          int[] vx = new int[3];
          int[] vy = new int[3];
-         for (int i = 0; i < moxen.size(); i++)
+         for (int i = 0; i < frame.numMoxen; i++)
          {
-            mox = (ForagerMox)moxen.get(i);
-            x2  = (int)(cellWidth * (double)mox.x);
-            y2  = (int)(cellHeight * (double)(forageCells.size.height - (mox.y + 1)));
+            direction = frame.moxDirection[i];
+            x2        = (int)(cellWidth * (double)frame.moxX[i]);
+            y2        = (int)(cellHeight * (double)(forageCells.size.height - (frame.moxY[i] + 1)));
 
             // Highlight selected mox?
             if (i == currentMox)
@@ -359,8 +664,8 @@ public class ForageDisplay extends JFrame
                imageGraphics.setColor(Color.white);
             }
             imageGraphics.fillRect(x2 + 1, y2 + 1, (int)cellWidth - 1, (int)cellHeight - 1);
-            imageGraphics.setColor(ForageCells.MOX_CELL_COLOR);
-            if (mox.direction == Orientation.NORTH)
+            imageGraphics.setColor(MOX_CELL_COLOR);
+            if (direction == Orientation.NORTH)
             {
                vx[0] = x2 + (int)(cellWidth * 0.5f);
                vy[0] = y2;
@@ -369,7 +674,7 @@ public class ForageDisplay extends JFrame
                vx[2] = x2 + (int)cellWidth;
                vy[2] = y2 + (int)cellHeight;
             }
-            else if (mox.direction == Orientation.EAST)
+            else if (direction == Orientation.EAST)
             {
                vx[0] = x2 + (int)(cellWidth);
                vy[0] = y2 + (int)(cellHeight * 0.5f);
@@ -378,7 +683,7 @@ public class ForageDisplay extends JFrame
                vx[2] = x2;
                vy[2] = y2 + (int)cellHeight;
             }
-            else if (mox.direction == Orientation.SOUTH)
+            else if (direction == Orientation.SOUTH)
             {
                vx[0] = x2 + (int)(cellWidth * 0.5f);
                vy[0] = y2 + (int)cellHeight;
@@ -463,29 +768,13 @@ public class ForageDisplay extends JFrame
                   currentMox = -1;
                }
 
-               if (!moxSelected)
+               if (!moxSelected && ((ForageCells.LANDMARK_CELLS_BEGIN_VALUE + numLandmarkTypes) > 1))
                {
-                  int n = ForageCells.LANDMARK_CELLS_BEGIN_VALUE + numLandmarkTypes;
-                  if (n > 1)
-                  {
-                     forageCells.cells[x][y] = (forageCells.cells[x][y] + 1) % n;
-                     if (forageCells.cells[x][y] == ForageCells.MOX_CELL_VALUE)
-                     {
-                        forageCells.cells[x][y] = (forageCells.cells[x][y] + 1) % n;
-                     }
-                     if (forageCells.cells[x][y] == MoxWorx.EMPTY_CELL_VALUE)
-                     {
-                        for (i = 0; i < moxen.size(); i++)
-                        {
-                           mox = moxen.get(i);
-                           mox.landmarkMap[x][y] = false;
-                        }
-                     }
-                  }
+                  queueEdit(x, y);
                }
 
                // Refresh display.
-               update();
+               refresh();
             }
          }
       }
@@ -512,22 +801,13 @@ public class ForageDisplay extends JFrame
                {
                   lastX = x;
                   lastY = y;
-                  forageCells.cells[x][y] = (forageCells.cells[x][y] + 1) % n;
-                  if (forageCells.cells[x][y] == ForageCells.MOX_CELL_VALUE)
-                  {
-                     forageCells.cells[x][y] = (forageCells.cells[x][y] + 1) % n;
-                  }
-                  if (forageCells.cells[x][y] == MoxWorx.EMPTY_CELL_VALUE)
+                  if (n > 1)
                   {
-                     for (int i = 0; i < moxen.size(); i++)
-                     {
-                        ForagerMox mox = moxen.get(i);
-                        mox.landmarkMap[x][y] = false;
-                     }
+                     queueEdit(x, y);
                   }
 
                   // Refresh display.
-                  update();
+                  refresh();
                }
             }
          }
@@ -540,11 +820,12 @@ public class ForageDisplay extends JFrame
       private static final long serialVersionUID = 0L;
 
       // Components.
-      JButton    resetButton;
-      JLabel     stepCounter;
-      JSlider    speedSlider;
-      JButton    stepButton;
-      JTextField messageText;
+      JButton           resetButton;
+      JLabel            stepCounter;
+      JSlider           speedSlider;
+      JButton           stepButton;
+      JComboBox<String> stepsPerFrameChoice;
+      JTextField        messageText;
 
       // Constructor.
       MoxControls()
@@ -569,9 +850,17 @@ public class ForageDisplay extends JFrame
          panel.add(stepCounter);
          add(panel, BorderLayout.NORTH);
          panel       = new JPanel();
-         messageText = new JTextField("", 40);
+         messageText = new JTextField("", 30);
          messageText.setEditable(false);
          panel.add(messageText);
+         panel.add(new JLabel("Steps/frame:", Label.RIGHT));
+         stepsPerFrameChoice = new JComboBox<String>();
+         for (int i = 0; i < STEPS_PER_FRAME.length; i++)
+         {
+            stepsPerFrameChoice.addItem(STEPS_PER_FRAME[i] + "");
+         }
+         stepsPerFrameChoice.addActionListener(this);
+         panel.add(stepsPerFrameChoice);
          add(panel, BorderLayout.SOUTH);
       }
 
@@ -583,6 +872,24 @@ public class ForageDisplay extends JFrame
       }
 
 
+      // Update steps per frame display.
+      void updateStepsPerFrame(int steps)
+      {
+         String item = steps + "";
+         int    i;
+
+         for (i = 0; i < stepsPerFrameChoice.getItemCount(); i++)
+         {
+            if (stepsPerFrameChoice.getItemAt(i).equals(item)) { break; }
+         }
+         if (i == stepsPerFrameChoice.getItemCount())
+         {
+            stepsPerFrameChoice.addItem(item);
+         }
+         stepsPerFrameChoice.setSelectedIndex(i);
+      }
+
+
       // Speed slider listener.
       public void stateChanged(ChangeEvent evt)
       {
@@ -597,13 +904,7 @@ public class ForageDisplay extends JFrame
          if (evt.getSource() == (Object)resetButton)
          {
             currentMox = -1;
-            forageCells.restore();
-            int numMoxen = moxen.size();
-            for (int i = 0; i < numMoxen; i++)
-            {
-               moxen.get(i).reset();
-               moxenDashboards.get(i).update();
-            }
+            queueReset();
 
             return;
          }
@@ -615,6 +916,14 @@ public class ForageDisplay extends JFrame
 
             return;
          }
+
+         // Steps per frame?
+         if (evt.getSource() == (Object)stepsPerFrameChoice)
+         {
+            stepsPerFrame = Integer.parseInt((String)stepsPerFrameChoice.getSelectedItem());
+
+            return;
+         }
       }
    }
 }
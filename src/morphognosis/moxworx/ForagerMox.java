@@ -6,13 +6,11 @@ package morphognosis.moxworx;
 
 import java.io.*;
 import java.util.ArrayList;
-import java.util.Collections;
-import java.util.Vector;
+import java.util.Arrays;
 
 import morphognosis.Metamorph;
 import morphognosis.Morphognostic;
 import morphognosis.Orientation;
-import morphognosis.Utility;
 import weka.classifiers.Evaluation;
 import weka.classifiers.functions.MultilayerPerceptron;
 import weka.core.Attribute;
@@ -40,13 +38,31 @@ public class ForagerMox
    public Morphognostic morphognostic;
 
    // Metamorphs.
+   // The Weka network is created when trained, since its classes load Swing.
    public ArrayList<Metamorph> metamorphs;
+   MetamorphIndex              metamorphIndex;
    public FastVector           metamorphNNattributeNames;
    public Instances            metamorphInstances;
    MultilayerPerceptron        metamorphNN;
    public static final boolean saveMetamorphInstances = false;
    public static final boolean saveMetamorphNN        = false;
-   public static final boolean evaluateMetamorphNN    = true;
+   public boolean              evaluateMetamorphNN    = true;
+   public boolean              nativeMetamorphNN      = false;
+
+   // Metamorph NN training epochs: full, and incremental for the native network.
+   public static final int METAMORPH_NN_TRAINING_TIME             = 2000;
+   public static final int METAMORPH_NN_INCREMENTAL_TRAINING_TIME = 200;
+
+   // Number of metamorphs in NN training instances.
+   int metamorphNNsize;
+
+   // Native or exported metamorph NN and its reused input buffer.
+   MetamorphMLP metamorphMLP;
+   float[]      metamorphNNinput;
+
+   // Flattened native NN training values and classes, by metamorph.
+   float[][] metamorphNNvalues;
+   int[]     metamorphNNclasses;
 
    // Input/output.
    float[] sensors;
@@ -64,24 +80,15 @@ public class ForagerMox
    public static final int NUM_RESPONSES = 5;
 
    // Navigation.
-   public boolean[][] landmarkMap;
+   public LandmarkMap landmarkMap;
    public int         maxLandmarkEventAge;
-   public class LandmarkEvent
-   {
-      public int value;
-      public int x;
-      public int y;
-      public int time;
-      public LandmarkEvent(int value, int x, int y, int time)
-      {
-         this.value = value;
-         this.x     = x;
-         this.y     = y;
-         this.time  = time;
-      }
-   }
-   public Vector<LandmarkEvent> landmarkEvents;
+   public EventHistory landmarkEvents;
    public int eventTime;
+   EventWindow eventWindow;
+   FoodSearch  foodSearch;
+
+   // Step metrics, null when off.
+   StepMetrics metrics;
 
    // Driver type.
    public enum DRIVER_TYPE
@@ -117,6 +124,7 @@ public class ForagerMox
       Morphognostic.Neighborhood n = morphognostic.neighborhoods.get(morphognostic.NUM_NEIGHBORHOODS - 1);
       maxLandmarkEventAge = n.epoch + n.duration - 1;
       metamorphs          = new ArrayList<Metamorph>();
+      metamorphIndex      = new MetamorphIndex(metamorphs);
       initMetamorphNN();
    }
 
@@ -145,6 +153,7 @@ public class ForagerMox
       Morphognostic.Neighborhood n = morphognostic.neighborhoods.get(morphognostic.NUM_NEIGHBORHOODS - 1);
       maxLandmarkEventAge = n.epoch + n.duration - 1;
       metamorphs          = new ArrayList<Metamorph>();
+      metamorphIndex      = new MetamorphIndex(metamorphs);
       initMetamorphNN();
    }
 
@@ -161,6 +170,7 @@ public class ForagerMox
       Morphognostic.Neighborhood n = morphognostic.neighborhoods.get(morphognostic.NUM_NEIGHBORHOODS - 1);
       maxLandmarkEventAge = n.epoch + n.duration - 1;
       metamorphs          = new ArrayList<Metamorph>();
+      metamorphIndex      = new MetamorphIndex(metamorphs);
       initMetamorphNN();
    }
 
@@ -179,15 +189,8 @@ public class ForagerMox
       response       = WAIT;
       driver         = DRIVER_TYPE.METAMORPH_DB.getValue();
       driverResponse = WAIT;
-      landmarkMap    = new boolean[forageCells.size.width][forageCells.size.height];
-      for (int i = 0; i < forageCells.size.width; i++)
-      {
-         for (int j = 0; j < forageCells.size.height; j++)
-         {
-            landmarkMap[i][j] = false;
-         }
-      }
-      landmarkEvents = new Vector<LandmarkEvent>();
+      landmarkMap    = new LandmarkMap(forageCells.size.width, forageCells.size.height);
+      landmarkEvents = new EventHistory(1);
       eventTime      = 0;
    }
 
@@ -210,13 +213,7 @@ public class ForagerMox
       }
       response       = WAIT;
       driverResponse = WAIT;
-      for (int i = 0; i < forageCells.size.width; i++)
-      {
-         for (int j = 0; j < forageCells.size.height; j++)
-         {
-            landmarkMap[i][j] = false;
-         }
-      }
+      landmarkMap.clear();
       landmarkEvents.clear();
       morphognostic.clear();
    }
@@ -243,24 +240,31 @@ public class ForagerMox
    // Save mox.
    public void save(FileOutputStream output) throws IOException
    {
-      DataOutputStream writer = new DataOutputStream(new BufferedOutputStream(output));
-
-      Utility.saveInt(writer, id);
-      Utility.saveInt(writer, x);
-      Utility.saveInt(writer, y);
-      Utility.saveInt(writer, direction);
-      Utility.saveInt(writer, numLandmarkTypes);
-      Utility.saveInt(writer, x2);
-      Utility.saveInt(writer, y2);
-      Utility.saveInt(writer, direction2);
-      morphognostic.save(writer);
-      Utility.saveInt(writer, maxLandmarkEventAge);
-      Utility.saveInt(writer, metamorphs.size());
+      SnapshotWriter writer = new SnapshotWriter(output);
+
+      save(writer);
+      writer.flush();
+   }
+
+
+   // Save mox to snapshot.
+   public void save(SnapshotWriter writer) throws IOException
+   {
+      writer.writeInt(id);
+      writer.writeInt(x);
+      writer.writeInt(y);
+      writer.writeInt(direction);
+      writer.writeInt(numLandmarkTypes);
+      writer.writeInt(x2);
+      writer.writeInt(y2);
+      writer.writeInt(direction2);
+      writer.writeMorphognostic(morphognostic);
+      writer.writeInt(maxLandmarkEventAge);
+      writer.writeInt(metamorphs.size());
       for (Metamorph m : metamorphs)
       {
-         m.save(writer);
+         writer.writeMetamorph(m);
       }
-      writer.flush();
    }
 
 
@@ -285,25 +289,33 @@ public class ForagerMox
    // Load mox.
    public void load(FileInputStream input) throws IOException
    {
-      // Load the properties.
-      // DataInputStream is for unbuffered input.
-      DataInputStream reader = new DataInputStream(input);
-
-      id                  = Utility.loadInt(reader);
-      x                   = Utility.loadInt(reader);
-      y                   = Utility.loadInt(reader);
-      direction           = Utility.loadInt(reader);
-      numLandmarkTypes    = Utility.loadInt(reader);
-      x2                  = Utility.loadInt(reader);
-      y2                  = Utility.loadInt(reader);
-      direction2          = Utility.loadInt(reader);
-      morphognostic       = Morphognostic.load(reader);
-      maxLandmarkEventAge = Utility.loadInt(reader);
+      SnapshotReader reader = new SnapshotReader(input);
+
+      load(reader);
+      reader.finish();
+   }
+
+
+   // Load mox from snapshot.
+   public void load(SnapshotReader reader) throws IOException
+   {
+      id                  = reader.readInt();
+      x                   = reader.readInt();
+      y                   = reader.readInt();
+      direction           = reader.readInt();
+      numLandmarkTypes    = reader.readInt();
+      x2                  = reader.readInt();
+      y2                  = reader.readInt();
+      direction2          = reader.readInt();
+      morphognostic       = reader.readMorphognostic();
+      maxLandmarkEventAge = reader.readInt();
+      eventWindow         = null;
       metamorphs.clear();
-      int n = Utility.loadInt(reader);
+      metamorphIndex.clear();
+      int n = reader.readInt();
       for (int i = 0; i < n; i++)
       {
-         metamorphs.add(Metamorph.load(reader));
+         metamorphs.add(reader.readMetamorph());
       }
       initMetamorphNN();
    }
@@ -312,41 +324,40 @@ public class ForagerMox
    // Sensor/response cycle.
    public int cycle(float[] sensors, int fx, int fy)
    {
+      StepMetrics metrics = this.metrics;
+      long        time    = 0;
+
+      if (metrics != null) { time = System.nanoTime(); }
       this.sensors = sensors;
 
       // Update morphognostic.
-      landmarkEvents.add(new LandmarkEvent(forageCells.cells[fx][fy], fx, fy, eventTime));
-      if ((eventTime - landmarkEvents.get(0).time) > maxLandmarkEventAge)
+      landmarkEvents.setValue(landmarkEvents.add(fx, fy, eventTime), 0, forageCells.getCell(fx, fy));
+      if ((eventTime - landmarkEvents.getTime(0)) > maxLandmarkEventAge)
       {
-         landmarkEvents.remove(0);
+         landmarkEvents.removeFirst();
       }
-      int w = forageCells.size.width;
-      int h = forageCells.size.height;
-      int a = maxLandmarkEventAge + 1;
-      int landmarks[][][][] = new int[w][h][1][a];
-      for (int x = 0; x < w; x++)
+      if (eventWindow == null)
       {
-         for (int y = 0; y < h; y++)
-         {
-            for (int t = 0; t < a; t++)
-            {
-               landmarks[x][y][0][t] = -1;
-            }
-         }
+         eventWindow = new EventWindow(morphognostic, forageCells.size.width,
+                                       forageCells.size.height, maxLandmarkEventAge);
       }
-      for (LandmarkEvent e : landmarkEvents)
+      eventWindow.clear(x, y);
+      for (int i = 0, n = landmarkEvents.size(); i < n; i++)
       {
-         if (e.value >= ForageCells.LANDMARK_CELLS_BEGIN_VALUE)
+         int value = landmarkEvents.getValue(i, 0);
+         int age   = eventTime - landmarkEvents.getTime(i);
+         if (value >= ForageCells.LANDMARK_CELLS_BEGIN_VALUE)
          {
-            landmarks[e.x][e.y][0][eventTime - e.time] =
-               e.value - ForageCells.LANDMARK_CELLS_BEGIN_VALUE + 1;
+            eventWindow.set(landmarkEvents.getX(i), landmarkEvents.getY(i), 0, age,
+                            value - ForageCells.LANDMARK_CELLS_BEGIN_VALUE + 1);
          }
          else
          {
-            landmarks[e.x][e.y][0][eventTime - e.time] = MoxWorx.EMPTY_CELL_VALUE;
+            eventWindow.set(landmarkEvents.getX(i), landmarkEvents.getY(i), 0, age, MoxWorx.EMPTY_CELL_VALUE);
          }
       }
-      morphognostic.update(landmarks, x, y);
+      eventWindow.update(morphognostic);
+      if (metrics != null) { time = metrics.record(StepMetrics.UPDATE, time); }
 
       // Respond.
       if (driver == DRIVER_TYPE.METAMORPH_DB.getValue())
@@ -365,21 +376,15 @@ public class ForagerMox
       {
          response = driverResponse;
       }
+      if (metrics != null) { time = metrics.record(StepMetrics.RESPOND, time); }
 
       // Update metamorphs.
-      Metamorph metamorph = new Metamorph(morphognostic.clone(), response);
-      boolean   found     = false;
-      for (Metamorph m : metamorphs)
+      boolean added = metamorphIndex.add(morphognostic, response);
+      if (metrics != null)
       {
-         if (m.equals(metamorph))
-         {
-            found = true;
-            break;
-         }
-      }
-      if (!found)
-      {
-         metamorphs.add(metamorph);
+         metrics.record(StepMetrics.METAMORPH, time);
+         if (!added) { metrics.count(StepMetrics.DEDUP_HITS, 1); }
+         metrics.set(StepMetrics.METAMORPHS, metamorphs.size());
       }
 
       eventTime++;
@@ -391,21 +396,10 @@ public class ForagerMox
    void metamorphDBresponse()
    {
       response = WAIT;
-      Metamorph metamorph = null;
-      float     d         = 0.0f;
-      float     d2;
-      for (Metamorph m : metamorphs)
+      ArrayList<Metamorph> nearest = metamorphIndex.nearest(morphognostic);
+      if (nearest.size() > 0)
       {
-         d2 = morphognostic.compare(m.morphognostic);
-         if ((metamorph == null) || (d2 < d))
-         {
-            d         = d2;
-            metamorph = m;
-         }
-      }
-      if (metamorph != null)
-      {
-         response = metamorph.response;
+         response = nearest.get(0).response;
       }
    }
 
@@ -420,175 +414,221 @@ public class ForagerMox
    // Autopilot response.
    void autoResponse()
    {
-      // Search for best response leading to food.
-      int fx, fy;
-      int left, right;
-      int r;
-      int w = forageCells.size.width;
-      int h = forageCells.size.height;
-
-      ArrayList<FoodSearch> open   = new ArrayList<FoodSearch>();
-      ArrayList<FoodSearch> closed = new ArrayList<FoodSearch>();
-      response = WAIT;
-      FoodSearch current = new FoodSearch(EAT, x, y, direction, 0);
-      if (current.foodDist == -1)
+      if (foodSearch == null)
       {
-         return;
+         foodSearch = new FoodSearch();
       }
-      open.add(current);
-      FoodSearch next;
-      boolean    found;
-      while (open.size() > 0)
+      response = foodSearch.search();
+   }
+
+
+   // A* search for best response leading to food.
+   // Search nodes are expanded in order of estimated distance to food,
+   // ties in order of creation, with (x, y, direction) states closed once expanded.
+   class FoodSearch
+   {
+      // Nodes.
+      int[] nodeResponse;
+      int[] nodeX, nodeY;
+      int[] nodeDir;
+      int[] nodeDepth;
+      int[] nodeFoodDist;
+      int   numNodes;
+
+      // Open node heap.
+      int[] open;
+      int   numOpen;
+
+      // Closed states: bit ((x * height + y) * NUM_ORIENTATIONS + dir).
+      long[] closed;
+
+      // Indices of closed words set by the last search, cleared by the next.
+      int[] closedWords;
+      int   numClosedWords;
+
+      // Constructor.
+      FoodSearch()
       {
-         current = open.get(0);
-         open.remove(0);
-         closed.add(current);
-         switch (current.dir)
-         {
-         case Orientation.NORTH:
-            fx    = current.x;
-            fy    = ((current.y + 1) % h);
-            left  = Orientation.WEST;
-            right = Orientation.EAST;
-            break;
-
-         case Orientation.EAST:
-            fx    = (current.x + 1) % w;
-            fy    = current.y;
-            left  = Orientation.NORTH;
-            right = Orientation.SOUTH;
-            break;
-
-         case Orientation.SOUTH:
-            fx = current.x;
-            fy = current.y - 1;
-            if (fy < 0) { fy += h; }
-            left  = Orientation.EAST;
-            right = Orientation.WEST;
-            break;
-
-         case Orientation.WEST:
-            fx = current.x - 1;
-            if (fx < 0) { fx += w; }
-            fy    = current.y;
-            left  = Orientation.SOUTH;
-            right = Orientation.NORTH;
-            break;
-
-         default:
-            fx    = -1;
-            fy    = -1;
-            left  = Orientation.WEST;
-            right = Orientation.EAST;
-            break;
-         }
-         if (forageCells.cells[fx][fy] == ForageCells.FOOD_CELL_VALUE)
+         int n = 64;
+
+         nodeResponse   = new int[n];
+         nodeX          = new int[n];
+         nodeY          = new int[n];
+         nodeDir        = new int[n];
+         nodeDepth      = new int[n];
+         nodeFoodDist   = new int[n];
+         open           = new int[n];
+         closed         = new long[((forageCells.size.width * forageCells.size.height *
+                                     Orientation.NUM_ORIENTATIONS) + 63) / 64];
+         closedWords    = new int[n];
+         numClosedWords = 0;
+      }
+
+
+      // Search.
+      int search()
+      {
+         int fx, fy;
+         int left, right;
+         int r;
+         int h = forageCells.size.height;
+
+         NeighborTable neighbors = forageCells.neighbors;
+
+         numNodes = numOpen = 0;
+         for (int i = 0; i < numClosedWords; i++)
          {
-            response = current.response;
-            return;
+            closed[closedWords[i]] = 0L;
          }
-         r = current.response;
-         if (current.response == EAT)
+         numClosedWords = 0;
+         int current = add(EAT, x, y, direction, 0);
+         if (nodeFoodDist[current] == -1)
          {
-            r = FORWARD;
+            return(WAIT);
          }
-         if (!landmarkMap[fx][fy])
+         while (numOpen > 0)
          {
-            next  = new FoodSearch(r, fx, fy, current.dir, current.depth + 1);
-            found = false;
-            for (FoodSearch s : closed)
+            current = pop();
+
+            // Skip states already expanded.
+            int state = ((nodeX[current] * h) + nodeY[current]) * Orientation.NUM_ORIENTATIONS + nodeDir[current];
+            int word = state >> 6;
+            if ((closed[word] & (1L << (state & 63))) != 0)
+            {
+               continue;
+            }
+            if (closed[word] == 0L)
             {
-               if (next.equals(s))
+               if (numClosedWords == closedWords.length)
                {
-                  found = true;
-                  break;
+                  closedWords = Arrays.copyOf(closedWords, numClosedWords * 2);
                }
+               closedWords[numClosedWords] = word;
+               numClosedWords++;
             }
-            if (!found)
+            closed[word] |= (1L << (state & 63));
+            if (metrics != null) { metrics.count(StepMetrics.SEARCH_EXPANSIONS, 1); }
+            int cx  = nodeX[current];
+            int cy  = nodeY[current];
+            int dir = nodeDir[current];
+            fx    = neighbors.getX(cx, dir);
+            fy    = neighbors.getY(cy, dir);
+            left  = NeighborTable.turn(dir, NeighborTable.LEFT);
+            right = NeighborTable.turn(dir, NeighborTable.RIGHT);
+            if (forageCells.getCell(fx, fy) == ForageCells.FOOD_CELL_VALUE)
             {
-               open.add(next);
+               return(nodeResponse[current]);
             }
-         }
-         if (current.response == EAT)
-         {
-            r = LEFT;
-         }
-         next  = new FoodSearch(r, current.x, current.y, left, current.depth + 1);
-         found = false;
-         for (FoodSearch s : closed)
-         {
-            if (next.equals(s))
+            r = nodeResponse[current];
+            int depth = nodeDepth[current] + 1;
+            if (nodeResponse[current] == EAT)
             {
-               found = true;
-               break;
+               r = FORWARD;
             }
-         }
-         if (!found)
-         {
-            open.add(next);
-         }
-         if (current.response == EAT)
-         {
-            r = RIGHT;
-         }
-         next  = new FoodSearch(r, current.x, current.y, right, current.depth + 1);
-         found = false;
-         for (FoodSearch s : closed)
-         {
-            if (next.equals(s))
+            if (!landmarkMap.get(fx, fy))
             {
-               found = true;
-               break;
+               expand(r, fx, fy, nodeDir[current], depth);
             }
+            if (nodeResponse[current] == EAT)
+            {
+               r = LEFT;
+            }
+            expand(r, cx, cy, left, depth);
+            if (nodeResponse[current] == EAT)
+            {
+               r = RIGHT;
+            }
+            expand(r, cx, cy, right, depth);
          }
-         if (!found)
-         {
-            open.add(next);
-         }
-         Collections.sort(open);
+         return(WAIT);
       }
-   }
 
 
-   // Food search state.
-   class FoodSearch implements Comparable<FoodSearch>
-   {
-      int response;
-      int x, y;
-      int dir;
-      int depth;
-      int foodDist;
-
-      // Constructor.
-      FoodSearch(int response, int x, int y, int dir, int depth)
+      // Add node for state unless closed.
+      void expand(int response, int x, int y, int dir, int depth)
       {
-         this.response = response;
-         this.x        = x;
-         this.y        = y;
-         this.dir      = dir;
-         this.depth    = depth;
-         foodDist      = depth + forageCells.foodDist(x, y);
+         int state = ((x * forageCells.size.height) + y) * Orientation.NUM_ORIENTATIONS + dir;
+
+         if ((closed[state >> 6] & (1L << (state & 63))) == 0)
+         {
+            add(response, x, y, dir, depth);
+         }
       }
 
 
-      // Equal comparison.
-      boolean equals(FoodSearch s)
+      // Add open node.
+      int add(int response, int x, int y, int dir, int depth)
       {
-         if ((x == s.x) && (y == s.y) && (dir == s.dir))
+         if (numNodes == nodeX.length)
          {
-            return(true);
+            int n = numNodes * 2;
+            nodeResponse = Arrays.copyOf(nodeResponse, n);
+            nodeX        = Arrays.copyOf(nodeX, n);
+            nodeY        = Arrays.copyOf(nodeY, n);
+            nodeDir      = Arrays.copyOf(nodeDir, n);
+            nodeDepth    = Arrays.copyOf(nodeDepth, n);
+            nodeFoodDist = Arrays.copyOf(nodeFoodDist, n);
+            open         = Arrays.copyOf(open, n);
          }
-         else
+         int node = numNodes;
+         numNodes++;
+         nodeResponse[node] = response;
+         nodeX[node]        = x;
+         nodeY[node]        = y;
+         nodeDir[node]      = dir;
+         nodeDepth[node]    = depth;
+         nodeFoodDist[node] = depth + forageCells.foodDist(x, y);
+
+         // Sift up.
+         int i = numOpen;
+         numOpen++;
+         while (i > 0)
          {
-            return(false);
+            int parent = (i - 1) / 2;
+            if (!before(node, open[parent])) { break; }
+            open[i] = open[parent];
+            i       = parent;
          }
+         open[i] = node;
+         return(node);
       }
 
 
-      @Override
-      public int compareTo(FoodSearch s)
+      // Remove first open node.
+      int pop()
       {
-         return(foodDist - s.foodDist);
+         int first = open[0];
+
+         numOpen--;
+         int node = open[numOpen];
+
+         // Sift down.
+         int i = 0;
+         while (true)
+         {
+            int child = (i * 2) + 1;
+            if (child >= numOpen) { break; }
+            if (((child + 1) < numOpen) && before(open[child + 1], open[child]))
+            {
+               child++;
+            }
+            if (!before(open[child], node)) { break; }
+            open[i] = open[child];
+            i       = child;
+         }
+         open[i] = node;
+         return(first);
+      }
+
+
+      // Node ordering: food distance, then creation order.
+      boolean before(int a, int b)
+      {
+         if (nodeFoodDist[a] != nodeFoodDist[b])
+         {
+            return(nodeFoodDist[a] < nodeFoodDist[b]);
+         }
+         return(a < b);
       }
    }
 
@@ -620,13 +660,27 @@ public class ForagerMox
       }
       metamorphNNattributeNames.addElement(new Attribute("type", responseVals));
       metamorphInstances = new Instances("metamorphs", metamorphNNattributeNames, 0);
-      metamorphNN        = new MultilayerPerceptron();
+      metamorphNN        = null;
+      metamorphNNsize    = 0;
+      metamorphMLP       = null;
+      metamorphNNinput   = new float[metamorphNNattributeNames.size() - 1];
+      metamorphNNvalues  = null;
+      metamorphNNclasses = null;
    }
 
 
    // Create and train metamorph neural network.
    public void createMetamorphNN() throws Exception
    {
+      if (nativeMetamorphNN)
+      {
+         metamorphMLP       = null;
+         metamorphNNvalues  = null;
+         metamorphNNclasses = null;
+         trainNativeMetamorphNN(METAMORPH_NN_TRAINING_TIME);
+         return;
+      }
+
       // Create instances.
       metamorphInstances = new Instances("metamorphs", metamorphNNattributeNames, 0);
       for (Metamorph m : metamorphs)
@@ -634,16 +688,51 @@ public class ForagerMox
          metamorphInstances.add(createInstance(metamorphInstances, m));
       }
       metamorphInstances.setClassIndex(metamorphInstances.numAttributes() - 1);
+      metamorphNNsize = metamorphs.size();
 
+      // Train the neural network.
+      trainMetamorphNN(METAMORPH_NN_TRAINING_TIME);
+   }
+
+
+   // Update metamorph neural network with metamorphs added since it was trained.
+   // The native network resumes from its weights for the shorter incremental
+   // epoch count. The Weka perceptron cannot resume from its weights, so it is
+   // retrained in full, with new instances appended to the training set.
+   public void updateMetamorphNN() throws Exception
+   {
+      if ((metamorphNNsize == 0) || (metamorphNNsize > metamorphs.size()))
+      {
+         createMetamorphNN();
+         return;
+      }
+      if (metamorphNNsize == metamorphs.size())
+      {
+         return;
+      }
+      if (nativeMetamorphNN)
+      {
+         trainNativeMetamorphNN(METAMORPH_NN_INCREMENTAL_TRAINING_TIME);
+         return;
+      }
+      for (int i = metamorphNNsize; i < metamorphs.size(); i++)
+      {
+         metamorphInstances.add(createInstance(metamorphInstances, metamorphs.get(i)));
+      }
+      metamorphNNsize = metamorphs.size();
+      trainMetamorphNN(METAMORPH_NN_TRAINING_TIME);
+   }
+
+
+   // Train metamorph neural network on instances for given epochs.
+   void trainMetamorphNN(int epochs) throws Exception
+   {
       // Create and train the neural network.
       MultilayerPerceptron mlp = new MultilayerPerceptron();
       metamorphNN = mlp;
-      mlp.setLearningRate(0.1);
-      mlp.setMomentum(0.2);
-      mlp.setTrainingTime(2000);
-      mlp.setHiddenLayers("20");
-      mlp.setOptions(Utils.splitOptions("-L 0.1 -M 0.2 -N 2000 -V 0 -S 0 -E 20 -H 20"));
+      mlp.setOptions(Utils.splitOptions("-L 0.1 -M 0.2 -N " + epochs + " -V 0 -S 0 -E 20 -H 20"));
       mlp.buildClassifier(metamorphInstances);
+      metamorphMLP = MetamorphMLP.export(mlp, metamorphInstances);
 
       // Save training instances?
       if (saveMetamorphInstances)
@@ -671,39 +760,111 @@ public class ForagerMox
    }
 
 
+   // Train native metamorph neural network on metamorphs for given epochs,
+   // continuing from its current weights.
+   // Only metamorphs added since the last training are flattened.
+   void trainNativeMetamorphNN(int epochs)
+   {
+      int       n       = metamorphs.size();
+      int       k       = 0;
+      float[][] values;
+      int[]     classes;
+
+      if ((metamorphNNvalues != null) && (metamorphNNvalues.length <= n))
+      {
+         k       = metamorphNNvalues.length;
+         values  = Arrays.copyOf(metamorphNNvalues, n);
+         classes = Arrays.copyOf(metamorphNNclasses, n);
+      }
+      else
+      {
+         values  = new float[n][];
+         classes = new int[n];
+      }
+      for (int i = k; i < n; i++)
+      {
+         Metamorph m = metamorphs.get(i);
+         values[i] = new float[metamorphNNinput.length];
+         flattenMorphognostic(m.morphognostic, values[i]);
+         classes[i] = m.response;
+      }
+      metamorphNNvalues  = values;
+      metamorphNNclasses = classes;
+      if (metamorphMLP == null)
+      {
+         metamorphMLP = new MetamorphMLP(metamorphNNinput.length, MetamorphMLP.HIDDEN_UNITS, NUM_RESPONSES);
+         metamorphMLP.setNormalization(values);
+         metamorphMLP.randomize(new FastRandom(MetamorphMLP.RANDOM_SEED));
+      }
+      metamorphMLP.train(values, classes, epochs, MetamorphMLP.LEARNING_RATE,
+                         MetamorphMLP.MOMENTUM, new FastRandom(MetamorphMLP.RANDOM_SEED));
+      metamorphNNsize = n;
+
+      // Evaluate the network.
+      if (evaluateMetamorphNN)
+      {
+         System.out.println("Error rate=" + metamorphMLP.errorRate(values, classes));
+      }
+   }
+
+
    // Create metamorph NN instance.
    Instance createInstance(Instances instances, Metamorph m)
    {
-      double[]  attrValues = new double[instances.numAttributes()];
+      double[] attrValues = new double[instances.numAttributes()];
+      int a = flattenMorphognostic(m.morphognostic, metamorphNNinput);
+      for (int i = 0; i < a; i++)
+      {
+         attrValues[i] = metamorphNNinput[i];
+      }
+      attrValues[a] = instances.attribute(a).indexOfValue(m.response + "");
+      a++;
+      return(new Instance(1.0, attrValues));
+   }
+
+
+   // Flatten morphognostic sector densities into NN input values.
+   // Returns number of values.
+   int flattenMorphognostic(Morphognostic morphognostic, float[] values)
+   {
       int a = 0;
       for (int i = 0; i < morphognostic.NUM_NEIGHBORHOODS; i++)
       {
-         int n = m.morphognostic.neighborhoods.get(i).sectors.length;
+         Morphognostic.Neighborhood.Sector[][] sectors = morphognostic.neighborhoods.get(i).sectors;
+         int n = sectors.length;
          for (int x = 0; x < n; x++)
          {
             for (int y = 0; y < n; y++)
             {
-               Morphognostic.Neighborhood.Sector s = m.morphognostic.neighborhoods.get(i).sectors[x][y];
-               for (int d = 0; d < m.morphognostic.eventDimensions; d++)
+               Morphognostic.Neighborhood.Sector s = sectors[x][y];
+               for (int d = 0; d < morphognostic.eventDimensions; d++)
                {
-                  for (int j = 0; j < s.typeDensities[d].length; j++)
+                  float[] densities = s.typeDensities[d];
+                  for (int j = 0; j < densities.length; j++)
                   {
-                     attrValues[a] = s.typeDensities[d][j];
+                     values[a] = densities[j];
                      a++;
                   }
                }
             }
          }
       }
-      attrValues[a] = instances.attribute(a).indexOfValue(m.response + "");
-      a++;
-      return(new Instance(1.0, attrValues));
+      return(a);
    }
 
 
    // Use metamorph NN to classify morphognostic as a response.
+   // Class values are response strings in response order, so a prediction
+   // index is the response.
    public int classifyMorphognostic(Morphognostic morphognostic)
    {
+      // Run native or exported network on reused input buffer.
+      if (metamorphMLP != null)
+      {
+         flattenMorphognostic(morphognostic, metamorphNNinput);
+         return(metamorphMLP.classify(metamorphNNinput));
+      }
+
       Metamorph metamorph = new Metamorph(morphognostic, 0);
       int       response  = 0;
 
@@ -712,10 +873,7 @@ public class ForagerMox
          // Classify.
          Instance instance        = createInstance(metamorphInstances, metamorph);
          int      predictionIndex = (int)metamorphNN.classifyInstance(instance);
-
-         // Get the predicted class label from the predictionIndex.
-         String predictedClassLabel = metamorphInstances.classAttribute().value(predictionIndex);
-         response = Integer.parseInt(predictedClassLabel);
+         response = predictionIndex;
 
          // Get the prediction probability distribution.
          //double[] predictionDistribution = metamorphNN.distributionForInstance(instance);
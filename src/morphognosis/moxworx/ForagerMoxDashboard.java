@@ -262,7 +262,7 @@ public class ForagerMoxDashboard extends JFrame
             {
                try
                {
-                  mox.createMetamorphNN();
+                  mox.updateMetamorphNN();
                }
                catch (Exception e)
                {
@@ -0,0 +1,213 @@
+// For conditions of distribution and use, see copyright notice in MoxWorx.java
+
+// Headless frame exporter.
+// The simulation thread captures frames into a small pool, and a background
+// thread writes them out, so exporting never paints on the simulation thread.
+// Frames go to a compact binary log, with moxen every step and cells every
+// interval of steps, or to a PNG image every interval of steps. Only the PNG
+// writer uses AWT, and it is loaded only when PNG frames are exported.
+
+package morphognosis.moxworx;
+
+import java.io.IOException;
+import java.util.concurrent.ArrayBlockingQueue;
+
+public class FrameExporter implements Runnable
+{
+   // Worlds.
+   public static final int FORAGE = 0;
+   public static final int NEST   = 1;
+
+   // Default frame interval in steps.
+   public static final int DEFAULT_INTERVAL = 10;
+
+   // Frames in pool.
+   public static final int POOL_SIZE = 8;
+
+   // Frame: step, cells if captured, and moxen.
+   // Cells are indexed by x * height + y. Forage cells hold cell values; nest
+   // cells hold elevation * NestCells.NUM_STONE_VALUES + stone. The mox flag
+   // is set for a nesting mox carrying a stone.
+   public static class Frame
+   {
+      public int       steps;
+      public boolean   hasCells;
+      public int       width;
+      public int       height;
+      public short[]   cells;
+      public int       numMoxen;
+      public int[]     moxX;
+      public int[]     moxY;
+      public int[]     moxDirection;
+      public boolean[] moxFlag;
+
+      // Size frame for world.
+      public void setSize(int width, int height, int numMoxen)
+      {
+         this.width    = width;
+         this.height   = height;
+         this.numMoxen = numMoxen;
+         if ((cells == null) || (cells.length != (width * height)))
+         {
+            cells = new short[width * height];
+         }
+         if ((moxX == null) || (moxX.length < numMoxen))
+         {
+            moxX         = new int[numMoxen];
+            moxY         = new int[numMoxen];
+            moxDirection = new int[numMoxen];
+            moxFlag      = new boolean[numMoxen];
+         }
+      }
+   }
+
+   // Frame writer.
+   public interface Writer
+   {
+      // Write frame.
+      void write(Frame frame) throws IOException;
+
+      // Close.
+      void close() throws IOException;
+   }
+
+   // Writer and frame interval.
+   Writer  writer;
+   int     interval;
+   boolean trajectory;
+
+   // Free and captured frames.
+   ArrayBlockingQueue<Frame> free;
+   ArrayBlockingQueue<Frame> captured;
+
+   // End of frames.
+   static final Frame END = new Frame();
+
+   // Writer thread and error.
+   Thread      thread;
+   IOException error;
+
+   // Constructor.
+   // Frames with only moxen are written every step if trajectory is set.
+   public FrameExporter(Writer writer, int interval, boolean trajectory)
+   {
+      this.writer     = writer;
+      this.interval   = Math.max(1, interval);
+      this.trajectory = trajectory;
+      free            = new ArrayBlockingQueue<Frame>(POOL_SIZE);
+      captured        = new ArrayBlockingQueue<Frame>(POOL_SIZE + 1);
+      for (int i = 0; i < POOL_SIZE; i++)
+      {
+         free.add(new Frame());
+      }
+      thread = new Thread(this, "FrameExporter");
+      thread.setDaemon(true);
+      thread.start();
+   }
+
+
+   // Open binary frame log.
+   public static FrameExporter openLog(String filename, int world, int interval) throws IOException
+   {
+      return(new FrameExporter(new FrameLogWriter(filename, world, interval), interval, true));
+   }
+
+
+   // Open PNG frame directory.
+   public static FrameExporter openPNG(String directory, int world, int interval) throws IOException
+   {
+      return(new FrameExporter(new PNGFrameWriter(directory, world), interval, false));
+   }
+
+
+   // Frame due at step?
+   public boolean isDue(int steps)
+   {
+      return(trajectory || ((steps % interval) == 0));
+   }
+
+
+   // Take free frame for step, to be captured and put back.
+   // Waits while the writer is behind.
+   public Frame take(int steps)
+   {
+      Frame frame;
+
+      try
+      {
+         frame = free.take();
+      }
+      catch (InterruptedException e)
+      {
+         throw new RuntimeException("Cannot export frame: interrupted", e);
+      }
+      frame.steps    = steps;
+      frame.hasCells = ((steps % interval) == 0);
+      return(frame);
+   }
+
+
+   // Put captured frame for writing.
+   public void put(Frame frame)
+   {
+      captured.add(frame);
+   }
+
+
+   // Write frames.
+   public void run()
+   {
+      Frame frame;
+
+      while (true)
+      {
+         try
+         {
+            frame = captured.take();
+         }
+         catch (InterruptedException e) {
+            break;
+         }
+         if (frame == END) { break; }
+         if (error == null)
+         {
+            try
+            {
+               writer.write(frame);
+            }
+            catch (IOException e)
+            {
+               error = e;
+            }
+         }
+         free.add(frame);
+      }
+   }
+
+
+   // Write remaining frames and close.
+   public void close() throws IOException
+   {
+      captured.add(END);
+      try
+      {
+         thread.join();
+      }
+      catch (InterruptedException e)
+      {
+         throw new IOException("Interrupted writing frames");
+      }
+      try
+      {
+         writer.close();
+      }
+      catch (IOException e)
+      {
+         if (error == null) { error = e; }
+      }
+      if (error != null)
+      {
+         throw error;
+      }
+   }
+}
@@ -0,0 +1,88 @@
+// For conditions of distribution and use, see copyright notice in MoxWorx.java
+
+// Binary frame log writer.
+// The log is a gzipped stream: a header with the magic number, version,
+// world, grid size and frame interval, then a record per frame: step,
+// cells flag, mox count, moxen as x, y, direction and flag, and if flagged,
+// a short per cell in x * height + y order.
+
+package morphognosis.moxworx;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.zip.GZIPOutputStream;
+
+public class FrameLogWriter implements FrameExporter.Writer
+{
+   // Frame log magic number ("MOXF") and format version.
+   public static final int MAGIC   = 0x4d4f5846;
+   public static final int VERSION = 1;
+
+   // Output.
+   String           filename;
+   int              world;
+   int              interval;
+   DataOutputStream writer;
+   boolean          headerWritten;
+
+   // Constructor.
+   public FrameLogWriter(String filename, int world, int interval) throws IOException
+   {
+      this.filename = filename;
+      this.world    = world;
+      this.interval = interval;
+      headerWritten = false;
+      try
+      {
+         writer = new DataOutputStream(new BufferedOutputStream(
+                                          new GZIPOutputStream(new FileOutputStream(new File(filename)), 1 << 16)));
+      }
+      catch (Exception e)
+      {
+         throw new IOException("Cannot open frame log " + filename + ":" + e.getMessage());
+      }
+   }
+
+
+   // Write frame, preceded by header if first.
+   public void write(FrameExporter.Frame frame) throws IOException
+   {
+      if (!headerWritten)
+      {
+         writer.writeInt(MAGIC);
+         writer.writeInt(VERSION);
+         writer.writeInt(world);
+         writer.writeInt(frame.width);
+         writer.writeInt(frame.height);
+         writer.writeInt(interval);
+         headerWritten = true;
+      }
+      writer.writeInt(frame.steps);
+      writer.writeBoolean(frame.hasCells);
+      writer.writeShort(frame.numMoxen);
+      for (int i = 0; i < frame.numMoxen; i++)
+      {
+         writer.writeShort(frame.moxX[i]);
+         writer.writeShort(frame.moxY[i]);
+         writer.writeByte(frame.moxDirection[i]);
+         writer.writeBoolean(frame.moxFlag[i]);
+      }
+      if (frame.hasCells)
+      {
+         for (int i = 0, j = frame.width * frame.height; i < j; i++)
+         {
+            writer.writeShort(frame.cells[i]);
+         }
+      }
+   }
+
+
+   // Close.
+   public void close() throws IOException
+   {
+      writer.close();
+   }
+}
@@ -19,8 +19,8 @@ public class Gene
    float randomMutationRate;
 
    // Random numbers.
-   int    randomSeed;
-   Random randomizer;
+   int        randomSeed;
+   FastRandom randomizer;
 
    // Value types.
    enum VALUE_TYPE
@@ -46,7 +46,7 @@ public class Gene
       this.mutationRate       = mutationRate;
       this.randomMutationRate = randomMutationRate;
       this.randomSeed         = randomSeed;
-      randomizer              = new Random(randomSeed);
+      randomizer              = new FastRandom(randomSeed);
    }
 
 
@@ -65,7 +65,7 @@ public class Gene
       this.mutationRate       = mutationRate;
       this.randomMutationRate = randomMutationRate;
       this.randomSeed         = randomSeed;
-      randomizer              = new Random(randomSeed);
+      randomizer              = new FastRandom(randomSeed);
    }
 
 
@@ -84,7 +84,7 @@ public class Gene
       this.mutationRate       = mutationRate;
       this.randomMutationRate = randomMutationRate;
       this.randomSeed         = randomSeed;
-      randomizer              = new Random(randomSeed);
+      randomizer              = new FastRandom(randomSeed);
    }
 
 
@@ -103,7 +103,7 @@ public class Gene
       this.mutationRate       = mutationRate;
       this.randomMutationRate = randomMutationRate;
       this.randomSeed         = randomSeed;
-      randomizer              = new Random(randomSeed);
+      randomizer              = new FastRandom(randomSeed);
    }
 
 
@@ -264,6 +264,23 @@ public class Gene
    }
 
 
+   // Get value as string.
+   String getValueString()
+   {
+      switch (type)
+      {
+      case INTEGER_VALUE:
+         return(Integer.toString(ivalue));
+
+      case FLOAT_VALUE:
+         return(Float.toString(fvalue));
+
+      default:
+         return(Double.toString(dvalue));
+      }
+   }
+
+
    // Print gene.
    void print()
    {
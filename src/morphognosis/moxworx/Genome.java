@@ -19,8 +19,8 @@ public class Genome
    float randomMutationRate;
 
    // Random numbers.
-   int    randomSeed;
-   Random randomizer;
+   int        randomSeed;
+   FastRandom randomizer;
 
    // Constructor.
    Genome(float mutationRate, float randomMutationRate, int randomSeed)
@@ -28,7 +28,7 @@ public class Genome
       this.mutationRate       = mutationRate;
       this.randomMutationRate = randomMutationRate;
       this.randomSeed         = randomSeed;
-      randomizer = new Random(randomSeed);
+      randomizer = new FastRandom(randomSeed);
       genes      = new Vector<Gene>();
    }
 
@@ -105,6 +105,26 @@ public class Genome
    }
 
 
+   // Get genome values as a string key.
+   String getValuesKey()
+   {
+      Gene gene;
+
+      StringBuffer key = new StringBuffer();
+
+      for (int i = 0; i < genes.size(); i++)
+      {
+         gene = genes.get(i);
+         if (i > 0)
+         {
+            key.append(",");
+         }
+         key.append(gene.name + "=" + gene.getValueString());
+      }
+      return(key.toString());
+   }
+
+
    // Load values.
    void loadValues(DataInputStream reader) throws IOException
    {
@@ -0,0 +1,27 @@
+// For conditions of distribution and use, see copyright notice in MoxWorx.java
+
+// Cell grid size.
+// Used instead of java.awt.Dimension by the cell grids, since initializing
+// that class loads the AWT toolkit and native library even in batch runs.
+
+package morphognosis.moxworx;
+
+public class GridSize
+{
+   // Dimensions.
+   public int width;
+   public int height;
+
+   // Constructors.
+   public GridSize(int width, int height)
+   {
+      this.width  = width;
+      this.height = height;
+   }
+
+
+   public GridSize()
+   {
+      width = height = 0;
+   }
+}
@@ -0,0 +1,61 @@
+// For conditions of distribution and use, see copyright notice in MoxWorx.java
+
+// Mox landmark map.
+// Marks are stamped with the current epoch in a flat array, so clearing
+// the map only advances the epoch.
+
+package morphognosis.moxworx;
+
+import java.util.Arrays;
+
+public class LandmarkMap
+{
+   // Dimensions.
+   public int width, height;
+
+   // Cell stamps: marked if equal to epoch.
+   int[] stamps;
+   int   epoch;
+
+   // Constructor.
+   public LandmarkMap(int width, int height)
+   {
+      this.width  = width;
+      this.height = height;
+      stamps      = new int[width * height];
+      epoch       = 1;
+   }
+
+
+   // Is cell marked?
+   public boolean get(int x, int y)
+   {
+      return(stamps[(x * height) + y] == epoch);
+   }
+
+
+   // Mark or unmark cell.
+   public void set(int x, int y, boolean mark)
+   {
+      if (mark)
+      {
+         stamps[(x * height) + y] = epoch;
+      }
+      else
+      {
+         stamps[(x * height) + y] = 0;
+      }
+   }
+
+
+   // Clear map.
+   public void clear()
+   {
+      epoch++;
+      if (epoch == Integer.MAX_VALUE)
+      {
+         Arrays.fill(stamps, 0);
+         epoch = 1;
+      }
+   }
+}
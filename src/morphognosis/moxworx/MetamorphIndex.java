@@ -0,0 +1,388 @@
+// For conditions of distribution and use, see copyright notice in MoxWorx.java
+
+// Metamorph nearest neighbor index.
+// A vantage-point tree over rectified morphognostic sector type densities,
+// using the same L1 distance, accumulated in the same order, as
+// Morphognostic.compare, so lookups match a linear scan of the metamorphs.
+// Metamorphs are also hashed by content for duplicate checks.
+
+package morphognosis.moxworx;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+
+import morphognosis.Metamorph;
+import morphognosis.Morphognostic;
+
+public class MetamorphIndex
+{
+   // Leaf bucket size.
+   public static final int LEAF_SIZE = 8;
+
+   // Unindexed metamorphs are scanned until they exceed this quantity
+   // and a quarter of the tree size, then the tree is rebuilt.
+   public static final int REBUILD_THRESHOLD = 64;
+
+   // Pruning slack for float rounding in the triangle inequality.
+   public static final float PRUNE_SLACK = 0.0001f;
+
+   // Indexed metamorphs.
+   ArrayList<Metamorph> metamorphs;
+
+   // Metamorph features and neighborhood offsets within them.
+   ArrayList<float[]> features;
+   int[] neighborhoodOffsets;
+
+   // Metamorph indexes by content hash.
+   HashMap<Integer, ArrayList<Integer> > contents;
+
+   // Tree nodes.
+   // Leaf nodes have a negative inside child and hold the order range [begin, end).
+   int   treeSize;
+   int[] order;
+   int   numNodes;
+   int[] nodePoint;
+   int[] nodeInside;
+   int[] nodeOutside;
+   int[] nodeBegin;
+   int[] nodeEnd;
+   float[] nodeInsideMax;
+   float[] nodeOutsideMin;
+
+   // Search state.
+   float[] query;
+   float   nearestDist;
+   int[]   ties;
+   int     numTies;
+   ArrayList<Metamorph> nearest;
+
+   // Constructor.
+   public MetamorphIndex(ArrayList<Metamorph> metamorphs)
+   {
+      this.metamorphs = metamorphs;
+      features        = new ArrayList<float[]>();
+      contents        = new HashMap<Integer, ArrayList<Integer> >();
+      ties            = new int[LEAF_SIZE];
+      nearest         = new ArrayList<Metamorph>();
+      clear();
+   }
+
+
+   // Clear index.
+   public void clear()
+   {
+      features.clear();
+      contents.clear();
+      neighborhoodOffsets = null;
+      treeSize            = 0;
+      numNodes            = 0;
+   }
+
+
+   // Index metamorphs added to the list since the last search.
+   void sync()
+   {
+      int n = metamorphs.size();
+
+      if (n < features.size())
+      {
+         clear();
+      }
+      for (int i = features.size(); i < n; i++)
+      {
+         Metamorph m = metamorphs.get(i);
+         float[]   f = getFeatures(m.morphognostic);
+         features.add(f);
+         addContent(i, f, m.response);
+      }
+      int pending = n - treeSize;
+      if ((pending > REBUILD_THRESHOLD) && ((pending * 4) > treeSize))
+      {
+         build();
+      }
+   }
+
+
+   // Get rectified sector type densities of morphognostic.
+   float[] getFeatures(Morphognostic morphognostic)
+   {
+      int numNeighborhoods = morphognostic.NUM_NEIGHBORHOODS;
+
+      if (neighborhoodOffsets == null)
+      {
+         neighborhoodOffsets = new int[numNeighborhoods + 1];
+         int n = 0;
+         for (int i = 0; i < numNeighborhoods; i++)
+         {
+            neighborhoodOffsets[i] = n;
+            int s = morphognostic.neighborhoods.get(i).sectors.length;
+            for (int d = 0; d < morphognostic.eventDimensions; d++)
+            {
+               n += s * s * morphognostic.numEventTypes[d];
+            }
+         }
+         neighborhoodOffsets[numNeighborhoods] = n;
+      }
+      float[] f = new float[neighborhoodOffsets[numNeighborhoods]];
+      int     k = 0;
+      for (int i = 0; i < numNeighborhoods; i++)
+      {
+         float[][][] densities = morphognostic.neighborhoods.get(i).rectifySectorTypeDensities();
+         for (int s = 0; s < densities.length; s++)
+         {
+            for (int d = 0; d < morphognostic.eventDimensions; d++)
+            {
+               for (int j = 0; j < morphognostic.numEventTypes[d]; j++)
+               {
+                  f[k] = densities[s][d][j];
+                  k++;
+               }
+            }
+         }
+      }
+      return(f);
+   }
+
+
+   // Hash features and response.
+   // Negative zero hashes as zero, since they compare equal.
+   int hashContent(float[] f, int response)
+   {
+      int h = response;
+
+      for (int i = 0; i < f.length; i++)
+      {
+         h = (h * 31) + Float.floatToIntBits(f[i] + 0.0f);
+      }
+      return(h);
+   }
+
+
+   // Add metamorph content hash.
+   void addContent(int index, float[] f, int response)
+   {
+      Integer            h = hashContent(f, response);
+      ArrayList<Integer> b = contents.get(h);
+
+      if (b == null)
+      {
+         b = new ArrayList<Integer>(1);
+         contents.put(h, b);
+      }
+      b.add(index);
+   }
+
+
+   // Add metamorph for morphognostic and response unless an equal one exists.
+   // The morphognostic is cloned only when added.
+   // Returns true if added.
+   public boolean add(Morphognostic morphognostic, int response)
+   {
+      sync();
+      float[] f = getFeatures(morphognostic);
+      ArrayList<Integer> b = contents.get(hashContent(f, response));
+      if (b != null)
+      {
+         for (int i : b)
+         {
+            if ((metamorphs.get(i).response == response) && sameFeatures(features.get(i), f))
+            {
+               return(false);
+            }
+         }
+      }
+      int index = metamorphs.size();
+      metamorphs.add(new Metamorph(morphognostic.clone(), response));
+      features.add(f);
+      addContent(index, f, response);
+      return(true);
+   }
+
+
+   // Features equal, as for a zero Morphognostic.compare distance?
+   boolean sameFeatures(float[] a, float[] b)
+   {
+      for (int i = 0; i < a.length; i++)
+      {
+         if (a[i] != b[i]) { return(false); }
+      }
+      return(true);
+   }
+
+
+   // Feature distance.
+   // Sums by neighborhood as Morphognostic.compare does.
+   float distance(float[] a, float[] b)
+   {
+      float dist = 0.0f;
+
+      for (int i = 0, n = neighborhoodOffsets.length - 1; i < n; i++)
+      {
+         float d = 0.0f;
+         for (int j = neighborhoodOffsets[i], k = neighborhoodOffsets[i + 1]; j < k; j++)
+         {
+            d += Math.abs(a[j] - b[j]);
+         }
+         dist += d;
+      }
+      return(dist);
+   }
+
+
+   // Build tree over all indexed metamorphs.
+   void build()
+   {
+      treeSize = features.size();
+      order    = new int[treeSize];
+      for (int i = 0; i < treeSize; i++)
+      {
+         order[i] = i;
+      }
+      // Every node holds at least one metamorph.
+      int maxNodes   = treeSize;
+      nodePoint      = new int[maxNodes];
+      nodeInside     = new int[maxNodes];
+      nodeOutside    = new int[maxNodes];
+      nodeBegin      = new int[maxNodes];
+      nodeEnd        = new int[maxNodes];
+      nodeInsideMax  = new float[maxNodes];
+      nodeOutsideMin = new float[maxNodes];
+      numNodes       = 0;
+      if (treeSize > 0)
+      {
+         build(0, treeSize, new long[treeSize]);
+      }
+   }
+
+
+   // Build node over order range.
+   int build(int begin, int end, long[] keys)
+   {
+      int node = numNodes;
+
+      numNodes++;
+      nodeBegin[node] = begin;
+      nodeEnd[node]   = end;
+      if ((end - begin) <= LEAF_SIZE)
+      {
+         nodeInside[node]  = -1;
+         nodeOutside[node] = -1;
+         return(node);
+      }
+
+      // Vantage point is the middle of the range; sort the rest by distance to it.
+      int mid = begin + (end - begin) / 2;
+      int p   = order[mid];
+      order[mid]      = order[begin];
+      order[begin]    = p;
+      nodePoint[node] = p;
+      float[] v = features.get(p);
+      int     n = 0;
+      for (int i = begin + 1; i < end; i++, n++)
+      {
+         // Non-negative float bits sort in float order.
+         keys[n] = ((long)Float.floatToIntBits(distance(v, features.get(order[i]))) << 32) | order[i];
+      }
+      Arrays.sort(keys, 0, n);
+      for (int i = 0; i < n; i++)
+      {
+         order[begin + 1 + i] = (int)(keys[i] & 0xffffffffL);
+      }
+      int split = n / 2;
+      nodeInsideMax[node]  = Float.intBitsToFloat((int)(keys[split - 1] >>> 32));
+      nodeOutsideMin[node] = Float.intBitsToFloat((int)(keys[split] >>> 32));
+      nodeInside[node]     = build(begin + 1, begin + 1 + split, keys);
+      nodeOutside[node]    = build(begin + 1 + split, end, keys);
+      return(node);
+   }
+
+
+   // Find metamorphs nearest to morphognostic.
+   // Returns all metamorphs at the minimum distance, in list order.
+   public ArrayList<Metamorph> nearest(Morphognostic morphognostic)
+   {
+      nearest.clear();
+      sync();
+      int n = features.size();
+      if (n == 0)
+      {
+         return(nearest);
+      }
+      query       = getFeatures(morphognostic);
+      nearestDist = -1.0f;
+      numTies     = 0;
+      if (numNodes > 0)
+      {
+         search(0);
+      }
+      for (int i = treeSize; i < n; i++)
+      {
+         visit(i);
+      }
+      Arrays.sort(ties, 0, numTies);
+      for (int i = 0; i < numTies; i++)
+      {
+         nearest.add(metamorphs.get(ties[i]));
+      }
+      return(nearest);
+   }
+
+
+   // Search node.
+   void search(int node)
+   {
+      if (nodeInside[node] == -1)
+      {
+         for (int i = nodeBegin[node], j = nodeEnd[node]; i < j; i++)
+         {
+            visit(order[i]);
+         }
+         return;
+      }
+      float d = visit(nodePoint[node]);
+      float insideBound  = d - nodeInsideMax[node];
+      float outsideBound = nodeOutsideMin[node] - d;
+      if (insideBound < outsideBound)
+      {
+         if (!prune(insideBound, d)) { search(nodeInside[node]); }
+         if (!prune(outsideBound, d)) { search(nodeOutside[node]); }
+      }
+      else
+      {
+         if (!prune(outsideBound, d)) { search(nodeOutside[node]); }
+         if (!prune(insideBound, d)) { search(nodeInside[node]); }
+      }
+   }
+
+
+   // Can subtree with given distance lower bound be pruned?
+   boolean prune(float bound, float d)
+   {
+      return(bound > (nearestDist + PRUNE_SLACK * (1.0f + d + nearestDist)));
+   }
+
+
+   // Visit metamorph and return its distance.
+   float visit(int index)
+   {
+      float d = distance(query, features.get(index));
+
+      if ((numTies == 0) || (d < nearestDist))
+      {
+         nearestDist = d;
+         ties[0]     = index;
+         numTies     = 1;
+      }
+      else if (d == nearestDist)
+      {
+         if (numTies == ties.length)
+         {
+            ties = Arrays.copyOf(ties, numTies * 2);
+         }
+         ties[numTies] = index;
+         numTies++;
+      }
+      return(d);
+   }
+}
@@ -0,0 +1,562 @@
+// For conditions of distribution and use, see copyright notice in MoxWorx.java
+
+// Metamorph multilayer perceptron on primitive arrays.
+// One sigmoid hidden layer and sigmoid outputs, one per class.
+// The network is either trained natively or exported from a trained Weka
+// perceptron. Classification runs the forward pass into reused buffers,
+// so it allocates nothing per call.
+
+package morphognosis.moxworx;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import weka.classifiers.functions.MultilayerPerceptron;
+import weka.core.Attribute;
+import weka.core.Instances;
+
+public class MetamorphMLP
+{
+   // Training parameters, as for the Weka perceptron: -L 0.1 -M 0.2 -N 2000 -H 20
+   public static final double LEARNING_RATE = 0.1;
+   public static final double MOMENTUM      = 0.2;
+   public static final int    HIDDEN_UNITS  = 20;
+   public static final int    RANDOM_SEED   = 0;
+
+   // Mini-batch size, and shard size for gradient computation.
+   // Shards are summed in order, so results do not depend on thread count.
+   public static final int BATCH_SIZE = 32;
+   public static final int SHARD_SIZE = 8;
+
+   // Training threads.
+   // Batch shards take microseconds, so threads only pay for their dispatch
+   // on batches of at least PARALLEL_MIN_WORK multiply-adds per layer pass.
+   public static final int PARALLEL_MIN_WORK = 1 << 20;
+   public int              threads           = 1;
+
+   // Dimensions.
+   public int numInputs;
+   public int numHidden;
+   public int numOutputs;
+
+   // Input normalization: (value - base) / range.
+   double[] inputBases;
+   double[] inputRanges;
+
+   // Weights: per unit, threshold followed by input weights.
+   double[] hiddenWeights;
+   double[] outputWeights;
+
+   // Forward pass buffers.
+   double[] inputs;
+   double[] hidden;
+   double[] outputs;
+
+   // Constructor.
+   public MetamorphMLP(int numInputs, int numHidden, int numOutputs)
+   {
+      this.numInputs  = numInputs;
+      this.numHidden  = numHidden;
+      this.numOutputs = numOutputs;
+      inputBases      = new double[numInputs];
+      inputRanges     = new double[numInputs];
+      for (int i = 0; i < numInputs; i++)
+      {
+         inputRanges[i] = 1.0;
+      }
+      hiddenWeights = new double[numHidden * (numInputs + 1)];
+      outputWeights = new double[numOutputs * (numHidden + 1)];
+      inputs        = new double[numInputs];
+      hidden        = new double[numHidden];
+      outputs       = new double[numOutputs];
+   }
+
+
+   // Classify input values: return index of maximum output.
+   public int classify(float[] values)
+   {
+      forward(values, inputs, hidden, outputs);
+      int c = 0;
+      for (int i = 1; i < numOutputs; i++)
+      {
+         if (outputs[i] > outputs[c])
+         {
+            c = i;
+         }
+      }
+      return(c);
+   }
+
+
+   // Forward pass into given buffers.
+   void forward(float[] values, double[] inputs, double[] hidden, double[] outputs)
+   {
+      for (int i = 0; i < numInputs; i++)
+      {
+         inputs[i] = (values[i] - inputBases[i]) / inputRanges[i];
+      }
+      for (int h = 0, w = 0; h < numHidden; h++)
+      {
+         double sum = hiddenWeights[w++];
+         for (int i = 0; i < numInputs; i++)
+         {
+            sum += hiddenWeights[w++] * inputs[i];
+         }
+         hidden[h] = sigmoid(sum);
+      }
+      for (int o = 0, w = 0; o < numOutputs; o++)
+      {
+         double sum = outputWeights[w++];
+         for (int h = 0; h < numHidden; h++)
+         {
+            sum += outputWeights[w++] * hidden[h];
+         }
+         outputs[o] = sigmoid(sum);
+      }
+   }
+
+
+   // Sigmoid, saturated as in Weka.
+   static double sigmoid(double x)
+   {
+      if (x < -45.0)
+      {
+         return(0.0);
+      }
+      if (x > 45.0)
+      {
+         return(1.0);
+      }
+      return(1.0 / (1.0 + Math.exp(-x)));
+   }
+
+
+   // Randomize weights in [-0.05,0.05], as Weka does.
+   public void randomize(Random random)
+   {
+      for (int i = 0; i < hiddenWeights.length; i++)
+      {
+         hiddenWeights[i] = (random.nextDouble() * 0.1) - 0.05;
+      }
+      for (int i = 0; i < outputWeights.length; i++)
+      {
+         outputWeights[i] = (random.nextDouble() * 0.1) - 0.05;
+      }
+   }
+
+
+   // Train on input values and classes, continuing from current weights.
+   // Each epoch visits the samples in shuffled order in mini-batches.
+   // Squared output error is backpropagated with target 1 for the sample
+   // class and 0 otherwise. Gradients are summed over a batch, so a batch
+   // step has the size of the per-sample steps Weka takes.
+   public void train(float[][] values, int[] classes, int epochs,
+                     double learningRate, double momentum, Random random)
+   {
+      final int n = values.length;
+
+      if (n == 0)
+      {
+         return;
+      }
+      int numShards = (Math.min(BATCH_SIZE, n) + SHARD_SIZE - 1) / SHARD_SIZE;
+      int[]   order = new int[n];
+      Shard[] shards = new Shard[numShards];
+      for (int i = 0; i < n; i++)
+      {
+         order[i] = i;
+      }
+      for (int i = 0; i < numShards; i++)
+      {
+         shards[i] = new Shard(values, classes, order);
+      }
+      double[] hiddenChanges = new double[hiddenWeights.length];
+      double[] outputChanges = new double[outputWeights.length];
+
+      // Shards are computed concurrently when there are threads to spare
+      // and batches are large enough to pay for dispatch.
+      ExecutorService pool = null;
+      if ((threads > 1) && (numShards > 1) &&
+          ((long)Math.min(BATCH_SIZE, n) * (numInputs + 1) * numHidden >= PARALLEL_MIN_WORK))
+      {
+         pool = Executors.newFixedThreadPool(Math.min(threads, numShards), new ThreadFactory()
+                                             {
+                                                public Thread newThread(Runnable r)
+                                                {
+                                                   Thread thread = new Thread(r);
+                                                   thread.setDaemon(true);
+                                                   return(thread);
+                                                }
+                                             }
+                                             );
+      }
+      ArrayList<Callable<Object> > tasks = new ArrayList<Callable<Object> >();
+      try
+      {
+         for (int epoch = 0; epoch < epochs; epoch++)
+         {
+            for (int i = n - 1; i > 0; i--)
+            {
+               int j = random.nextInt(i + 1);
+               int k = order[i];
+               order[i] = order[j];
+               order[j] = k;
+            }
+            for (int begin = 0; begin < n; begin += BATCH_SIZE)
+            {
+               int end = Math.min(begin + BATCH_SIZE, n);
+               int m   = (end - begin + SHARD_SIZE - 1) / SHARD_SIZE;
+               tasks.clear();
+               for (int s = 0; s < m; s++)
+               {
+                  shards[s].begin = begin + (s * SHARD_SIZE);
+                  shards[s].end   = Math.min(shards[s].begin + SHARD_SIZE, end);
+                  tasks.add(Executors.callable(shards[s]));
+               }
+               if ((pool != null) && (m > 1))
+               {
+                  for (Future<Object> result : pool.invokeAll(tasks))
+                  {
+                     result.get();
+                  }
+               }
+               else
+               {
+                  for (int s = 0; s < m; s++)
+                  {
+                     shards[s].run();
+                  }
+               }
+
+               // Step weights by summed shard gradients.
+               step(hiddenWeights, hiddenChanges, shards, m, true, learningRate, momentum);
+               step(outputWeights, outputChanges, shards, m, false, learningRate, momentum);
+            }
+         }
+      }
+      catch (Exception e)
+      {
+         throw new RuntimeException("Cannot train metamorph MLP: " + e.getMessage(), e);
+      }
+      finally
+      {
+         if (pool != null)
+         {
+            pool.shutdown();
+         }
+      }
+   }
+
+
+   // Step weights with momentum.
+   void step(double[] weights, double[] changes, Shard[] shards, int numShards,
+             boolean hiddenLayer, double learningRate, double momentum)
+   {
+      for (int i = 0; i < weights.length; i++)
+      {
+         double gradient = 0.0;
+         for (int s = 0; s < numShards; s++)
+         {
+            gradient += hiddenLayer ? shards[s].hiddenGradients[i] : shards[s].outputGradients[i];
+         }
+         double change = (learningRate * gradient) + (momentum * changes[i]);
+         weights[i] += change;
+         changes[i]  = change;
+      }
+   }
+
+
+   // Training shard: gradients summed over a run of shuffled samples.
+   class Shard implements Runnable
+   {
+      float[][] values;
+      int[]     classes;
+      int[]     order;
+      int       begin, end;
+
+      // Gradients.
+      double[] hiddenGradients;
+      double[] outputGradients;
+
+      // Forward and backward pass buffers.
+      double[] inputs;
+      double[] hidden;
+      double[] outputs;
+      double[] hiddenDeltas;
+      double[] outputDeltas;
+
+      Shard(float[][] values, int[] classes, int[] order)
+      {
+         this.values     = values;
+         this.classes    = classes;
+         this.order      = order;
+         hiddenGradients = new double[hiddenWeights.length];
+         outputGradients = new double[outputWeights.length];
+         inputs          = new double[numInputs];
+         hidden          = new double[numHidden];
+         outputs         = new double[numOutputs];
+         hiddenDeltas    = new double[numHidden];
+         outputDeltas    = new double[numOutputs];
+      }
+
+
+      public void run()
+      {
+         Arrays.fill(hiddenGradients, 0.0);
+         Arrays.fill(outputGradients, 0.0);
+         for (int k = begin; k < end; k++)
+         {
+            int sample = order[k];
+            forward(values[sample], inputs, hidden, outputs);
+
+            // Output deltas.
+            for (int o = 0; o < numOutputs; o++)
+            {
+               double target = (o == classes[sample]) ? 1.0 : 0.0;
+               outputDeltas[o] = (target - outputs[o]) * outputs[o] * (1.0 - outputs[o]);
+            }
+
+            // Hidden deltas.
+            for (int h = 0; h < numHidden; h++)
+            {
+               double sum = 0.0;
+               for (int o = 0; o < numOutputs; o++)
+               {
+                  sum += outputDeltas[o] * outputWeights[(o * (numHidden + 1)) + 1 + h];
+               }
+               hiddenDeltas[h] = sum * hidden[h] * (1.0 - hidden[h]);
+            }
+
+            // Accumulate gradients.
+            for (int o = 0, w = 0; o < numOutputs; o++)
+            {
+               double delta = outputDeltas[o];
+               outputGradients[w++] += delta;
+               for (int h = 0; h < numHidden; h++)
+               {
+                  outputGradients[w++] += delta * hidden[h];
+               }
+            }
+            for (int h = 0, w = 0; h < numHidden; h++)
+            {
+               double delta = hiddenDeltas[h];
+               hiddenGradients[w++] += delta;
+               for (int i = 0; i < numInputs; i++)
+               {
+                  hiddenGradients[w++] += delta * inputs[i];
+               }
+            }
+         }
+      }
+   }
+
+
+   // Classification error rate on input values and classes.
+   public double errorRate(float[][] values, int[] classes)
+   {
+      if (values.length == 0)
+      {
+         return(0.0);
+      }
+      int errors = 0;
+      for (int i = 0; i < values.length; i++)
+      {
+         if (classify(values[i]) != classes[i])
+         {
+            errors++;
+         }
+      }
+      return((double)errors / (double)values.length);
+   }
+
+
+   // Set input normalization from training values: values are mapped onto
+   // [-1,1] by their training range.
+   public void setNormalization(float[][] values)
+   {
+      for (int i = 0; i < numInputs; i++)
+      {
+         double min = Double.POSITIVE_INFINITY;
+         double max = Double.NEGATIVE_INFINITY;
+         for (int j = 0; j < values.length; j++)
+         {
+            double v = values[j][i];
+            if (v < min) { min = v; }
+            if (v > max) { max = v; }
+         }
+         setNormalization(i, min, max);
+      }
+   }
+
+
+   // Set input normalization from its range.
+   void setNormalization(int i, double min, double max)
+   {
+      if (min > max)
+      {
+         min = max = 0.0;
+      }
+      inputBases[i]  = (max + min) / 2.0;
+      inputRanges[i] = (max - min) / 2.0;
+      if (inputRanges[i] == 0.0)
+      {
+         inputRanges[i] = 1.0;
+      }
+   }
+
+
+   // Set input normalization from training instances, as Weka does.
+   public void setNormalization(Instances instances)
+   {
+      for (int i = 0; i < numInputs; i++)
+      {
+         double min = Double.POSITIVE_INFINITY;
+         double max = Double.NEGATIVE_INFINITY;
+         for (int j = 0, n = instances.numInstances(); j < n; j++)
+         {
+            double v = instances.instance(j).value(i);
+            if (v < min) { min = v; }
+            if (v > max) { max = v; }
+         }
+         setNormalization(i, min, max);
+      }
+   }
+
+
+   // Export trained Weka perceptron weights.
+   // Instance attributes are the inputs followed by the nominal class.
+   // Weka keeps its network private, so weights are read from its model
+   // description. Returns null unless the network has one sigmoid hidden layer.
+   public static MetamorphMLP export(MultilayerPerceptron mlp, Instances instances)
+   {
+      HashMap<String, Unit> units = new HashMap<String, Unit>();
+      ArrayList<String> classUnits = new ArrayList<String>();
+      Unit unit = null;
+      boolean classInput = false;
+
+      for (String line : mlp.toString().split("\n"))
+      {
+         String[] tokens = line.trim().split("\\s+");
+         if (line.startsWith("Sigmoid Node ") && (tokens.length == 3))
+         {
+            unit = new Unit();
+            units.put(tokens[2], unit);
+            classInput = false;
+         }
+         else if (line.startsWith("Class ") || line.startsWith("Linear Node "))
+         {
+            if (line.startsWith("Linear Node "))
+            {
+               return(null);
+            }
+            unit = null;
+            classInput = true;
+         }
+         else if (classInput)
+         {
+            if (tokens[0].equals("Node") && (tokens.length == 2))
+            {
+               classUnits.add(tokens[1]);
+            }
+         }
+         else if (unit != null)
+         {
+            try
+            {
+               if (tokens[0].equals("Threshold") && (tokens.length == 2))
+               {
+                  unit.threshold = Double.parseDouble(tokens[1]);
+               }
+               else if (tokens[0].equals("Node") && (tokens.length == 3))
+               {
+                  unit.nodes.add(tokens[1]);
+                  unit.weights.add(Double.parseDouble(tokens[2]));
+               }
+               else if (tokens[0].equals("Attrib") && (tokens.length >= 3))
+               {
+                  String name = line.trim().substring(7, line.trim().lastIndexOf(tokens[tokens.length - 1])).trim();
+                  Attribute attribute = instances.attribute(name);
+                  if (attribute == null)
+                  {
+                     return(null);
+                  }
+                  unit.attributes.add(attribute.index());
+                  unit.weights.add(Double.parseDouble(tokens[tokens.length - 1]));
+               }
+            }
+            catch (NumberFormatException e)
+            {
+               return(null);
+            }
+         }
+      }
+
+      // Build layers.
+      int numInputs  = instances.numAttributes() - 1;
+      int numOutputs = instances.numClasses();
+      if ((classUnits.size() != numOutputs) || (numOutputs == 0))
+      {
+         return(null);
+      }
+      Unit first = units.get(classUnits.get(0));
+      if ((first == null) || (first.nodes.size() == 0) || (first.attributes.size() > 0))
+      {
+         return(null);
+      }
+      ArrayList<String> hiddenUnits = first.nodes;
+      int               numHidden   = hiddenUnits.size();
+      MetamorphMLP      network     = new MetamorphMLP(numInputs, numHidden, numOutputs);
+      for (int h = 0; h < numHidden; h++)
+      {
+         Unit u = units.get(hiddenUnits.get(h));
+         if ((u == null) || (u.nodes.size() > 0) || (u.attributes.size() != numInputs))
+         {
+            return(null);
+         }
+         int w = h * (numInputs + 1);
+         network.hiddenWeights[w] = u.threshold;
+         for (int i = 0; i < numInputs; i++)
+         {
+            int a = u.attributes.get(i);
+            if (a >= numInputs)
+            {
+               return(null);
+            }
+            network.hiddenWeights[w + 1 + a] = u.weights.get(i);
+         }
+      }
+      for (int o = 0; o < numOutputs; o++)
+      {
+         Unit u = units.get(classUnits.get(o));
+         if ((u == null) || !u.nodes.equals(hiddenUnits))
+         {
+            return(null);
+         }
+         int w = o * (numHidden + 1);
+         network.outputWeights[w] = u.threshold;
+         for (int h = 0; h < numHidden; h++)
+         {
+            network.outputWeights[w + 1 + h] = u.weights.get(h);
+         }
+      }
+      network.setNormalization(instances);
+      return(network);
+   }
+
+
+   // Exported unit: threshold and weighted inputs from nodes or attributes.
+   static class Unit
+   {
+      double             threshold;
+      ArrayList<String>  nodes      = new ArrayList<String>();
+      ArrayList<Integer> attributes = new ArrayList<Integer>();
+      ArrayList<Double>  weights    = new ArrayList<Double>();
+   }
+}
@@ -0,0 +1,162 @@
+// For conditions of distribution and use, see copyright notice in MoxWorx.java
+
+// Periodic step metrics log.
+// Every interval of steps, the registered mox metrics are merged and written
+// as CSV rows or a JSON line, then cleared, so each dump covers one interval.
+
+package morphognosis.moxworx;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+
+public class MetricsLog
+{
+   // Default dump interval in steps.
+   public static final int DEFAULT_INTERVAL = 100;
+
+   // Output.
+   PrintWriter writer;
+   boolean     json;
+   int         interval;
+
+   // Mox metrics.
+   ArrayList<StepMetrics> sources;
+
+   // Step times and merged metrics.
+   StepMetrics stepMetrics;
+   StepMetrics merged;
+
+   // Steps and start time.
+   int  steps;
+   long startTime;
+
+   // Constructor.
+   public MetricsLog(PrintWriter writer, boolean json, int interval)
+   {
+      this.writer   = writer;
+      this.json     = json;
+      this.interval = interval;
+      sources       = new ArrayList<StepMetrics>();
+      stepMetrics   = new StepMetrics();
+      merged        = new StepMetrics();
+      steps         = 0;
+      startTime     = System.nanoTime();
+      if (!json)
+      {
+         writer.println("step,elapsedMs,metric,count,totalNs,meanNs,p50Ns,p90Ns,p99Ns,maxNs");
+      }
+   }
+
+
+   // Open log file: JSON lines if named .json, else CSV.
+   public static MetricsLog open(String filename, int interval) throws IOException
+   {
+      PrintWriter writer;
+
+      try
+      {
+         writer = new PrintWriter(new FileOutputStream(new File(filename)));
+      }
+      catch (Exception e)
+      {
+         throw new IOException("Cannot open metrics file " + filename + ":" + e.getMessage());
+      }
+      return(new MetricsLog(writer, filename.endsWith(".json"), interval));
+   }
+
+
+   // Register metrics for a mox.
+   public StepMetrics register()
+   {
+      StepMetrics metrics = new StepMetrics();
+
+      sources.add(metrics);
+      return(metrics);
+   }
+
+
+   // Record step started at given time, dumping at intervals.
+   public void step(long start)
+   {
+      stepMetrics.record(StepMetrics.STEP, start);
+      steps++;
+      if ((steps % interval) == 0)
+      {
+         dump();
+      }
+   }
+
+
+   // Dump and clear metrics.
+   public void dump()
+   {
+      merged.clear();
+      merged.merge(stepMetrics);
+      for (StepMetrics metrics : sources)
+      {
+         merged.merge(metrics);
+         metrics.clear();
+      }
+      stepMetrics.clear();
+      long elapsed = (System.nanoTime() - startTime) / 1000000L;
+      if (json)
+      {
+         StringBuilder buffer = new StringBuilder();
+         buffer.append("{\"step\":").append(steps);
+         buffer.append(",\"elapsedMs\":").append(elapsed);
+         buffer.append(",\"phases\":{");
+         for (int i = 0; i < StepMetrics.NUM_PHASES; i++)
+         {
+            if (i > 0) { buffer.append(','); }
+            buffer.append('"').append(StepMetrics.PHASE_NAMES[i]).append("\":{");
+            buffer.append("\"count\":").append(merged.getCount(i));
+            buffer.append(",\"totalNs\":").append(merged.getTotal(i));
+            buffer.append(",\"meanNs\":").append(merged.getMean(i));
+            buffer.append(",\"p50Ns\":").append(merged.getQuantile(i, 0.5));
+            buffer.append(",\"p90Ns\":").append(merged.getQuantile(i, 0.9));
+            buffer.append(",\"p99Ns\":").append(merged.getQuantile(i, 0.99));
+            buffer.append(",\"maxNs\":").append(merged.getMaximum(i));
+            buffer.append('}');
+         }
+         buffer.append("},\"counters\":{");
+         for (int i = 0; i < StepMetrics.NUM_COUNTERS; i++)
+         {
+            if (i > 0) { buffer.append(','); }
+            buffer.append('"').append(StepMetrics.COUNTER_NAMES[i]).append("\":").append(merged.getCounter(i));
+         }
+         buffer.append("}}");
+         writer.println(buffer.toString());
+      }
+      else
+      {
+         for (int i = 0; i < StepMetrics.NUM_PHASES; i++)
+         {
+            writer.println(steps + "," + elapsed + "," + StepMetrics.PHASE_NAMES[i] + "," +
+                           merged.getCount(i) + "," + merged.getTotal(i) + "," +
+                           merged.getMean(i) + "," + merged.getQuantile(i, 0.5) + "," +
+                           merged.getQuantile(i, 0.9) + "," + merged.getQuantile(i, 0.99) + "," +
+                           merged.getMaximum(i));
+         }
+         for (int i = 0; i < StepMetrics.NUM_COUNTERS; i++)
+         {
+            writer.println(steps + "," + elapsed + "," + StepMetrics.COUNTER_NAMES[i] + "," +
+                           merged.getCounter(i) + ",,,,,,");
+         }
+      }
+      writer.flush();
+   }
+
+
+   // Dump remaining metrics and close.
+   public void close()
+   {
+      if ((steps % interval) != 0)
+      {
+         dump();
+      }
+      writer.close();
+   }
+}
@@ -0,0 +1,104 @@
+// For conditions of distribution and use, see copyright notice in MoxWorx.java
+
+// Toroidal neighbor table.
+// Neighbor coordinates are looked up instead of computed with a switch on
+// orientation and wrap checks: the neighbor of (x, y) toward an orientation
+// is (getX(x, orientation), getY(y, orientation)), and orientations turned
+// relative to a heading come from a turn table. The table for a grid size is
+// shared, and needs only width + height entries per axis, so large grids
+// cost no more than a few rows of cells.
+
+package morphognosis.moxworx;
+
+import morphognosis.Orientation;
+
+public class NeighborTable
+{
+   // Directions relative to orientation.
+   public static final int FORWARD        = 0;
+   public static final int RIGHT          = 1;
+   public static final int BACK           = 2;
+   public static final int LEFT           = 3;
+   public static final int NUM_DIRECTIONS = 4;
+
+   // Offsets by orientation: north, east, south, west.
+   static final int[] X_OFFSETS = { 0, 1, 0, -1 };
+   static final int[] Y_OFFSETS = { 1, 0, -1, 0 };
+
+   // Orientation turned toward relative direction, by orientation and direction.
+   static final int[] turns;
+   static
+   {
+      turns = new int[Orientation.NUM_ORIENTATIONS * NUM_DIRECTIONS];
+      for (int o = 0; o < Orientation.NUM_ORIENTATIONS; o++)
+      {
+         for (int d = 0; d < NUM_DIRECTIONS; d++)
+         {
+            turns[(o * NUM_DIRECTIONS) + d] = (o + d) % Orientation.NUM_ORIENTATIONS;
+         }
+      }
+   }
+
+   // Grid dimensions.
+   public final int width;
+   public final int height;
+
+   // Neighbor coordinates, indexed by orientation * dimension + coordinate.
+   final int[] neighborX;
+   final int[] neighborY;
+
+   // Most recently shared table.
+   static NeighborTable shared;
+
+   // Constructor.
+   public NeighborTable(int width, int height)
+   {
+      this.width  = width;
+      this.height = height;
+      neighborX   = new int[Orientation.NUM_ORIENTATIONS * width];
+      neighborY   = new int[Orientation.NUM_ORIENTATIONS * height];
+      for (int o = 0; o < Orientation.NUM_ORIENTATIONS; o++)
+      {
+         for (int x = 0; x < width; x++)
+         {
+            neighborX[(o * width) + x] = (x + X_OFFSETS[o] + width) % width;
+         }
+         for (int y = 0; y < height; y++)
+         {
+            neighborY[(o * height) + y] = (y + Y_OFFSETS[o] + height) % height;
+         }
+      }
+   }
+
+
+   // Get shared table for grid size.
+   public static synchronized NeighborTable get(int width, int height)
+   {
+      if ((shared == null) || (shared.width != width) || (shared.height != height))
+      {
+         shared = new NeighborTable(width, height);
+      }
+      return(shared);
+   }
+
+
+   // Get orientation turned toward direction relative to it.
+   public static int turn(int orientation, int direction)
+   {
+      return(turns[(orientation * NUM_DIRECTIONS) + direction]);
+   }
+
+
+   // Get neighbor x coordinate toward orientation.
+   public int getX(int x, int orientation)
+   {
+      return(neighborX[(orientation * width) + x]);
+   }
+
+
+   // Get neighbor y coordinate toward orientation.
+   public int getY(int y, int orientation)
+   {
+      return(neighborY[(orientation * height) + y]);
+   }
+}
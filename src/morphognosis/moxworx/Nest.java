@@ -4,22 +4,21 @@
 
 package morphognosis.moxworx;
 
-import java.awt.Dimension;
-import java.io.BufferedOutputStream;
-import java.io.DataInputStream;
-import java.io.DataOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
-import java.security.SecureRandom;
 import java.util.ArrayList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 import javax.swing.UIManager;
 
 import morphognosis.Morphognostic;
 import morphognosis.Orientation;
 import morphognosis.SectorDisplay;
-import morphognosis.Utility;
 
 public class Nest
 {
@@ -31,7 +30,10 @@ public class Nest
       "      -steps <steps> | -display\n" +
       "      -dimensions <width> <height>\n" +
       "     [-driver <metamorphDB | metamorphNN | autopilot> (mox driver: default=autopilot)]\n" +
+      "     [-nativeNN (train metamorph NN natively instead of with Weka)]\n" +
+      "     [-noNNevaluation (skip metamorph NN evaluation after training)]\n" +
       "     [-numStones <quantity> (default=0)]\n" +
+      "     [-numMoxen <quantity> (default=1)]\n" +
       "     [-maxElevation <quantity> (default=" + NestCells.MAX_ELEVATION_VALUE + ")]\n" +
       "     [-numNeighborhoods <quantity> (default=" + Morphognostic.DEFAULT_NUM_NEIGHBORHOODS + ")]\n" +
       "     [-neighborhoodInitialDimension <quantity> (default=" + Morphognostic.DEFAULT_NEIGHBORHOOD_INITIAL_DIMENSION + ")]\n" +
@@ -40,13 +42,29 @@ public class Nest
       "     [-epochIntervalStride <quantity> (default=" + Morphognostic.DEFAULT_EPOCH_INTERVAL_STRIDE + ")]\n" +
       "     [-epochIntervalMultiplier <quantity> (default=" + Morphognostic.DEFAULT_EPOCH_INTERVAL_MULTIPLIER + ")]\n" +
       "     [-randomSeed <random number seed>]\n" +
+      "     [-threads <mox stepping threads> (default=1)]\n" +
+      "     [-frameRate <display frames per second> (default=" + RenderLoop.DEFAULT_FRAME_RATE + ")]\n" +
+      "     [-stepsPerFrame <display fast-forward steps per frame> (default=1)]\n" +
+      "     [-metrics <metrics file name> (CSV, or JSON lines if named .json)]\n" +
+      "     [-metricsInterval <steps between metrics dumps> (default=" + MetricsLog.DEFAULT_INTERVAL + ")]\n" +
+      "     [-frameLog <frame log file name> | -pngFrames <frame image directory>]\n" +
+      "     [-frameInterval <steps between cell frames> (default=" + FrameExporter.DEFAULT_INTERVAL + ")]\n" +
       "     [-save <file name>]\n" +
       "  Resume run:\n" +
       "    java moxworx.Nest\n" +
       "      -steps <steps> | -display\n" +
       "      -load <file name>\n" +
       "     [-driver <metamorphDB | metamorphNN | autopilot> (default=autopilot)]\n" +
+      "     [-nativeNN (train metamorph NN natively instead of with Weka)]\n" +
+      "     [-noNNevaluation (skip metamorph NN evaluation after training)]\n" +
       "     [-randomSeed <random number seed>]\n" +
+      "     [-threads <mox stepping threads> (default=1)]\n" +
+      "     [-frameRate <display frames per second> (default=" + RenderLoop.DEFAULT_FRAME_RATE + ")]\n" +
+      "     [-stepsPerFrame <display fast-forward steps per frame> (default=1)]\n" +
+      "     [-metrics <metrics file name> (CSV, or JSON lines if named .json)]\n" +
+      "     [-metricsInterval <steps between metrics dumps> (default=" + MetricsLog.DEFAULT_INTERVAL + ")]\n" +
+      "     [-frameLog <frame log file name> | -pngFrames <frame image directory>]\n" +
+      "     [-frameInterval <steps between cell frames> (default=" + FrameExporter.DEFAULT_INTERVAL + ")]\n" +
       "     [-save <file name>]\n" +
       "Exit codes:\n" +
       "  0=success\n" +
@@ -66,15 +84,28 @@ public class Nest
    NestDisplay display;
 
    // Random numbers.
-   int          randomSeed;
-   SecureRandom random;
+   int        randomSeed;
+   FastRandom random;
+
+   // Mox stepping threads.
+   // With multiple threads, moxen sense and cycle concurrently while the
+   // cells are unchanged, then their responses are committed in step order.
+   int             threads = 1;
+   ExecutorService stepper;
+   int[]           moxResponses;
+   int[]           moxForwardX, moxForwardY;
+
+   // Step metrics log, null when off.
+   MetricsLog metricsLog;
+
+   // Frame exporter, null when off.
+   FrameExporter frameExporter;
 
    // Constructor.
    public Nest(int randomSeed)
    {
       this.randomSeed = randomSeed;
-      random          = new SecureRandom();
-      random.setSeed(randomSeed);
+      random          = new FastRandom(randomSeed);
    }
 
 
@@ -86,20 +117,42 @@ public class Nest
                     int NEIGHBORHOOD_DIMENSION_MULTIPLIER,
                     int EPOCH_INTERVAL_STRIDE,
                     int EPOCH_INTERVAL_MULTIPLIER)
+   {
+      init(width, height, numStones, 1,
+           NUM_NEIGHBORHOODS,
+           NEIGHBORHOOD_INITIAL_DIMENSION,
+           NEIGHBORHOOD_DIMENSION_STRIDE,
+           NEIGHBORHOOD_DIMENSION_MULTIPLIER,
+           EPOCH_INTERVAL_STRIDE,
+           EPOCH_INTERVAL_MULTIPLIER);
+   }
+
+
+   // Initialize with colony of moxen starting at the nest.
+   public void init(int width, int height, int numStones, int numMoxen,
+                    int NUM_NEIGHBORHOODS,
+                    int NEIGHBORHOOD_INITIAL_DIMENSION,
+                    int NEIGHBORHOOD_DIMENSION_STRIDE,
+                    int NEIGHBORHOOD_DIMENSION_MULTIPLIER,
+                    int EPOCH_INTERVAL_STRIDE,
+                    int EPOCH_INTERVAL_MULTIPLIER)
    {
       // Create cells.
-      nestCells = new NestCells(new Dimension(width, height), numStones, randomSeed);
-
-      // Create mox.
-      moxen = new ArrayList<NestingMox>();
-      moxen.add(0, new NestingMox(0, nestCells.nestX, nestCells.nestY,
-                                  Orientation.NORTH, nestCells, randomSeed,
-                                  NUM_NEIGHBORHOODS,
-                                  NEIGHBORHOOD_INITIAL_DIMENSION,
-                                  NEIGHBORHOOD_DIMENSION_STRIDE,
-                                  NEIGHBORHOOD_DIMENSION_MULTIPLIER,
-                                  EPOCH_INTERVAL_STRIDE,
-                                  EPOCH_INTERVAL_MULTIPLIER));
+      nestCells = new NestCells(new GridSize(width, height), numStones, randomSeed);
+
+      // Create moxen.
+      moxen = new ArrayList<NestingMox>(numMoxen);
+      for (int i = 0; i < numMoxen; i++)
+      {
+         moxen.add(i, new NestingMox(i, nestCells.nestX, nestCells.nestY,
+                                     Orientation.NORTH, nestCells, randomSeed + i,
+                                     NUM_NEIGHBORHOODS,
+                                     NEIGHBORHOOD_INITIAL_DIMENSION,
+                                     NEIGHBORHOOD_DIMENSION_STRIDE,
+                                     NEIGHBORHOOD_DIMENSION_MULTIPLIER,
+                                     EPOCH_INTERVAL_STRIDE,
+                                     EPOCH_INTERVAL_MULTIPLIER));
+      }
    }
 
 
@@ -199,20 +252,27 @@ public class Nest
    // Save.
    public void save(FileOutputStream output) throws IOException
    {
-      DataOutputStream writer = new DataOutputStream(new BufferedOutputStream(output));
+      SnapshotWriter writer = new SnapshotWriter(output);
 
+      save(writer);
+      writer.flush();
+   }
+
+
+   // Save to snapshot.
+   public void save(SnapshotWriter writer) throws IOException
+   {
       // Save cells.
-      nestCells.save(output);
+      nestCells.save(writer);
 
       // Save moxen.
       int numMoxen = moxen.size();
-      Utility.saveInt(writer, numMoxen);
-      writer.flush();
+      writer.writeInt(numMoxen);
       NestingMox mox;
       for (int i = 0; i < numMoxen; i++)
       {
          mox = moxen.get(i);
-         mox.save(output);
+         mox.save(writer);
       }
    }
 
@@ -237,20 +297,28 @@ public class Nest
    // Load.
    public void load(FileInputStream input) throws IOException
    {
-      DataInputStream reader = new DataInputStream(input);
+      SnapshotReader reader = new SnapshotReader(input);
 
+      load(reader);
+      reader.finish();
+   }
+
+
+   // Load from snapshot.
+   public void load(SnapshotReader reader) throws IOException
+   {
       // Load cells.
       nestCells = new NestCells();
-      nestCells.load(input);
+      nestCells.load(reader);
 
       // Load moxen.
-      int numMoxen = Utility.loadInt(reader);
+      int numMoxen = reader.readInt();
       moxen = new ArrayList<NestingMox>(numMoxen);
       NestingMox mox;
       for (int i = 0; i < numMoxen; i++)
       {
-         mox = new NestingMox(nestCells, randomSeed);
-         mox.load(input);
+         mox = new NestingMox(nestCells, randomSeed + i);
+         mox.load(reader);
          moxen.add(i, mox);
       }
    }
@@ -260,17 +328,24 @@ public class Nest
    public void run(int steps)
    {
       random.setSeed(randomSeed);
+      exportFrame(0);
       if (steps >= 0)
       {
-         stepMoxen();
+         for (int i = 0; i < steps; i++)
+         {
+            stepMoxen();
+            exportFrame(i + 1);
+         }
       }
       else
       {
          for (int i = 0; updateDisplay(i); i++)
          {
             stepMoxen();
+            exportFrame(i + 1);
          }
       }
+      stopStepper();
    }
 
 
@@ -279,26 +354,189 @@ public class Nest
    {
       int i, j, numMoxen;
 
+      MetricsLog log   = metricsLog;
+      long       start = 0;
+
+      if (log != null) { start = System.nanoTime(); }
+
       // Step moxen.
       numMoxen = moxen.size();
-      if (numMoxen > 0)
+      if ((moxResponses == null) || (moxResponses.length < numMoxen))
       {
+         moxResponses = new int[numMoxen];
+         moxForwardX  = new int[numMoxen];
+         moxForwardY  = new int[numMoxen];
+      }
+      if ((threads > 1) && (numMoxen > 1))
+      {
+         cycleMoxen();
          for (i = 0, j = random.nextInt(numMoxen); i < numMoxen; i++, j = (j + 1) % numMoxen)
          {
-            stepMox(j);
+            respondMox(j);
          }
       }
+      else if (numMoxen > 0)
+      {
+         for (i = 0, j = random.nextInt(numMoxen); i < numMoxen; i++, j = (j + 1) % numMoxen)
+         {
+            cycleMox(j);
+            respondMox(j);
+         }
+      }
+      if (log != null) { log.step(start); }
+   }
+
+
+   // Start recording step metrics to log.
+   public void startMetrics(MetricsLog log)
+   {
+      stopMetrics();
+      metricsLog = log;
+      for (NestingMox mox : moxen)
+      {
+         mox.metrics = log.register();
+      }
+   }
+
+
+   // Stop recording step metrics and close log.
+   public void stopMetrics()
+   {
+      if (metricsLog != null)
+      {
+         for (NestingMox mox : moxen)
+         {
+            mox.metrics = null;
+         }
+         metricsLog.close();
+         metricsLog = null;
+      }
+   }
+
+
+   // Stop stepping threads; a later concurrent step restarts them.
+   public void stopStepper()
+   {
+      if (stepper != null)
+      {
+         stepper.shutdown();
+         stepper = null;
+      }
+   }
+
+
+   // Start exporting frames.
+   public void startFrameExport(FrameExporter exporter) throws IOException
+   {
+      stopFrameExport();
+      frameExporter = exporter;
    }
 
 
-   // Step mox.
-   void stepMox(int moxIndex)
+   // Stop exporting frames and write remaining ones.
+   public void stopFrameExport() throws IOException
    {
-      int fx, fy, bx, by, lx, ly, rx, ry, width, height;
+      if (frameExporter != null)
+      {
+         FrameExporter exporter = frameExporter;
+         frameExporter = null;
+         exporter.close();
+      }
+   }
+
+
+   // Export frame for step, if due.
+   void exportFrame(int steps)
+   {
+      FrameExporter exporter = frameExporter;
+
+      if ((exporter == null) || !exporter.isDue(steps))
+      {
+         return;
+      }
+      int width    = nestCells.size.width;
+      int height   = nestCells.size.height;
+      int numMoxen = moxen.size();
+      FrameExporter.Frame frame = exporter.take(steps);
+      frame.setSize(width, height, numMoxen);
+      if (frame.hasCells)
+      {
+         for (int i = 0, n = width * height; i < n; i++)
+         {
+            frame.cells[i] = (short)((nestCells.getElevation(i) * NestCells.NUM_STONE_VALUES) +
+                                     nestCells.getStone(i));
+         }
+      }
+      for (int i = 0; i < numMoxen; i++)
+      {
+         NestingMox mox = moxen.get(i);
+         frame.moxX[i]         = mox.x;
+         frame.moxY[i]         = mox.y;
+         frame.moxDirection[i] = mox.direction;
+         frame.moxFlag[i]      = mox.hasStone;
+      }
+      exporter.put(frame);
+   }
+
+
+   // Cycle moxen concurrently.
+   void cycleMoxen()
+   {
+      final int numMoxen = moxen.size();
+      int       n        = Math.min(threads, numMoxen);
+
+      if (stepper == null)
+      {
+         stepper = Executors.newFixedThreadPool(threads, new ThreadFactory()
+                                                {
+                                                   public Thread newThread(Runnable r)
+                                                   {
+                                                      Thread thread = new Thread(r);
+                                                      thread.setDaemon(true);
+                                                      return(thread);
+                                                   }
+                                                }
+                                                );
+      }
+      ArrayList<Callable<Object> > tasks = new ArrayList<Callable<Object> >();
+      for (int t = 0; t < n; t++)
+      {
+         final int begin = (numMoxen * t) / n;
+         final int end   = (numMoxen * (t + 1)) / n;
+         tasks.add(Executors.callable(new Runnable()
+                                      {
+                                         public void run()
+                                         {
+                                            for (int i = begin; i < end; i++)
+                                            {
+                                               cycleMox(i);
+                                            }
+                                         }
+                                      }
+                                      ));
+      }
+      try
+      {
+         for (Future<Object> result : stepper.invokeAll(tasks))
+         {
+            result.get();
+         }
+      }
+      catch (Exception e)
+      {
+         throw new RuntimeException("Cannot cycle moxen: " + e.getMessage(), e);
+      }
+   }
+
+
+   // Sense and cycle mox.
+   void cycleMox(int moxIndex)
+   {
+      int fx, fy, bx, by, lx, ly, rx, ry, o;
       int stoneIndex, forwardGradientIndex, lateralGradientIndex;
 
-      int        response;
-      NestingMox mox;
+      NestingMox    mox;
+      NeighborTable neighbors = nestCells.neighbors;
 
       float[] sensors      = new float[NestingMox.NUM_SENSORS];
       stoneIndex           = NestingMox.STONE_AHEAD_SENSOR_INDEX;
@@ -308,76 +546,30 @@ public class Nest
       {
          sensors[i] = 0.0f;
       }
-      width  = nestCells.size.width;
-      height = nestCells.size.height;
-      mox    = moxen.get(moxIndex);
+      mox = moxen.get(moxIndex);
+      StepMetrics metrics = mox.metrics;
+      long        time    = 0;
+      if (metrics != null) { time = System.nanoTime(); }
 
       // Update landmarks.
-      mox.landmarkMap[mox.x][mox.y] = true;
+      mox.landmarkMap.set(mox.x, mox.y, true);
 
       // Initialize sensors.
-      switch (mox.direction)
-      {
-      case Orientation.NORTH:
-         fx = mox.x;
-         fy = ((mox.y + 1) % height);
-         bx = mox.x;
-         by = mox.y - 1;
-         if (by < 0) { by += height; }
-         lx = mox.x - 1;
-         if (lx < 0) { lx += width; }
-         ly = mox.y;
-         rx = (mox.x + 1) % width;
-         ry = mox.y;
-         break;
-
-      case Orientation.EAST:
-         fx = (mox.x + 1) % width;
-         fy = mox.y;
-         bx = mox.x - 1;
-         if (bx < 0) { bx += width; }
-         by = mox.y;
-         lx = mox.x;
-         ly = ((mox.y + 1) % height);
-         rx = mox.x;
-         ry = mox.y - 1;
-         if (ry < 0) { ry += height; }
-         break;
-
-      case Orientation.SOUTH:
-         fx = mox.x;
-         fy = mox.y - 1;
-         if (fy < 0) { fy += height; }
-         bx = mox.x;
-         by = ((mox.y + 1) % height);
-         lx = (mox.x + 1) % width;
-         ly = mox.y;
-         rx = mox.x - 1;
-         if (rx < 0) { rx += width; }
-         ry = mox.y;
-         break;
-
-      case Orientation.WEST:
-         fx = mox.x - 1;
-         if (fx < 0) { fx += width; }
-         fy = mox.y;
-         bx = (mox.x + 1) % width;
-         by = mox.y;
-         lx = mox.x;
-         ly = mox.y - 1;
-         if (ly < 0) { ly += height; }
-         rx = mox.x;
-         ry = ((mox.y + 1) % height);
-         break;
-
-      default:
-         fx = fy = bx = by = lx = ly = rx = ry = -1;
-         break;
-      }
-      sensors[stoneIndex] = (float)nestCells.cells[fx][fy][NestCells.STONE_CELL_INDEX];
-      int f = nestCells.cells[fx][fy][NestCells.ELEVATION_CELL_INDEX];
-      int c = nestCells.cells[mox.x][mox.y][NestCells.ELEVATION_CELL_INDEX];
-      int b = nestCells.cells[bx][by][NestCells.ELEVATION_CELL_INDEX];
+      fx = neighbors.getX(mox.x, mox.direction);
+      fy = neighbors.getY(mox.y, mox.direction);
+      o  = NeighborTable.turn(mox.direction, NeighborTable.BACK);
+      bx = neighbors.getX(mox.x, o);
+      by = neighbors.getY(mox.y, o);
+      o  = NeighborTable.turn(mox.direction, NeighborTable.LEFT);
+      lx = neighbors.getX(mox.x, o);
+      ly = neighbors.getY(mox.y, o);
+      o  = NeighborTable.turn(mox.direction, NeighborTable.RIGHT);
+      rx = neighbors.getX(mox.x, o);
+      ry = neighbors.getY(mox.y, o);
+      sensors[stoneIndex] = (float)nestCells.getStone(fx, fy);
+      int f = nestCells.getElevation(fx, fy);
+      int c = nestCells.getElevation(mox.x, mox.y);
+      int b = nestCells.getElevation(bx, by);
       if (c > f)
       {
          if (c > b)
@@ -408,8 +600,8 @@ public class Nest
             sensors[forwardGradientIndex] = (float)NestingMox.FLAT_GRADIENT;
          }
       }
-      int l = nestCells.cells[lx][ly][NestCells.ELEVATION_CELL_INDEX];
-      int r = nestCells.cells[rx][ry][NestCells.ELEVATION_CELL_INDEX];
+      int l = nestCells.getElevation(lx, ly);
+      int r = nestCells.getElevation(rx, ry);
       if (c > r)
       {
          if (c > l)
@@ -442,9 +634,27 @@ public class Nest
       }
 
       // Cycle mox.
-      response = mox.cycle(sensors);
+      if (metrics != null) { metrics.record(StepMetrics.SENSE, time); }
+      moxResponses[moxIndex] = mox.cycle(sensors);
+      moxForwardX[moxIndex]  = fx;
+      moxForwardY[moxIndex]  = fy;
+   }
+
+
+   // Commit mox response.
+   // Stones are taken and dropped against the cells as committed so far,
+   // so of moxen contending for a cell the first in step order prevails.
+   void respondMox(int moxIndex)
+   {
+      NestingMox  mox      = moxen.get(moxIndex);
+      int         response = moxResponses[moxIndex];
+      int         fx       = moxForwardX[moxIndex];
+      int         fy       = moxForwardY[moxIndex];
+      StepMetrics metrics  = mox.metrics;
+      long        time     = 0;
+
+      if (metrics != null) { time = System.nanoTime(); }
 
-      // Process response.
       if (response == NestingMox.FORWARD)
       {
          mox.x = fx;
@@ -452,23 +662,19 @@ public class Nest
       }
       else if (response == NestingMox.RIGHT)
       {
-         mox.direction = (mox.direction + 1) % Orientation.NUM_ORIENTATIONS;
+         mox.direction = NeighborTable.turn(mox.direction, NeighborTable.RIGHT);
       }
       else if (response == NestingMox.LEFT)
       {
-         mox.direction = mox.direction - 1;
-         if (mox.direction < 0)
-         {
-            mox.direction = mox.direction + Orientation.NUM_ORIENTATIONS;
-         }
+         mox.direction = NeighborTable.turn(mox.direction, NeighborTable.LEFT);
       }
       else if (response == NestingMox.TAKE_STONE)
       {
          if (!mox.hasStone)
          {
-            if (nestCells.cells[fx][fy][NestCells.STONE_CELL_INDEX] == NestCells.STONE_CELL_VALUE)
+            if (nestCells.getStone(fx, fy) == NestCells.STONE_CELL_VALUE)
             {
-               nestCells.cells[fx][fy][NestCells.STONE_CELL_INDEX] = MoxWorx.EMPTY_CELL_VALUE;
+               nestCells.setStone(fx, fy, MoxWorx.EMPTY_CELL_VALUE);
                mox.hasStone = true;
             }
          }
@@ -477,13 +683,14 @@ public class Nest
       {
          if (mox.hasStone)
          {
-            if (nestCells.cells[fx][fy][NestCells.STONE_CELL_INDEX] != NestCells.STONE_CELL_VALUE)
+            if (nestCells.getStone(fx, fy) != NestCells.STONE_CELL_VALUE)
             {
-               nestCells.cells[fx][fy][NestCells.STONE_CELL_INDEX] = NestCells.STONE_CELL_VALUE;
+               nestCells.setStone(fx, fy, NestCells.STONE_CELL_VALUE);
                mox.hasStone = false;
             }
          }
       }
+      if (metrics != null) { metrics.record(StepMetrics.COMMIT, time); }
    }
 
 
@@ -552,11 +759,22 @@ public class Nest
       int     height            = -1;
       int     driver            = NestingMox.DRIVER_TYPE.AUTOPILOT.getValue();
       int     numStones         = -1;
+      int     numMoxen          = -1;
       int     maxElevation      = -1;
       int     randomSeed        = DEFAULT_RANDOM_SEED;
+      int     threads           = 1;
+      int     frameRate         = RenderLoop.DEFAULT_FRAME_RATE;
+      int     stepsPerFrame     = 1;
+      String  metricsfile       = null;
+      int     metricsInterval   = MetricsLog.DEFAULT_INTERVAL;
+      String  frameLogfile      = null;
+      String  pngFramesDir      = null;
+      int     frameInterval     = FrameExporter.DEFAULT_INTERVAL;
       String  loadfile          = null;
       String  savefile          = null;
       boolean display           = false;
+      boolean evaluateNN        = true;
+      boolean nativeNN          = false;
       boolean gotParm           = false;
       int     NUM_NEIGHBORHOODS = Morphognostic.DEFAULT_NUM_NEIGHBORHOODS;
       int     NEIGHBORHOOD_INITIAL_DIMENSION    = Morphognostic.DEFAULT_NEIGHBORHOOD_INITIAL_DIMENSION;
@@ -598,6 +816,16 @@ public class Nest
             display = true;
             continue;
          }
+         if (args[i].equals("-nativeNN"))
+         {
+            nativeNN = true;
+            continue;
+         }
+         if (args[i].equals("-noNNevaluation"))
+         {
+            evaluateNN = false;
+            continue;
+         }
          if (args[i].equals("-dimensions"))
          {
             i++;
@@ -701,6 +929,32 @@ public class Nest
             }
             continue;
          }
+         if (args[i].equals("-numMoxen"))
+         {
+            i++;
+            if (i >= args.length)
+            {
+               System.err.println("Invalid numMoxen option");
+               System.err.println(Nest.Usage);
+               System.exit(2);
+            }
+            try
+            {
+               numMoxen = Integer.parseInt(args[i]);
+            }
+            catch (NumberFormatException e) {
+               System.err.println("Invalid numMoxen option");
+               System.err.println(Nest.Usage);
+               System.exit(2);
+            }
+            if (numMoxen < 1)
+            {
+               System.err.println("Invalid numMoxen option");
+               System.err.println(Nest.Usage);
+               System.exit(2);
+            }
+            continue;
+         }
          if (args[i].equals("-maxElevation"))
          {
             i++;
@@ -719,7 +973,8 @@ public class Nest
                System.err.println(Nest.Usage);
                System.exit(2);
             }
-            if (NestCells.MAX_ELEVATION_VALUE < 0)
+            if ((NestCells.MAX_ELEVATION_VALUE < 0) ||
+                (NestCells.MAX_ELEVATION_VALUE > NestCells.ELEVATION_VALUE_LIMIT))
             {
                System.err.println("Invalid maxElevation option");
                System.err.println(Nest.Usage);
@@ -910,6 +1165,94 @@ public class Nest
             }
             continue;
          }
+         if (args[i].equals("-metrics"))
+         {
+            i++;
+            if ((i >= args.length) || (metricsfile != null))
+            {
+               System.err.println("Invalid metrics option");
+               System.err.println(Nest.Usage);
+               System.exit(2);
+            }
+            metricsfile = args[i];
+            continue;
+         }
+         if (args[i].equals("-metricsInterval"))
+         {
+            i++;
+            if (i >= args.length)
+            {
+               System.err.println("Invalid metricsInterval option");
+               System.err.println(Nest.Usage);
+               System.exit(2);
+            }
+            try
+            {
+               metricsInterval = Integer.parseInt(args[i]);
+            }
+            catch (NumberFormatException e) {
+               System.err.println("Invalid metricsInterval option");
+               System.err.println(Nest.Usage);
+               System.exit(2);
+            }
+            if (metricsInterval < 1)
+            {
+               System.err.println("Invalid metricsInterval option");
+               System.err.println(Nest.Usage);
+               System.exit(2);
+            }
+            continue;
+         }
+         if (args[i].equals("-frameLog"))
+         {
+            i++;
+            if ((i >= args.length) || (frameLogfile != null) || (pngFramesDir != null))
+            {
+               System.err.println("Invalid frameLog option");
+               System.err.println(Nest.Usage);
+               System.exit(2);
+            }
+            frameLogfile = args[i];
+            continue;
+         }
+         if (args[i].equals("-pngFrames"))
+         {
+            i++;
+            if ((i >= args.length) || (frameLogfile != null) || (pngFramesDir != null))
+            {
+               System.err.println("Invalid pngFrames option");
+               System.err.println(Nest.Usage);
+               System.exit(2);
+            }
+            pngFramesDir = args[i];
+            continue;
+         }
+         if (args[i].equals("-frameInterval"))
+         {
+            i++;
+            if (i >= args.length)
+            {
+               System.err.println("Invalid frameInterval option");
+               System.err.println(Nest.Usage);
+               System.exit(2);
+            }
+            try
+            {
+               frameInterval = Integer.parseInt(args[i]);
+            }
+            catch (NumberFormatException e) {
+               System.err.println("Invalid frameInterval option");
+               System.err.println(Nest.Usage);
+               System.exit(2);
+            }
+            if (frameInterval < 1)
+            {
+               System.err.println("Invalid frameInterval option");
+               System.err.println(Nest.Usage);
+               System.exit(2);
+            }
+            continue;
+         }
          if (args[i].equals("-load"))
          {
             i++;
@@ -931,6 +1274,84 @@ public class Nest
             }
             continue;
          }
+         if (args[i].equals("-threads"))
+         {
+            i++;
+            if (i >= args.length)
+            {
+               System.err.println("Invalid threads option");
+               System.err.println(Nest.Usage);
+               System.exit(2);
+            }
+            try
+            {
+               threads = Integer.parseInt(args[i]);
+            }
+            catch (NumberFormatException e) {
+               System.err.println("Invalid threads option");
+               System.err.println(Nest.Usage);
+               System.exit(2);
+            }
+            if (threads < 1)
+            {
+               System.err.println("Invalid threads option");
+               System.err.println(Nest.Usage);
+               System.exit(2);
+            }
+            continue;
+         }
+         if (args[i].equals("-frameRate"))
+         {
+            i++;
+            if (i >= args.length)
+            {
+               System.err.println("Invalid frame rate option");
+               System.err.println(Nest.Usage);
+               System.exit(2);
+            }
+            try
+            {
+               frameRate = Integer.parseInt(args[i]);
+            }
+            catch (NumberFormatException e) {
+               System.err.println("Invalid frame rate option");
+               System.err.println(Nest.Usage);
+               System.exit(2);
+            }
+            if (frameRate < 1)
+            {
+               System.err.println("Invalid frame rate option");
+               System.err.println(Nest.Usage);
+               System.exit(2);
+            }
+            continue;
+         }
+         if (args[i].equals("-stepsPerFrame"))
+         {
+            i++;
+            if (i >= args.length)
+            {
+               System.err.println("Invalid steps per frame option");
+               System.err.println(Nest.Usage);
+               System.exit(2);
+            }
+            try
+            {
+               stepsPerFrame = Integer.parseInt(args[i]);
+            }
+            catch (NumberFormatException e) {
+               System.err.println("Invalid steps per frame option");
+               System.err.println(Nest.Usage);
+               System.exit(2);
+            }
+            if (stepsPerFrame < 1)
+            {
+               System.err.println("Invalid steps per frame option");
+               System.err.println(Nest.Usage);
+               System.exit(2);
+            }
+            continue;
+         }
          if (args[i].equals("-save"))
          {
             i++;
@@ -979,10 +1400,11 @@ public class Nest
             System.exit(2);
          }
          if (numStones == -1) { numStones = 0; }
+         if (numMoxen == -1) { numMoxen = 1; }
       }
       else
       {
-         if ((maxElevation != -1) || (numStones != -1) ||
+         if ((maxElevation != -1) || (numStones != -1) || (numMoxen != -1) ||
              (width != -1) || (height != -1) || gotParm)
          {
             System.err.println(Nest.Usage);
@@ -990,17 +1412,9 @@ public class Nest
          }
       }
 
-      // Set look and feel.
-      try {
-         UIManager.setLookAndFeel(UIManager.getSystemLookAndFeelClassName());
-      }
-      catch (Exception e)
-      {
-         System.err.println("Warning: cannot set look and feel");
-      }
-
       // Create world.
       Nest nest = new Nest(randomSeed);
+      nest.threads = threads;
       if (loadfile != null)
       {
          try
@@ -1017,7 +1431,7 @@ public class Nest
       {
          try
          {
-            nest.init(width, height, numStones,
+            nest.init(width, height, numStones, numMoxen,
                       NUM_NEIGHBORHOODS,
                       NEIGHBORHOOD_INITIAL_DIMENSION,
                       NEIGHBORHOOD_DIMENSION_STRIDE,
@@ -1032,18 +1446,33 @@ public class Nest
          }
       }
 
+      // Set display colors.
+      if (display || (pngFramesDir != null))
+      {
+         SectorDisplay.graduatedColors = new boolean[NestingMox.NUM_SENSORS];
+         SectorDisplay.graduatedColors[NestingMox.STONE_AHEAD_SENSOR_INDEX]      = false;
+         SectorDisplay.graduatedColors[NestingMox.FORWARD_GRADIENT_SENSOR_INDEX] = true;
+         SectorDisplay.graduatedColors[NestingMox.LATERAL_GRADIENT_SENSOR_INDEX] = true;
+         SectorDisplay.graduatedColors[NestingMox.CARRIED_STONE_SENSOR_INDEX]    = false;
+         SectorDisplay.graduatedColorMaximums = new int[NestingMox.NUM_SENSORS];
+         SectorDisplay.graduatedColorMaximums[NestingMox.FORWARD_GRADIENT_SENSOR_INDEX] = NestCells.MAX_ELEVATION_VALUE;
+         SectorDisplay.graduatedColorMaximums[NestingMox.LATERAL_GRADIENT_SENSOR_INDEX] = NestCells.MAX_ELEVATION_VALUE;
+      }
+
       // Create display?
-      SectorDisplay.graduatedColors = new boolean[NestingMox.NUM_SENSORS];
-      SectorDisplay.graduatedColors[NestingMox.STONE_AHEAD_SENSOR_INDEX]      = false;
-      SectorDisplay.graduatedColors[NestingMox.FORWARD_GRADIENT_SENSOR_INDEX] = true;
-      SectorDisplay.graduatedColors[NestingMox.LATERAL_GRADIENT_SENSOR_INDEX] = true;
-      SectorDisplay.graduatedColors[NestingMox.CARRIED_STONE_SENSOR_INDEX]    = false;
-      SectorDisplay.graduatedColorMaximums = new int[NestingMox.NUM_SENSORS];
-      SectorDisplay.graduatedColorMaximums[NestingMox.FORWARD_GRADIENT_SENSOR_INDEX] = NestCells.MAX_ELEVATION_VALUE;
-      SectorDisplay.graduatedColorMaximums[NestingMox.LATERAL_GRADIENT_SENSOR_INDEX] = NestCells.MAX_ELEVATION_VALUE;
       if (display)
       {
+         // Set look and feel.
+         try {
+            UIManager.setLookAndFeel(UIManager.getSystemLookAndFeelClassName());
+         }
+         catch (Exception e)
+         {
+            System.err.println("Warning: cannot set look and feel");
+         }
          nest.createDisplay();
+         nest.display.setFrameRate(frameRate);
+         nest.display.setStepsPerFrame(stepsPerFrame);
       }
       else
       {
@@ -1054,6 +1483,8 @@ public class Nest
       for (NestingMox mox : nest.moxen)
       {
          mox.driver = driver;
+         mox.evaluateMetamorphNN = evaluateNN;
+         mox.nativeMetamorphNN   = nativeNN;
          if (driver == NestingMox.DRIVER_TYPE.METAMORPH_NN.getValue())
          {
             try
@@ -1068,8 +1499,54 @@ public class Nest
          }
       }
 
+      // Record metrics?
+      if (metricsfile != null)
+      {
+         try
+         {
+            nest.startMetrics(MetricsLog.open(metricsfile, metricsInterval));
+         }
+         catch (Exception e)
+         {
+            System.err.println(e.getMessage());
+            System.exit(2);
+         }
+      }
+
+      // Export frames?
+      if ((frameLogfile != null) || (pngFramesDir != null))
+      {
+         try
+         {
+            if (frameLogfile != null)
+            {
+               nest.startFrameExport(FrameExporter.openLog(frameLogfile,
+                                                              FrameExporter.NEST, frameInterval));
+            }
+            else
+            {
+               nest.startFrameExport(FrameExporter.openPNG(pngFramesDir,
+                                                              FrameExporter.NEST, frameInterval));
+            }
+         }
+         catch (Exception e)
+         {
+            System.err.println(e.getMessage());
+            System.exit(2);
+         }
+      }
+
       // Run.
       nest.run(steps);
+      nest.stopMetrics();
+      try
+      {
+         nest.stopFrameExport();
+      }
+      catch (Exception e)
+      {
+         System.err.println("Cannot export frames: " + e.getMessage());
+      }
 
       // Save?
       if (savefile != null)
@@ -5,11 +5,9 @@
 package morphognosis.moxworx;
 
 import java.io.*;
-import java.security.SecureRandom;
+import java.util.Arrays;
 
-import morphognosis.Utility;
-
-import java.awt.*;
+import morphognosis.Orientation;
 
 public class NestCells
 {
@@ -19,86 +17,61 @@ public class NestCells
    public static final int NUM_STONE_VALUES    = 2;
    public static int       MAX_ELEVATION_VALUE = 4;
 
-   // Cells.
+   // Elevation limit: elevations are stored as shorts, and exported frames
+   // pack an elevation and stone into one.
+   public static final int ELEVATION_VALUE_LIMIT = Short.MAX_VALUE / NUM_STONE_VALUES;
+
+   // Cell dimensions.
    public static final int CELL_DIMENSIONS      = 2;
    public static final int STONE_CELL_INDEX     = 0;
    public static final int ELEVATION_CELL_INDEX = 1;
-   public Dimension        size;
-   public int[][][]        cells;
-   public int[][][]        restoreCells;
+
+   // Cells: stones and elevations, indexed by x * height + y.
+   // Change stones with setStone to keep the display current.
+   public GridSize size;
+   byte[]          stones;
+   short[]         elevations;
+   byte[]          restoreStones;
+   short[]         restoreElevations;
    int nestX, nestY;
 
+   // Neighbor table for grid size.
+   public NeighborTable neighbors;
+
+   // Changed cells, tracked for display.
+   CellChanges changes;
+
    // Constructors.
-   public NestCells(Dimension size, int numStones, int randomSeed)
+   public NestCells(GridSize size, int numStones, int randomSeed)
    {
       int i, j, n, x, y, width, height;
 
       // Create cells.
-      this.size    = size;
-      width        = size.width;
-      height       = size.height;
-      cells        = new int[width][height][CELL_DIMENSIONS];
-      restoreCells = new int[width][height][CELL_DIMENSIONS];
-      for (x = 0; x < size.width; x++)
-      {
-         for (y = 0; y < size.height; y++)
-         {
-            for (int d = 0; d < CELL_DIMENSIONS; d++)
-            {
-               cells[x][y][d]        = MoxWorx.EMPTY_CELL_VALUE;
-               restoreCells[x][y][d] = MoxWorx.EMPTY_CELL_VALUE;
-            }
-         }
-      }
+      this.size = size;
+      width     = size.width;
+      height    = size.height;
+      allocate(width, height);
 
       // Set elevations.
-      SecureRandom random = new SecureRandom();
-      random.setSeed(randomSeed);
+      FastRandom random = new FastRandom(randomSeed);
       nestX = random.nextInt(width - 2) + 1;
       nestY = random.nextInt(height - 2) + 1;
-      cells[nestX][nestY][NestCells.ELEVATION_CELL_INDEX] = NestCells.MAX_ELEVATION_VALUE;
+      elevations[(nestX * height) + nestY] = (short)NestCells.MAX_ELEVATION_VALUE;
       for (i = NestCells.MAX_ELEVATION_VALUE; i > MoxWorx.EMPTY_CELL_VALUE; i--)
       {
          for (x = 0; x < width; x++)
          {
             for (y = 0; y < height; y++)
             {
-               int m = cells[x][y][NestCells.ELEVATION_CELL_INDEX];
-               if (m < i)
+               if (elevations[(x * height) + y] < i)
                {
-                  int x2 = x;
-                  int y2 = ((y + 1) % height);
-                  int m2 = cells[x2][y2][NestCells.ELEVATION_CELL_INDEX];
-                  if (m2 == i)
-                  {
-                     cells[x][y][NestCells.ELEVATION_CELL_INDEX] = i - 1;
-                     continue;
-                  }
-                  x2 = (x + 1) % width;
-                  y2 = y;
-                  m2 = cells[x2][y2][NestCells.ELEVATION_CELL_INDEX];
-                  if (m2 == i)
-                  {
-                     cells[x][y][NestCells.ELEVATION_CELL_INDEX] = i - 1;
-                     continue;
-                  }
-                  x2 = x;
-                  y2 = y - 1;
-                  if (y2 < 0) { y2 += height; }
-                  m2 = cells[x2][y2][NestCells.ELEVATION_CELL_INDEX];
-                  if (m2 == i)
+                  for (int o = 0; o < Orientation.NUM_ORIENTATIONS; o++)
                   {
-                     cells[x][y][NestCells.ELEVATION_CELL_INDEX] = i - 1;
-                     continue;
-                  }
-                  x2 = x - 1;
-                  if (x2 < 0) { x2 += width; }
-                  y2 = y;
-                  m2 = cells[x2][y2][NestCells.ELEVATION_CELL_INDEX];
-                  if (m2 == i)
-                  {
-                     cells[x][y][NestCells.ELEVATION_CELL_INDEX] = i - 1;
-                     continue;
+                     if (getElevation(neighbors.getX(x, o), neighbors.getY(y, o)) == i)
+                     {
+                        elevations[(x * height) + y] = (short)(i - 1);
+                        break;
+                     }
                   }
                }
             }
@@ -113,11 +86,10 @@ public class NestCells
          {
             x = random.nextInt(width);
             y = random.nextInt(height);
-            if ((cells[x][y][NestCells.STONE_CELL_INDEX] == MoxWorx.EMPTY_CELL_VALUE) &&
+            if ((stones[(x * height) + y] == MoxWorx.EMPTY_CELL_VALUE) &&
                 ((x != nestX) || (y != nestY)))
             {
-               cells[x][y][NestCells.STONE_CELL_INDEX]           =
-                  restoreCells[x][y][NestCells.STONE_CELL_INDEX] = NestCells.STONE_CELL_VALUE;
+               stones[(x * height) + y] = (byte)NestCells.STONE_CELL_VALUE;
                break;
             }
          }
@@ -128,7 +100,18 @@ public class NestCells
 
    public NestCells()
    {
-      size = new Dimension();
+      size = new GridSize();
+   }
+
+
+   // Allocate empty cells.
+   void allocate(int width, int height)
+   {
+      stones            = new byte[width * height];
+      elevations        = new short[width * height];
+      restoreStones     = new byte[width * height];
+      restoreElevations = new short[width * height];
+      neighbors         = NeighborTable.get(width, height);
    }
 
 
@@ -146,6 +129,42 @@ public class NestCells
    }
 
 
+   // Get stone value.
+   public int getStone(int x, int y)
+   {
+      return(stones[(x * size.height) + y]);
+   }
+
+
+   // Set stone value.
+   public void setStone(int x, int y, int value)
+   {
+      stones[(x * size.height) + y] = (byte)value;
+      if (changes != null) { changes.add(x, y); }
+   }
+
+
+   // Get elevation value.
+   public int getElevation(int x, int y)
+   {
+      return(elevations[(x * size.height) + y]);
+   }
+
+
+   // Get stone value by index (x * height + y).
+   public int getStone(int index)
+   {
+      return(stones[index]);
+   }
+
+
+   // Get elevation value by index (x * height + y).
+   public int getElevation(int index)
+   {
+      return(elevations[index]);
+   }
+
+
    // Distance to nearest stone.
    int stoneDist(int x, int y)
    {
@@ -158,7 +177,7 @@ public class NestCells
       {
          for (y2 = 0; y2 < h; y2++)
          {
-            if (cells[x2][y2][STONE_CELL_INDEX] == STONE_CELL_VALUE)
+            if (stones[(x2 * h) + y2] == STONE_CELL_VALUE)
             {
                d2 = cellDist(x, y, x2, y2);
                if ((d == -1) || (d2 < d))
@@ -209,35 +228,24 @@ public class NestCells
    // Save cells.
    public void save(FileOutputStream output) throws IOException
    {
-      int x, y;
-
-      DataOutputStream writer = new DataOutputStream(new BufferedOutputStream(output));
+      SnapshotWriter writer = new SnapshotWriter(output);
 
-      Utility.saveInt(writer, size.width);
-      Utility.saveInt(writer, size.height);
-      Utility.saveInt(writer, NestCells.MAX_ELEVATION_VALUE);
+      save(writer);
+      writer.flush();
+   }
 
-      for (x = 0; x < size.width; x++)
-      {
-         for (y = 0; y < size.height; y++)
-         {
-            for (int d = 0; d < CELL_DIMENSIONS; d++)
-            {
-               Utility.saveInt(writer, cells[x][y][d]);
-            }
-         }
-      }
 
-      for (x = 0; x < size.width; x++)
-      {
-         for (y = 0; y < size.height; y++)
-         {
-            for (int d = 0; d < CELL_DIMENSIONS; d++)
-            {
-               Utility.saveInt(writer, restoreCells[x][y][d]);
-            }
-         }
-      }
+   // Save cells to snapshot.
+   // Stones and elevations are written as arrays.
+   public void save(SnapshotWriter writer) throws IOException
+   {
+      writer.writeInt(size.width);
+      writer.writeInt(size.height);
+      writer.writeInt(NestCells.MAX_ELEVATION_VALUE);
+      writer.writeBytes(stones);
+      writer.writeShorts(elevations);
+      writer.writeBytes(restoreStones);
+      writer.writeShorts(restoreElevations);
    }
 
 
@@ -261,94 +269,126 @@ public class NestCells
    // Load cells.
    public void load(FileInputStream input) throws IOException
    {
-      int w, h, x, y;
+      SnapshotReader reader = new SnapshotReader(input);
 
-      DataInputStream reader = new DataInputStream(input);
+      load(reader);
+      reader.finish();
+   }
 
-      w = Utility.loadInt(reader);
-      h = Utility.loadInt(reader);
-      NestCells.MAX_ELEVATION_VALUE = Utility.loadInt(reader);
 
-      size.width   = w;
-      size.height  = h;
-      cells        = new int[size.width][size.height][2];
-      restoreCells = new int[size.width][size.height][2];
-      clear();
+   // Load cells from snapshot.
+   // Version 1 snapshot and legacy cells have the same layout.
+   public void load(SnapshotReader reader) throws IOException
+   {
+      int w, h;
 
-      for (x = 0; x < size.width; x++)
+      w = reader.readInt();
+      h = reader.readInt();
+      if ((w < 0) || (h < 0))
       {
-         for (y = 0; y < size.height; y++)
-         {
-            for (int d = 0; d < CELL_DIMENSIONS; d++)
-            {
-               cells[x][y][d] = Utility.loadInt(reader);
-            }
-         }
+         throw (new IOException("Invalid dimensions " + w + "x" + h));
       }
+      NestCells.MAX_ELEVATION_VALUE = reader.readInt();
 
-      for (x = 0; x < size.width; x++)
+      if ((NestCells.MAX_ELEVATION_VALUE < 0) ||
+          (NestCells.MAX_ELEVATION_VALUE > ELEVATION_VALUE_LIMIT))
       {
-         for (y = 0; y < size.height; y++)
-         {
-            for (int d = 0; d < CELL_DIMENSIONS; d++)
-            {
-               restoreCells[x][y][d] = Utility.loadInt(reader);
-            }
-         }
+         throw (new IOException("Invalid maximum elevation " + NestCells.MAX_ELEVATION_VALUE));
+      }
+
+      size.width  = w;
+      size.height = h;
+      allocate(w, h);
+      if (changes != null)
+      {
+         changes = new CellChanges(w, h);
+      }
+      clear();
+
+      if (reader.version <= 1)
+      {
+         int[] column = new int[h * CELL_DIMENSIONS];
+         loadCells(reader, stones, elevations, column);
+         loadCells(reader, restoreStones, restoreElevations, column);
+      }
+      else
+      {
+         reader.readBytes(stones);
+         reader.readShorts(elevations);
+         reader.readBytes(restoreStones);
+         reader.readShorts(restoreElevations);
+         checkCells(stones, elevations);
+         checkCells(restoreStones, restoreElevations);
       }
    }
 
 
-   // Clear cells.
-   public void clear()
+   // Check loaded stones and elevations.
+   static void checkCells(byte[] stones, short[] elevations) throws IOException
    {
-      int x, y;
+      for (int i = 0; i < stones.length; i++)
+      {
+         checkCell(stones[i], elevations[i]);
+      }
+   }
+
 
-      for (x = 0; x < size.width; x++)
+   // Check loaded stone and elevation.
+   static void checkCell(int stone, int elevation) throws IOException
+   {
+      if ((stone < 0) || (stone >= NUM_STONE_VALUES))
       {
-         for (y = 0; y < size.height; y++)
-         {
-            for (int d = 0; d < CELL_DIMENSIONS; d++)
-            {
-               cells[x][y][d] = MoxWorx.EMPTY_CELL_VALUE;
-            }
-         }
+         throw (new IOException("Invalid stone value " + stone));
+      }
+      if ((elevation < 0) || (elevation > ELEVATION_VALUE_LIMIT))
+      {
+         throw (new IOException("Invalid elevation value " + elevation));
       }
    }
 
 
-   // Checkpoint cells.
-   public void checkpoint()
+   // Load version 1 stones and elevations: stone and elevation int pairs by column.
+   void loadCells(SnapshotReader reader, byte[] stones, short[] elevations, int[] column) throws IOException
    {
-      int x, y;
+      int h = size.height;
 
-      for (x = 0; x < size.width; x++)
+      for (int x = 0; x < size.width; x++)
       {
-         for (y = 0; y < size.height; y++)
+         reader.readInts(column);
+         for (int y = 0, i = x * h; y < h; y++, i++)
          {
-            for (int d = 0; d < CELL_DIMENSIONS; d++)
-            {
-               restoreCells[x][y][d] = cells[x][y][d];
-            }
+            int stone     = column[(y * CELL_DIMENSIONS) + STONE_CELL_INDEX];
+            int elevation = column[(y * CELL_DIMENSIONS) + ELEVATION_CELL_INDEX];
+            checkCell(stone, elevation);
+            stones[i]     = (byte)stone;
+            elevations[i] = (short)elevation;
          }
       }
    }
 
 
+   // Clear cells.
+   public void clear()
+   {
+      Arrays.fill(stones, (byte)MoxWorx.EMPTY_CELL_VALUE);
+      Arrays.fill(elevations, (short)MoxWorx.EMPTY_CELL_VALUE);
+      if (changes != null) { changes.addAll(); }
+   }
+
+
+   // Checkpoint cells.
+   public void checkpoint()
+   {
+      System.arraycopy(stones, 0, restoreStones, 0, stones.length);
+      System.arraycopy(elevations, 0, restoreElevations, 0, elevations.length);
+   }
+
+
    // Restore cells.
    public void restore()
    {
-      int x, y;
-
-      for (x = 0; x < size.width; x++)
-      {
-         for (y = 0; y < size.height; y++)
-         {
-            for (int d = 0; d < CELL_DIMENSIONS; d++)
-            {
-               cells[x][y][d] = restoreCells[x][y][d];
-            }
-         }
-      }
+      System.arraycopy(restoreStones, 0, stones, 0, stones.length);
+      System.arraycopy(restoreElevations, 0, elevations, 0, elevations.length);
+      if (changes != null) { changes.addAll(); }
    }
 }
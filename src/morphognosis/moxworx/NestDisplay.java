@@ -41,9 +41,32 @@ public class NestDisplay extends JFrame
    static final int MIN_STEP_DELAY = 0;
    static final int MAX_STEP_DELAY = 1000;
    int              stepDelay      = MAX_STEP_DELAY;
+   long             stepTime;
+   boolean          stepping;
+
+   // Fast-forward steps per frame.
+   static final int[] STEPS_PER_FRAME = { 1, 10, 100, 1000 };
+   int                stepsPerFrame   = 1;
+   int                frameSteps;
+
+   // Render loop.
+   RenderLoop<Frame> renderLoop;
+
+   // Cell changes drained for frame.
+   CellChanges changes;
+
+   // Smallest cell size in pixels for grid lines.
+   static final int GRID_MIN_CELL_SIZE = 4;
+
+
+   // Steps, and unpublished step or edit?
+   int              steps = -1;
+   boolean          pending;
+   volatile boolean refresh;
 
    // Quit.
-   boolean quit;
+   volatile boolean quit;
+
 
    // Constructors.
    public NestDisplay(NestCells nestCells, ArrayList<NestingMox> moxen)
@@ -97,9 +120,44 @@ public class NestDisplay extends JFrame
       pack();
       setCenterLocation();
       setVisible(true);
+
+      // Track cell changes.
+      nestCells.changes = new CellChanges(nestCells.size.width, nestCells.size.height);
+      changes           = new CellChanges(nestCells.size.width, nestCells.size.height);
+
+      // Start render loop.
+      renderLoop = new RenderLoop<Frame>(RenderLoop.DEFAULT_FRAME_RATE)
+      {
+         protected Frame newFrame()
+         {
+            return(new Frame());
+         }
+
+
+         protected void capture(Frame frame)
+         {
+            captureFrame(frame);
+         }
+
+
+         protected void merge(Frame frame, Frame newer)
+         {
+            mergeFrame(frame, newer);
+         }
+
+
+         protected void render(Frame frame)
+         {
+            controls.updateStepCounter(frame.steps);
+            display.update(frame);
+         }
+      };
+      renderLoop.start();
    }
 
 
+
+
    void setCenterLocation()
    {
       Dimension dim = Toolkit.getDefaultToolkit().getScreenSize();
@@ -133,6 +191,11 @@ public class NestDisplay extends JFrame
    // Close.
    void close()
    {
+      if (renderLoop != null)
+      {
+         renderLoop.stop();
+         nestCells.changes = null;
+      }
       currentMox = -1;
       if (moxenDashboards != null)
       {
@@ -146,17 +209,73 @@ public class NestDisplay extends JFrame
 
 
    // Update display.
+   // Called by the simulation thread after each step: publishes a frame
+   // when the render loop wants one, then waits out the step delay. When
+   // fast-forwarding, frames and delays come once per steps per frame.
    public void update(int steps)
    {
-      controls.updateStepCounter(steps);
-      update();
+      if (quit) { return; }
+
+      boolean stepped = (steps != this.steps);
+      this.steps = steps;
+      if (stepped)
+      {
+         pending = true;
+         if ((++frameSteps < stepsPerFrame) && (stepDelay < MAX_STEP_DELAY))
+         {
+            return;
+         }
+      }
+      frameSteps = 0;
+
+      // Wait for step, publishing requested frames meanwhile.
+      synchronized (this)
+      {
+         stepTime = System.currentTimeMillis() + stepDelay;
+         if (!stepped)
+         {
+            stepTime += renderLoop.getFrameInterval();
+         }
+      }
+      while (true)
+      {
+         if ((pending || refresh) && renderLoop.isFrameRequested())
+         {
+            pending = refresh = false;
+            renderLoop.publish();
+         }
+         synchronized (this)
+         {
+            if (quit) { return; }
+            if (stepping)
+            {
+               stepping = false;
+               return;
+            }
+            long wait = renderLoop.getFrameInterval();
+            if (stepDelay < MAX_STEP_DELAY)
+            {
+               long remaining = stepTime - System.currentTimeMillis();
+               if (remaining <= 0) { return; }
+               wait = Math.min(wait, remaining);
+            }
+            try
+            {
+               wait(wait);
+            }
+            catch (InterruptedException e) {
+               return;
+            }
+         }
+      }
    }
 
 
-   private int timer = 0;
-   public void update()
+   // Capture display frame on simulation thread.
+   void captureFrame(Frame frame)
    {
-      if (quit) { return; }
+      int width  = nestCells.size.width;
+      int height = nestCells.size.height;
 
       // Update moxen dashboards.
       for (int i = 0; i < moxenDashboards.size(); i++)
@@ -164,34 +283,121 @@ public class NestDisplay extends JFrame
          moxenDashboards.get(i).update();
       }
 
-      // Update display.
-      display.update();
-
-      // Timer loop: count down delay by 1ms.
-      for (timer = stepDelay; timer > 0 && !quit; )
+      // Copy changed cells and moxen.
+      frame.steps = steps;
+      nestCells.changes.drainTo(changes);
+      if (changes.all)
       {
-         try
+         captureCells(frame);
+      }
+      else
+      {
+         frame.width    = width;
+         frame.height   = height;
+         frame.all      = false;
+         frame.numCells = 0;
+         for (int i = 0; i < changes.count; i++)
          {
-            Thread.sleep(1);
-         }
-         catch (InterruptedException e) {
-            break;
+            int index = changes.indices[i];
+            frame.addCell(index, nestCells.getStone(index), nestCells.getElevation(index));
          }
+      }
+      int numMoxen = moxen.size();
+      if ((frame.moxX == null) || (frame.moxX.length < numMoxen))
+      {
+         frame.moxX         = new int[numMoxen];
+         frame.moxY         = new int[numMoxen];
+         frame.moxDirection = new int[numMoxen];
+         frame.moxHasStone  = new boolean[numMoxen];
+      }
+      for (int i = 0; i < numMoxen; i++)
+      {
+         NestingMox mox = moxen.get(i);
+         frame.moxX[i]         = mox.x;
+         frame.moxY[i]         = mox.y;
+         frame.moxDirection[i] = mox.direction;
+         frame.moxHasStone[i]  = mox.hasStone;
+      }
+      frame.numMoxen = numMoxen;
+   }
 
-         display.update();
 
-         if (stepDelay < MAX_STEP_DELAY)
+   // Capture all cells into frame.
+   void captureCells(Frame frame)
+   {
+      int width  = nestCells.size.width;
+      int height = nestCells.size.height;
+
+      frame.width    = width;
+      frame.height   = height;
+      frame.all      = true;
+      frame.numCells = 0;
+      for (int x = 0; x < width; x++)
+      {
+         for (int y = 0; y < height; y++)
          {
-            timer--;
+            int index = (x * height) + y;
+            frame.addCell(index, nestCells.getStone(index), nestCells.getElevation(index));
          }
       }
    }
 
 
+   // Merge unrendered frame cell changes into newer frame.
+   void mergeFrame(Frame frame, Frame newer)
+   {
+      if (newer.all) { return; }
+      if (frame.all || ((frame.numCells + newer.numCells) > (newer.width * newer.height)))
+      {
+         captureCells(newer);
+         return;
+      }
+      int n = frame.numCells + newer.numCells;
+      if (newer.cellIndices.length < n)
+      {
+         newer.cellIndices    = Arrays.copyOf(newer.cellIndices, n);
+         newer.cellStones     = Arrays.copyOf(newer.cellStones, n);
+         newer.cellElevations = Arrays.copyOf(newer.cellElevations, n);
+      }
+      System.arraycopy(newer.cellIndices, 0, newer.cellIndices, frame.numCells, newer.numCells);
+      System.arraycopy(newer.cellStones, 0, newer.cellStones, frame.numCells, newer.numCells);
+      System.arraycopy(newer.cellElevations, 0, newer.cellElevations, frame.numCells, newer.numCells);
+      System.arraycopy(frame.cellIndices, 0, newer.cellIndices, 0, frame.numCells);
+      System.arraycopy(frame.cellStones, 0, newer.cellStones, 0, frame.numCells);
+      System.arraycopy(frame.cellElevations, 0, newer.cellElevations, 0, frame.numCells);
+      newer.numCells = n;
+   }
+
+
+   // Refresh display with next frame.
+   void refresh()
+   {
+      refresh = true;
+   }
+
+
+   // Set frame rate.
+   public void setFrameRate(int frameRate)
+   {
+      renderLoop.setFrameRate(frameRate);
+   }
+
+
+   // Set fast-forward steps per frame.
+   public void setStepsPerFrame(int steps)
+   {
+      if (steps < 1) { steps = 1; }
+      stepsPerFrame = steps;
+      controls.updateStepsPerFrame(steps);
+   }
+
+
    // Set step delay.
-   void setStepDelay(int delay)
+   synchronized void setStepDelay(int delay)
    {
-      stepDelay = timer = delay;
+      stepDelay = delay;
+      stepTime  = System.currentTimeMillis() + delay;
+      notifyAll();
    }
 
 
@@ -200,7 +406,11 @@ public class NestDisplay extends JFrame
    {
       setStepDelay(MAX_STEP_DELAY);
       controls.speedSlider.setValue(MAX_STEP_DELAY);
-      timer = 0;
+      synchronized (this)
+      {
+         stepping = true;
+         notifyAll();
+      }
    }
 
 
@@ -225,6 +435,41 @@ public class NestDisplay extends JFrame
    }
 
 
+   // Display frame: world state captured from the simulation.
+   // Cells changed since the previous frame, or all cells, are listed
+   // by flat index (x * height + y) with stone and elevation values.
+   static class Frame
+   {
+      int       steps;
+      int       width;
+      int       height;
+      boolean   all;
+      int       numCells;
+      int[]     cellIndices    = new int[64];
+      int[]     cellStones     = new int[64];
+      int[]     cellElevations = new int[64];
+      int       numMoxen;
+      int[]     moxX;
+      int[]     moxY;
+      int[]     moxDirection;
+      boolean[] moxHasStone;
+
+      // Add cell.
+      void addCell(int index, int stone, int elevation)
+      {
+         if (numCells == cellIndices.length)
+         {
+            cellIndices    = Arrays.copyOf(cellIndices, numCells * 2);
+            cellStones     = Arrays.copyOf(cellStones, numCells * 2);
+            cellElevations = Arrays.copyOf(cellElevations, numCells * 2);
+         }
+         cellIndices[numCells]    = index;
+         cellStones[numCells]     = stone;
+         cellElevations[numCells] = elevation;
+         numCells++;
+      }
+   }
+
    // Mox display.
    public class MoxDisplay extends Canvas
    {
@@ -238,6 +483,9 @@ public class NestDisplay extends JFrame
       private Image     image;
       private Graphics  imageGraphics;
 
+      // Cell raster.
+      private CellRaster raster;
+
       // Constructor.
       public MoxDisplay(Dimension canvasSize)
       {
@@ -249,8 +497,8 @@ public class NestDisplay extends JFrame
       }
 
 
-      // Update display.
-      synchronized void update()
+      // Update display from frame.
+      synchronized void update(Frame frame)
       {
          int   x;
          int   y;
@@ -264,6 +512,38 @@ public class NestDisplay extends JFrame
             return;
          }
 
+         cellWidth  = (float)canvasSize.width / (float)nestCells.size.width;
+         cellHeight = (float)canvasSize.height / (float)nestCells.size.height;
+
+         // Draw changed cells into raster.
+         if (frame.all && ((raster == null) || (raster.width != frame.width) ||
+                           (raster.height != frame.height)))
+         {
+            raster = new CellRaster(frame.width, frame.height,
+                                    CellRaster.getBlockSize(cellWidth, cellHeight));
+         }
+         if (raster == null)
+         {
+            return;
+         }
+         for (int i = 0; i < frame.numCells; i++)
+         {
+            x = frame.cellIndices[i] / frame.height;
+            y = frame.cellIndices[i] % frame.height;
+            Color color = SectorDisplay.getEventColor(NestCells.ELEVATION_CELL_INDEX,
+                                                      frame.cellElevations[i]);
+            if (frame.cellStones[i] == NestCells.STONE_CELL_VALUE)
+            {
+               Color stoneColor = SectorDisplay.getEventColor(NestCells.STONE_CELL_INDEX,
+                                                              frame.cellStones[i]);
+               raster.setDot(x, y, color.getRGB(), stoneColor.getRGB());
+            }
+            else
+            {
+               raster.setCell(x, y, color.getRGB());
+            }
+         }
+
          if (graphics == null)
          {
             graphics      = getGraphics();
@@ -276,62 +556,38 @@ public class NestDisplay extends JFrame
             return;
          }
 
-         // Clear display.
-         imageGraphics.setColor(Color.white);
-         imageGraphics.fillRect(0, 0, canvasSize.width, canvasSize.height);
-
-         cellWidth  = (float)canvasSize.width / (float)nestCells.size.width;
-         cellHeight = (float)canvasSize.height / (float)nestCells.size.height;
-
          // Draw cells.
-         for (x = x2 = 0; x < nestCells.size.width;
-              x++, x2 = (int)(cellWidth * (double)x))
-         {
-            for (y = 0, y2 = canvasSize.height - (int)cellHeight;
-                 y < nestCells.size.height;
-                 y++, y2 = (int)(cellHeight * (double)(nestCells.size.height - (y + 1))))
-            {
-               Color color = SectorDisplay.getEventColor(NestCells.ELEVATION_CELL_INDEX,
-                                                         nestCells.cells[x][y][NestCells.ELEVATION_CELL_INDEX]);
-               imageGraphics.setColor(color);
-               imageGraphics.fillRect(x2, y2, (int)cellWidth + 1, (int)cellHeight + 1);
-               if (nestCells.cells[x][y][NestCells.STONE_CELL_INDEX] == NestCells.STONE_CELL_VALUE)
-               {
-                  color = SectorDisplay.getEventColor(NestCells.STONE_CELL_INDEX,
-                                                      nestCells.cells[x][y][NestCells.STONE_CELL_INDEX]);
-                  imageGraphics.setColor(color);
-                  imageGraphics.fillOval(x2, y2, (int)cellWidth, (int)cellHeight);
-               }
-            }
-         }
+         raster.draw(imageGraphics, canvasSize.width, canvasSize.height);
 
          // Draw grid.
          imageGraphics.setColor(Color.black);
-         y2 = canvasSize.height;
-         for (x = 1, x2 = (int)cellWidth; x < nestCells.size.width;
-              x++, x2 = (int)(cellWidth * (double)x))
+         if ((cellWidth >= GRID_MIN_CELL_SIZE) && (cellHeight >= GRID_MIN_CELL_SIZE))
          {
-            imageGraphics.drawLine(x2, 0, x2, y2);
-         }
-         x2 = canvasSize.width;
-         for (y = 1, y2 = (int)cellHeight; y < nestCells.size.height;
-              y++, y2 = (int)(cellHeight * (double)y))
-         {
-            imageGraphics.drawLine(0, y2, x2, y2);
+            y2 = canvasSize.height;
+            for (x = 1, x2 = (int)cellWidth; x < nestCells.size.width;
+                 x++, x2 = (int)(cellWidth * (double)x))
+            {
+               imageGraphics.drawLine(x2, 0, x2, y2);
+            }
+            x2 = canvasSize.width;
+            for (y = 1, y2 = (int)cellHeight; y < nestCells.size.height;
+                 y++, y2 = (int)(cellHeight * (double)y))
+            {
+               imageGraphics.drawLine(0, y2, x2, y2);
+            }
          }
-         imageGraphics.setColor(Color.black);
 
          // Draw moxen.
-         NestingMox mox;
+         int direction;
          int[] vx = new int[3];
          int[] vy = new int[3];
-         for (int i = 0; i < moxen.size(); i++)
+         for (int i = 0; i < frame.numMoxen; i++)
          {
-            mox = (NestingMox)moxen.get(i);
-            x2  = (int)(cellWidth * (double)mox.x);
-            y2  = (int)(cellHeight * (double)(nestCells.size.height - (mox.y + 1)));
+            direction = frame.moxDirection[i];
+            x2        = (int)(cellWidth * (double)frame.moxX[i]);
+            y2        = (int)(cellHeight * (double)(nestCells.size.height - (frame.moxY[i] + 1)));
             imageGraphics.setColor(MOX_COLOR);
-            if (mox.direction == Orientation.NORTH)
+            if (direction == Orientation.NORTH)
             {
                vx[0] = x2 + (int)(cellWidth * 0.5f);
                vy[0] = y2;
@@ -340,7 +596,7 @@ public class NestDisplay extends JFrame
                vx[2] = x2 + (int)cellWidth;
                vy[2] = y2 + (int)cellHeight;
             }
-            else if (mox.direction == Orientation.EAST)
+            else if (direction == Orientation.EAST)
             {
                vx[0] = x2 + (int)(cellWidth);
                vy[0] = y2 + (int)(cellHeight * 0.5f);
@@ -349,7 +605,7 @@ public class NestDisplay extends JFrame
                vx[2] = x2;
                vy[2] = y2 + (int)cellHeight;
             }
-            else if (mox.direction == Orientation.SOUTH)
+            else if (direction == Orientation.SOUTH)
             {
                vx[0] = x2 + (int)(cellWidth * 0.5f);
                vy[0] = y2 + (int)cellHeight;
@@ -373,14 +629,14 @@ public class NestDisplay extends JFrame
                imageGraphics.setColor(Color.RED);
                imageGraphics.drawPolygon(vx, vy, 3);
             }
-            if (mox.hasStone)
+            if (frame.moxHasStone[i])
             {
                Color color = SectorDisplay.getEventColor(NestCells.STONE_CELL_INDEX,
                                                          NestCells.STONE_CELL_VALUE);
                imageGraphics.setColor(color);
-               x2  = (int)(cellWidth * (double)mox.x);
+               x2  = (int)(cellWidth * (double)frame.moxX[i]);
                x2 += (int)(cellWidth * 0.25f);
-               y2  = (int)(cellHeight * (double)(nestCells.size.height - (mox.y + 1)));
+               y2  = (int)(cellHeight * (double)(nestCells.size.height - (frame.moxY[i] + 1)));
                y2 += (int)(cellHeight * 0.25f);
                imageGraphics.fillOval(x2, y2, (int)(cellWidth * 0.5f), (int)(cellHeight * 0.5f));
             }
@@ -448,7 +704,7 @@ public class NestDisplay extends JFrame
                }
 
                // Refresh display.
-               update();
+               refresh();
             }
          }
       }
@@ -469,11 +725,12 @@ public class NestDisplay extends JFrame
       private static final long serialVersionUID = 0L;
 
       // Components.
-      JButton    resetButton;
-      JLabel     stepCounter;
-      JSlider    speedSlider;
-      JButton    stepButton;
-      JTextField messageText;
+      JButton           resetButton;
+      JLabel            stepCounter;
+      JSlider           speedSlider;
+      JButton           stepButton;
+      JComboBox<String> stepsPerFrameChoice;
+      JTextField        messageText;
 
       // Constructor.
       MoxControls()
@@ -498,9 +755,17 @@ public class NestDisplay extends JFrame
          panel.add(stepCounter);
          add(panel, BorderLayout.NORTH);
          panel       = new JPanel();
-         messageText = new JTextField("", 40);
+         messageText = new JTextField("", 30);
          messageText.setEditable(false);
          panel.add(messageText);
+         panel.add(new JLabel("Steps/frame:", Label.RIGHT));
+         stepsPerFrameChoice = new JComboBox<String>();
+         for (int i = 0; i < STEPS_PER_FRAME.length; i++)
+         {
+            stepsPerFrameChoice.addItem(STEPS_PER_FRAME[i] + "");
+         }
+         stepsPerFrameChoice.addActionListener(this);
+         panel.add(stepsPerFrameChoice);
          add(panel, BorderLayout.SOUTH);
       }
 
@@ -512,6 +777,24 @@ public class NestDisplay extends JFrame
       }
 
 
+      // Update steps per frame display.
+      void updateStepsPerFrame(int steps)
+      {
+         String item = steps + "";
+         int    i;
+
+         for (i = 0; i < stepsPerFrameChoice.getItemCount(); i++)
+         {
+            if (stepsPerFrameChoice.getItemAt(i).equals(item)) { break; }
+         }
+         if (i == stepsPerFrameChoice.getItemCount())
+         {
+            stepsPerFrameChoice.addItem(item);
+         }
+         stepsPerFrameChoice.setSelectedIndex(i);
+      }
+
+
       // Speed slider listener.
       public void stateChanged(ChangeEvent evt)
       {
@@ -533,6 +816,7 @@ public class NestDisplay extends JFrame
                moxen.get(i).reset();
                moxenDashboards.get(i).update();
             }
+            refresh();
 
             return;
          }
@@ -544,6 +828,14 @@ public class NestDisplay extends JFrame
 
             return;
          }
+
+         // Steps per frame?
+         if (evt.getSource() == (Object)stepsPerFrameChoice)
+         {
+            stepsPerFrame = Integer.parseInt((String)stepsPerFrameChoice.getSelectedItem());
+
+            return;
+         }
       }
    }
 }
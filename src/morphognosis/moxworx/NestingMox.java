@@ -5,14 +5,12 @@
 package morphognosis.moxworx;
 
 import java.io.*;
-import java.security.SecureRandom;
 import java.util.ArrayList;
-import java.util.Vector;
+import java.util.Arrays;
 
 import morphognosis.Metamorph;
 import morphognosis.Morphognostic;
 import morphognosis.Orientation;
-import morphognosis.Utility;
 import weka.classifiers.Evaluation;
 import weka.classifiers.functions.MultilayerPerceptron;
 import weka.core.Attribute;
@@ -36,19 +34,37 @@ public class NestingMox
    public int          driver;
    public int          driverResponse;
    public int          randomSeed;
-   public SecureRandom random;
+   public FastRandom   random;
 
    // Current morphognostic.
    public Morphognostic morphognostic;
 
    // Metamorphs.
+   // The Weka network is created when trained, since its classes load Swing.
    public ArrayList<Metamorph> metamorphs;
+   MetamorphIndex              metamorphIndex;
    public FastVector           metamorphNNattributeNames;
    public Instances            metamorphInstances;
    MultilayerPerceptron        metamorphNN;
    public static final boolean saveMetamorphInstances = false;
    public static final boolean saveMetamorphNN        = false;
-   public static final boolean evaluateMetamorphNN    = true;
+   public boolean              evaluateMetamorphNN    = true;
+   public boolean              nativeMetamorphNN      = false;
+
+   // Metamorph NN training epochs: full, and incremental for the native network.
+   public static final int METAMORPH_NN_TRAINING_TIME             = 2000;
+   public static final int METAMORPH_NN_INCREMENTAL_TRAINING_TIME = 200;
+
+   // Number of metamorphs in NN training instances.
+   int metamorphNNsize;
+
+   // Native or exported metamorph NN and its reused input buffer.
+   MetamorphMLP metamorphMLP;
+   float[]      metamorphNNinput;
+
+   // Flattened native NN training values and classes, by metamorph.
+   float[][] metamorphNNvalues;
+   int[]     metamorphNNclasses;
 
    // Input/output.
    float[] sensors;
@@ -80,30 +96,14 @@ public class NestingMox
    public static final int NUM_RESPONSES = 6;
 
    // Navigation.
-   public boolean[][] landmarkMap;
+   public LandmarkMap landmarkMap;
    public int         maxEventAge;
-   public class Event
-   {
-      public int[] values;
-      public int   x;
-      public int   y;
-      public int   time;
-      public Event(int[] values, int x, int y, int time)
-      {
-         int n = values.length;
+   public EventHistory events;
+   public int          eventTime;
+   EventWindow         eventWindow;
 
-         this.values = new int[n];
-         for (int i = 0; i < n; i++)
-         {
-            this.values[i] = values[i];
-         }
-         this.x    = x;
-         this.y    = y;
-         this.time = time;
-      }
-   }
-   public Vector<Event> events;
-   public int           eventTime;
+   // Step metrics, null when off.
+   StepMetrics metrics;
 
    // Driver type.
    public enum DRIVER_TYPE
@@ -132,8 +132,7 @@ public class NestingMox
       this.id         = id;
       this.nestCells  = nestCells;
       this.randomSeed = randomSeed;
-      random          = new SecureRandom();
-      random.setSeed(randomSeed);
+      random          = new FastRandom(randomSeed);
       init(x, y, direction);
       int [] numEventTypes = new int[NUM_SENSORS];
       numEventTypes[STONE_AHEAD_SENSOR_INDEX]      = NestCells.NUM_STONE_VALUES;
@@ -142,8 +141,9 @@ public class NestingMox
       numEventTypes[CARRIED_STONE_SENSOR_INDEX]    = 2;
       morphognostic = new Morphognostic(direction, numEventTypes);
       Morphognostic.Neighborhood n = morphognostic.neighborhoods.get(morphognostic.NUM_NEIGHBORHOODS - 1);
-      maxEventAge = n.epoch + n.duration - 1;
-      metamorphs  = new ArrayList<Metamorph>();
+      maxEventAge    = n.epoch + n.duration - 1;
+      metamorphs     = new ArrayList<Metamorph>();
+      metamorphIndex = new MetamorphIndex(metamorphs);
       initMetamorphNN();
    }
 
@@ -159,8 +159,7 @@ public class NestingMox
       this.id         = id;
       this.nestCells  = nestCells;
       this.randomSeed = randomSeed;
-      random          = new SecureRandom();
-      random.setSeed(randomSeed);
+      random          = new FastRandom(randomSeed);
       init(x, y, direction);
       int [] numEventTypes = new int[NUM_SENSORS];
       numEventTypes[STONE_AHEAD_SENSOR_INDEX]      = NestCells.NUM_STONE_VALUES;
@@ -175,8 +174,9 @@ public class NestingMox
                                         EPOCH_INTERVAL_STRIDE,
                                         EPOCH_INTERVAL_MULTIPLIER);
       Morphognostic.Neighborhood n = morphognostic.neighborhoods.get(morphognostic.NUM_NEIGHBORHOODS - 1);
-      maxEventAge = n.epoch + n.duration - 1;
-      metamorphs  = new ArrayList<Metamorph>();
+      maxEventAge    = n.epoch + n.duration - 1;
+      metamorphs     = new ArrayList<Metamorph>();
+      metamorphIndex = new MetamorphIndex(metamorphs);
       initMetamorphNN();
    }
 
@@ -186,8 +186,7 @@ public class NestingMox
       id              = -1;
       this.nestCells  = nestCells;
       this.randomSeed = randomSeed;
-      random          = new SecureRandom();
-      random.setSeed(randomSeed);
+      random          = new FastRandom(randomSeed);
       init();
       int [] numEventTypes = new int[NUM_SENSORS];
       numEventTypes[STONE_AHEAD_SENSOR_INDEX]      = NestCells.NUM_STONE_VALUES;
@@ -196,8 +195,9 @@ public class NestingMox
       numEventTypes[CARRIED_STONE_SENSOR_INDEX]    = 2;
       morphognostic = new Morphognostic(direction, numEventTypes);
       Morphognostic.Neighborhood n = morphognostic.neighborhoods.get(morphognostic.NUM_NEIGHBORHOODS - 1);
-      maxEventAge = n.epoch + n.duration - 1;
-      metamorphs  = new ArrayList<Metamorph>();
+      maxEventAge    = n.epoch + n.duration - 1;
+      metamorphs     = new ArrayList<Metamorph>();
+      metamorphIndex = new MetamorphIndex(metamorphs);
       initMetamorphNN();
    }
 
@@ -217,15 +217,8 @@ public class NestingMox
       response       = WAIT;
       driver         = DRIVER_TYPE.METAMORPH_DB.getValue();
       driverResponse = WAIT;
-      landmarkMap    = new boolean[nestCells.size.width][nestCells.size.height];
-      for (int i = 0; i < nestCells.size.width; i++)
-      {
-         for (int j = 0; j < nestCells.size.height; j++)
-         {
-            landmarkMap[i][j] = false;
-         }
-      }
-      events    = new Vector<Event>();
+      landmarkMap    = new LandmarkMap(nestCells.size.width, nestCells.size.height);
+      events    = new EventHistory(NUM_SENSORS);
       eventTime = 0;
    }
 
@@ -249,13 +242,7 @@ public class NestingMox
       }
       response       = WAIT;
       driverResponse = WAIT;
-      for (int i = 0; i < nestCells.size.width; i++)
-      {
-         for (int j = 0; j < nestCells.size.height; j++)
-         {
-            landmarkMap[i][j] = false;
-         }
-      }
+      landmarkMap.clear();
       events.clear();
       morphognostic.clear();
    }
@@ -282,26 +269,33 @@ public class NestingMox
    // Save mox.
    public void save(FileOutputStream output) throws IOException
    {
-      DataOutputStream writer = new DataOutputStream(new BufferedOutputStream(output));
+      SnapshotWriter writer = new SnapshotWriter(output);
 
-      Utility.saveInt(writer, id);
-      Utility.saveInt(writer, x);
-      Utility.saveInt(writer, y);
-      Utility.saveInt(writer, direction);
+      save(writer);
+      writer.flush();
+   }
+
+
+   // Save mox to snapshot.
+   public void save(SnapshotWriter writer) throws IOException
+   {
+      writer.writeInt(id);
+      writer.writeInt(x);
+      writer.writeInt(y);
+      writer.writeInt(direction);
       int n = 0;
       if (hasStone) { n = 1; }
-      Utility.saveInt(writer, n);
-      Utility.saveInt(writer, x2);
-      Utility.saveInt(writer, y2);
-      Utility.saveInt(writer, direction2);
-      morphognostic.save(writer);
-      Utility.saveInt(writer, maxEventAge);
-      Utility.saveInt(writer, metamorphs.size());
+      writer.writeInt(n);
+      writer.writeInt(x2);
+      writer.writeInt(y2);
+      writer.writeInt(direction2);
+      writer.writeMorphognostic(morphognostic);
+      writer.writeInt(maxEventAge);
+      writer.writeInt(metamorphs.size());
       for (Metamorph m : metamorphs)
       {
-         m.save(writer);
+         writer.writeMetamorph(m);
       }
-      writer.flush();
    }
 
 
@@ -326,26 +320,34 @@ public class NestingMox
    // Load mox.
    public void load(FileInputStream input) throws IOException
    {
-      // Load the properties.
-      // DataInputStream is for unbuffered input.
-      DataInputStream reader = new DataInputStream(input);
-
-      id        = Utility.loadInt(reader);
-      x         = Utility.loadInt(reader);
-      y         = Utility.loadInt(reader);
-      direction = Utility.loadInt(reader);
-      int n = Utility.loadInt(reader);
+      SnapshotReader reader = new SnapshotReader(input);
+
+      load(reader);
+      reader.finish();
+   }
+
+
+   // Load mox from snapshot.
+   public void load(SnapshotReader reader) throws IOException
+   {
+      id        = reader.readInt();
+      x         = reader.readInt();
+      y         = reader.readInt();
+      direction = reader.readInt();
+      int n = reader.readInt();
       if (n == 0) { hasStone = false; }else{ hasStone = true; }
-      x2            = Utility.loadInt(reader);
-      y2            = Utility.loadInt(reader);
-      direction2    = Utility.loadInt(reader);
-      morphognostic = Morphognostic.load(reader);
-      maxEventAge   = Utility.loadInt(reader);
+      x2            = reader.readInt();
+      y2            = reader.readInt();
+      direction2    = reader.readInt();
+      morphognostic = reader.readMorphognostic();
+      maxEventAge   = reader.readInt();
+      eventWindow   = null;
       metamorphs.clear();
-      n = Utility.loadInt(reader);
+      metamorphIndex.clear();
+      n = reader.readInt();
       for (int i = 0; i < n; i++)
       {
-         metamorphs.add(Metamorph.load(reader));
+         metamorphs.add(reader.readMetamorph());
       }
       initMetamorphNN();
    }
@@ -354,6 +356,10 @@ public class NestingMox
    // Sensor/response cycle.
    public int cycle(float[] sensors)
    {
+      StepMetrics metrics = this.metrics;
+      long        time    = 0;
+
+      if (metrics != null) { time = System.nanoTime(); }
       this.sensors[STONE_AHEAD_SENSOR_INDEX]      = sensors[STONE_AHEAD_SENSOR_INDEX];
       this.sensors[FORWARD_GRADIENT_SENSOR_INDEX] = sensors[FORWARD_GRADIENT_SENSOR_INDEX];
       this.sensors[LATERAL_GRADIENT_SENSOR_INDEX] = sensors[LATERAL_GRADIENT_SENSOR_INDEX];
@@ -367,41 +373,30 @@ public class NestingMox
       }
 
       // Update morphognostic.
-      int[] values = new int[NUM_SENSORS];
+      int e = events.add(x, y, eventTime);
       for (int i = 0; i < NUM_SENSORS; i++)
       {
-         values[i] = (int)this.sensors[i];
+         events.setValue(e, i, (int)this.sensors[i]);
       }
-      events.add(new Event(values, x, y, eventTime));
-      if ((eventTime - events.get(0).time) > maxEventAge)
+      if ((eventTime - events.getTime(0)) > maxEventAge)
       {
-         events.remove(0);
+         events.removeFirst();
       }
-      int w = nestCells.size.width;
-      int h = nestCells.size.height;
-      int a = maxEventAge + 1;
-      int morphEvents[][][][] = new int[w][h][NUM_SENSORS][a];
-      for (int x2 = 0; x2 < w; x2++)
+      if (eventWindow == null)
       {
-         for (int y2 = 0; y2 < h; y2++)
-         {
-            for (int n = 0; n < NUM_SENSORS; n++)
-            {
-               for (int t = 0; t < a; t++)
-               {
-                  morphEvents[x2][y2][n][t] = -1;
-               }
-            }
-         }
+         eventWindow = new EventWindow(morphognostic, nestCells.size.width,
+                                       nestCells.size.height, maxEventAge);
       }
-      for (Event e : events)
+      eventWindow.clear(x, y);
+      for (int i = 0, j = events.size(); i < j; i++)
       {
          for (int n = 0; n < NUM_SENSORS; n++)
          {
-            morphEvents[e.x][e.y][n][eventTime - e.time] = e.values[n];
+            eventWindow.set(events.getX(i), events.getY(i), n, eventTime - events.getTime(i), events.getValue(i, n));
          }
       }
-      morphognostic.update(morphEvents, x, y);
+      eventWindow.update(morphognostic);
+      if (metrics != null) { time = metrics.record(StepMetrics.UPDATE, time); }
 
       // Respond.
       if (driver == DRIVER_TYPE.METAMORPH_DB.getValue())
@@ -420,21 +415,15 @@ public class NestingMox
       {
          response = driverResponse;
       }
+      if (metrics != null) { time = metrics.record(StepMetrics.RESPOND, time); }
 
       // Update metamorphs.
-      Metamorph metamorph = new Metamorph(morphognostic.clone(), response);
-      boolean   found     = false;
-      for (Metamorph m : metamorphs)
-      {
-         if (m.equals(metamorph))
-         {
-            found = true;
-            break;
-         }
-      }
-      if (!found)
+      boolean added = metamorphIndex.add(morphognostic, response);
+      if (metrics != null)
       {
-         metamorphs.add(metamorph);
+         metrics.record(StepMetrics.METAMORPH, time);
+         if (!added) { metrics.count(StepMetrics.DEDUP_HITS, 1); }
+         metrics.set(StepMetrics.METAMORPHS, metamorphs.size());
       }
 
       eventTime++;
@@ -443,31 +432,17 @@ public class NestingMox
 
 
    // Get metamorph DB response.
+   // Ties are broken randomly in list order, as a scan of the metamorphs would.
    void metamorphDBresponse()
    {
       response = WAIT;
       Metamorph metamorph = null;
-      float     d         = 0.0f;
-      float     d2;
-      for (Metamorph m : metamorphs)
+      for (Metamorph m : metamorphIndex.nearest(morphognostic))
       {
-         d2 = morphognostic.compare(m.morphognostic);
-         if ((metamorph == null) || (d2 < d))
+         if ((metamorph == null) || random.nextBoolean())
          {
-            d         = d2;
             metamorph = m;
          }
-         else
-         {
-            if (d2 == d)
-            {
-               if (random.nextBoolean())
-               {
-                  d         = d2;
-                  metamorph = m;
-               }
-            }
-         }
       }
       if (metamorph != null)
       {
@@ -690,13 +665,27 @@ public class NestingMox
       }
       metamorphNNattributeNames.addElement(new Attribute("type", responseVals));
       metamorphInstances = new Instances("metamorphs", metamorphNNattributeNames, 0);
-      metamorphNN        = new MultilayerPerceptron();
+      metamorphNN        = null;
+      metamorphNNsize    = 0;
+      metamorphMLP       = null;
+      metamorphNNinput   = new float[metamorphNNattributeNames.size() - 1];
+      metamorphNNvalues  = null;
+      metamorphNNclasses = null;
    }
 
 
    // Create and train metamorph neural network.
    public void createMetamorphNN() throws Exception
    {
+      if (nativeMetamorphNN)
+      {
+         metamorphMLP       = null;
+         metamorphNNvalues  = null;
+         metamorphNNclasses = null;
+         trainNativeMetamorphNN(METAMORPH_NN_TRAINING_TIME);
+         return;
+      }
+
       // Create instances.
       metamorphInstances = new Instances("metamorphs", metamorphNNattributeNames, 0);
       for (Metamorph m : metamorphs)
@@ -704,16 +693,51 @@ public class NestingMox
          metamorphInstances.add(createInstance(metamorphInstances, m));
       }
       metamorphInstances.setClassIndex(metamorphInstances.numAttributes() - 1);
+      metamorphNNsize = metamorphs.size();
+
+      // Train the neural network.
+      trainMetamorphNN(METAMORPH_NN_TRAINING_TIME);
+   }
+
+
+   // Update metamorph neural network with metamorphs added since it was trained.
+   // The native network resumes from its weights for the shorter incremental
+   // epoch count. The Weka perceptron cannot resume from its weights, so it is
+   // retrained in full, with new instances appended to the training set.
+   public void updateMetamorphNN() throws Exception
+   {
+      if ((metamorphNNsize == 0) || (metamorphNNsize > metamorphs.size()))
+      {
+         createMetamorphNN();
+         return;
+      }
+      if (metamorphNNsize == metamorphs.size())
+      {
+         return;
+      }
+      if (nativeMetamorphNN)
+      {
+         trainNativeMetamorphNN(METAMORPH_NN_INCREMENTAL_TRAINING_TIME);
+         return;
+      }
+      for (int i = metamorphNNsize; i < metamorphs.size(); i++)
+      {
+         metamorphInstances.add(createInstance(metamorphInstances, metamorphs.get(i)));
+      }
+      metamorphNNsize = metamorphs.size();
+      trainMetamorphNN(METAMORPH_NN_TRAINING_TIME);
+   }
 
+
+   // Train metamorph neural network on instances for given epochs.
+   void trainMetamorphNN(int epochs) throws Exception
+   {
       // Create and train the neural network.
       MultilayerPerceptron mlp = new MultilayerPerceptron();
       metamorphNN = mlp;
-      mlp.setLearningRate(0.1);
-      mlp.setMomentum(0.2);
-      mlp.setTrainingTime(2000);
-      mlp.setHiddenLayers("20");
-      mlp.setOptions(Utils.splitOptions("-L 0.1 -M 0.2 -N 2000 -V 0 -S 0 -E 20 -H 20"));
+      mlp.setOptions(Utils.splitOptions("-L 0.1 -M 0.2 -N " + epochs + " -V 0 -S 0 -E 20 -H 20"));
       mlp.buildClassifier(metamorphInstances);
+      metamorphMLP = MetamorphMLP.export(mlp, metamorphInstances);
 
       // Save training instances?
       if (saveMetamorphInstances)
@@ -741,39 +765,111 @@ public class NestingMox
    }
 
 
+   // Train native metamorph neural network on metamorphs for given epochs,
+   // continuing from its current weights.
+   // Only metamorphs added since the last training are flattened.
+   void trainNativeMetamorphNN(int epochs)
+   {
+      int       n       = metamorphs.size();
+      int       k       = 0;
+      float[][] values;
+      int[]     classes;
+
+      if ((metamorphNNvalues != null) && (metamorphNNvalues.length <= n))
+      {
+         k       = metamorphNNvalues.length;
+         values  = Arrays.copyOf(metamorphNNvalues, n);
+         classes = Arrays.copyOf(metamorphNNclasses, n);
+      }
+      else
+      {
+         values  = new float[n][];
+         classes = new int[n];
+      }
+      for (int i = k; i < n; i++)
+      {
+         Metamorph m = metamorphs.get(i);
+         values[i] = new float[metamorphNNinput.length];
+         flattenMorphognostic(m.morphognostic, values[i]);
+         classes[i] = m.response;
+      }
+      metamorphNNvalues  = values;
+      metamorphNNclasses = classes;
+      if (metamorphMLP == null)
+      {
+         metamorphMLP = new MetamorphMLP(metamorphNNinput.length, MetamorphMLP.HIDDEN_UNITS, NUM_RESPONSES);
+         metamorphMLP.setNormalization(values);
+         metamorphMLP.randomize(new FastRandom(MetamorphMLP.RANDOM_SEED));
+      }
+      metamorphMLP.train(values, classes, epochs, MetamorphMLP.LEARNING_RATE,
+                         MetamorphMLP.MOMENTUM, new FastRandom(MetamorphMLP.RANDOM_SEED));
+      metamorphNNsize = n;
+
+      // Evaluate the network.
+      if (evaluateMetamorphNN)
+      {
+         System.out.println("Error rate=" + metamorphMLP.errorRate(values, classes));
+      }
+   }
+
+
    // Create metamorph NN instance.
    Instance createInstance(Instances instances, Metamorph m)
    {
-      double[]  attrValues = new double[instances.numAttributes()];
+      double[] attrValues = new double[instances.numAttributes()];
+      int a = flattenMorphognostic(m.morphognostic, metamorphNNinput);
+      for (int i = 0; i < a; i++)
+      {
+         attrValues[i] = metamorphNNinput[i];
+      }
+      attrValues[a] = instances.attribute(a).indexOfValue(m.response + "");
+      a++;
+      return(new Instance(1.0, attrValues));
+   }
+
+
+   // Flatten morphognostic sector densities into NN input values.
+   // Returns number of values.
+   int flattenMorphognostic(Morphognostic morphognostic, float[] values)
+   {
       int a = 0;
       for (int i = 0; i < morphognostic.NUM_NEIGHBORHOODS; i++)
       {
-         int n = m.morphognostic.neighborhoods.get(i).sectors.length;
+         Morphognostic.Neighborhood.Sector[][] sectors = morphognostic.neighborhoods.get(i).sectors;
+         int n = sectors.length;
          for (int x = 0; x < n; x++)
          {
             for (int y = 0; y < n; y++)
             {
-               Morphognostic.Neighborhood.Sector s = m.morphognostic.neighborhoods.get(i).sectors[x][y];
-               for (int d = 0; d < m.morphognostic.eventDimensions; d++)
+               Morphognostic.Neighborhood.Sector s = sectors[x][y];
+               for (int d = 0; d < morphognostic.eventDimensions; d++)
                {
-                  for (int j = 0; j < s.typeDensities[d].length; j++)
+                  float[] densities = s.typeDensities[d];
+                  for (int j = 0; j < densities.length; j++)
                   {
-                     attrValues[a] = s.typeDensities[d][j];
+                     values[a] = densities[j];
                      a++;
                   }
                }
             }
          }
       }
-      attrValues[a] = instances.attribute(a).indexOfValue(m.response + "");
-      a++;
-      return(new Instance(1.0, attrValues));
+      return(a);
    }
 
 
    // Use metamorph NN to classify morphognostic as a response.
+   // Class values are response strings in response order, so a prediction
+   // index is the response.
    public int classifyMorphognostic(Morphognostic morphognostic)
    {
+      // Run native or exported network on reused input buffer.
+      if (metamorphMLP != null)
+      {
+         flattenMorphognostic(morphognostic, metamorphNNinput);
+         return(metamorphMLP.classify(metamorphNNinput));
+      }
+
       Metamorph metamorph = new Metamorph(morphognostic, 0);
       int       response  = 0;
 
@@ -782,10 +878,7 @@ public class NestingMox
          // Classify.
          Instance instance        = createInstance(metamorphInstances, metamorph);
          int      predictionIndex = (int)metamorphNN.classifyInstance(instance);
-
-         // Get the predicted class label from the predictionIndex.
-         String predictedClassLabel = metamorphInstances.classAttribute().value(predictionIndex);
-         response = Integer.parseInt(predictedClassLabel);
+         response = predictionIndex;
 
          // Get the prediction probability distribution.
          //double[] predictionDistribution = metamorphNN.distributionForInstance(instance);
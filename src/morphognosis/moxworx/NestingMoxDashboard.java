@@ -320,7 +320,7 @@ public class NestingMoxDashboard extends JFrame
             {
                try
                {
-                  mox.createMetamorphNN();
+                  mox.updateMetamorphNN();
                }
                catch (Exception e)
                {
@@ -0,0 +1,218 @@
+// For conditions of distribution and use, see copyright notice in MoxWorx.java
+
+// PNG frame writer.
+// Frames with cells are drawn off screen, cells into a raster and moxen on
+// top, and written as numbered PNG images into a directory.
+
+package morphognosis.moxworx;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import javax.imageio.ImageIO;
+
+import morphognosis.Orientation;
+import morphognosis.SectorDisplay;
+
+public class PNGFrameWriter implements FrameExporter.Writer
+{
+   // Image size.
+   public static final int IMAGE_SIZE = 512;
+
+   // Colors.
+   public static final Color MOX_COLOR = Color.BLUE;
+
+   // Output.
+   File directory;
+   int  world;
+
+   // Cell raster and image.
+   CellRaster    raster;
+   BufferedImage image;
+   Graphics2D    imageGraphics;
+
+   // Constructor.
+   public PNGFrameWriter(String directory, int world) throws IOException
+   {
+      this.directory = new File(directory);
+      this.world     = world;
+      if (!this.directory.isDirectory() && !this.directory.mkdirs())
+      {
+         throw new IOException("Cannot create frame directory " + directory);
+      }
+   }
+
+
+   // Write frame.
+   public void write(FrameExporter.Frame frame) throws IOException
+   {
+      if (!frame.hasCells)
+      {
+         return;
+      }
+      if ((raster == null) || (raster.width != frame.width) || (raster.height != frame.height))
+      {
+         raster = new CellRaster(frame.width, frame.height,
+                                 CellRaster.getBlockSize((float)IMAGE_SIZE / (float)frame.width,
+                                                         (float)IMAGE_SIZE / (float)frame.height));
+         image = new BufferedImage(frame.width * raster.blockSize,
+                                   frame.height * raster.blockSize, BufferedImage.TYPE_INT_RGB);
+         if (imageGraphics != null)
+         {
+            imageGraphics.dispose();
+         }
+         imageGraphics = image.createGraphics();
+      }
+
+      // Draw cells.
+      if (world == FrameExporter.NEST)
+      {
+         drawNestCells(frame);
+      }
+      else
+      {
+         drawForageCells(frame);
+      }
+      raster.draw(imageGraphics, image.getWidth(), image.getHeight());
+
+      // Draw moxen.
+      int   size = raster.blockSize;
+      int[] vx   = new int[3];
+      int[] vy   = new int[3];
+      for (int i = 0; i < frame.numMoxen; i++)
+      {
+         int x2 = frame.moxX[i] * size;
+         int y2 = ((frame.height - 1) - frame.moxY[i]) * size;
+         if (world == FrameExporter.FORAGE)
+         {
+            imageGraphics.setColor(Color.white);
+            imageGraphics.fillRect(x2, y2, size, size);
+         }
+         imageGraphics.setColor(MOX_COLOR);
+         switch (frame.moxDirection[i])
+         {
+         case Orientation.NORTH:
+            vx[0] = x2 + (size / 2);
+            vy[0] = y2;
+            vx[1] = x2;
+            vy[1] = y2 + size;
+            vx[2] = x2 + size;
+            vy[2] = y2 + size;
+            break;
+
+         case Orientation.EAST:
+            vx[0] = x2 + size;
+            vy[0] = y2 + (size / 2);
+            vx[1] = x2;
+            vy[1] = y2;
+            vx[2] = x2;
+            vy[2] = y2 + size;
+            break;
+
+         case Orientation.SOUTH:
+            vx[0] = x2 + (size / 2);
+            vy[0] = y2 + size;
+            vx[1] = x2;
+            vy[1] = y2;
+            vx[2] = x2 + size;
+            vy[2] = y2;
+            break;
+
+         default:
+            vx[0] = x2;
+            vy[0] = y2 + (size / 2);
+            vx[1] = x2 + size;
+            vy[1] = y2;
+            vx[2] = x2 + size;
+            vy[2] = y2 + size;
+            break;
+         }
+         imageGraphics.fillPolygon(vx, vy, 3);
+         if (frame.moxFlag[i])
+         {
+            imageGraphics.setColor(SectorDisplay.getEventColor(NestCells.STONE_CELL_INDEX,
+                                                               NestCells.STONE_CELL_VALUE));
+            imageGraphics.fillOval(x2 + (size / 4), y2 + (size / 4), size / 2, size / 2);
+         }
+      }
+
+      // Write image.
+      File file = new File(directory, String.format("frame%08d.png", frame.steps));
+      if (!ImageIO.write(image, "png", file))
+      {
+         throw new IOException("Cannot write frame " + file.getPath());
+      }
+   }
+
+
+   // Draw forage cells.
+   void drawForageCells(FrameExporter.Frame frame)
+   {
+      int emptyColor = MoxWorx.EMPTY_CELL_COLOR.getRGB();
+      int foodColor  = ForageDisplay.FOOD_CELL_COLOR.getRGB();
+      int whiteColor = Color.white.getRGB();
+
+      for (int x = 0, i = 0; x < frame.width; x++)
+      {
+         for (int y = 0; y < frame.height; y++, i++)
+         {
+            switch (frame.cells[i])
+            {
+            case MoxWorx.EMPTY_CELL_VALUE:
+            case ForageCells.MOX_CELL_VALUE:
+               raster.setCell(x, y, emptyColor);
+               break;
+
+            case ForageCells.FOOD_CELL_VALUE:
+               raster.setDot(x, y, whiteColor, foodColor);
+               break;
+
+            default:
+               raster.setCell(x, y, SectorDisplay.getEventColor(0, frame.cells[i] -
+                                                                ForageCells.LANDMARK_CELLS_BEGIN_VALUE + 1).getRGB());
+               break;
+            }
+         }
+      }
+   }
+
+
+   // Draw nest cells.
+   void drawNestCells(FrameExporter.Frame frame)
+   {
+      int stoneColor = SectorDisplay.getEventColor(NestCells.STONE_CELL_INDEX,
+                                                   NestCells.STONE_CELL_VALUE).getRGB();
+
+      for (int x = 0, i = 0; x < frame.width; x++)
+      {
+         for (int y = 0; y < frame.height; y++, i++)
+         {
+            int stone     = frame.cells[i] % NestCells.NUM_STONE_VALUES;
+            int elevation = frame.cells[i] / NestCells.NUM_STONE_VALUES;
+            int color     = SectorDisplay.getEventColor(NestCells.ELEVATION_CELL_INDEX,
+                                                        elevation).getRGB();
+            if (stone == NestCells.STONE_CELL_VALUE)
+            {
+               raster.setDot(x, y, color, stoneColor);
+            }
+            else
+            {
+               raster.setCell(x, y, color);
+            }
+         }
+      }
+   }
+
+
+   // Close.
+   public void close() throws IOException
+   {
+      if (imageGraphics != null)
+      {
+         imageGraphics.dispose();
+         imageGraphics = null;
+      }
+   }
+}
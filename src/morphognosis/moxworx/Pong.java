@@ -6,8 +6,6 @@ package morphognosis.moxworx;
 
 import java.util.*;
 import java.io.*;
-import java.awt.*;
-import javax.swing.*;
 
 import morphognosis.Morphognostic;
 import morphognosis.Orientation;
@@ -27,6 +25,7 @@ public class Pong
       "     [-epochIntervalStride <quantity> (default=" + Morphognostic.DEFAULT_EPOCH_INTERVAL_STRIDE + ")]\n" +
       "     [-epochIntervalMultiplier <quantity> (default=" + Morphognostic.DEFAULT_EPOCH_INTERVAL_MULTIPLIER + ")]\n" +
       "     [-randomSeed <random number seed>]\n" +
+      "     [-nativeNN (test with natively trained metamorph NN)]\n" +
       "Exit codes:\n" +
       "  0=success\n" +
       "  1=fail\n" +
@@ -44,6 +43,9 @@ public class Pong
    // Random numbers.
    Random random;
 
+   // Test with native metamorph NN?
+   boolean nativeNN;
+
    // Constructor.
    public Pong()
    {
@@ -151,7 +153,7 @@ public class Pong
    // Run pong.
    public void runPong() throws Exception
    {
-      Dimension dimensions = new Dimension();
+      GridSize dimensions = new GridSize();
 
       dimensions.width  = pongDimensions;
       dimensions.height = dimensions.width;
@@ -172,6 +174,12 @@ public class Pong
       mox.driver = PongMox.DRIVER_TYPE.METAMORPH_DB.getValue();
       //mox.driver = Mox.DRIVER_TYPE.METAMORPH_NN.getValue();
       //mox.createMetamorphNN();
+      if (nativeNN)
+      {
+         mox.driver            = PongMox.DRIVER_TYPE.METAMORPH_NN.getValue();
+         mox.nativeMetamorphNN = true;
+         mox.createMetamorphNN();
+      }
       for (PongGame game : pongTestingGames)
       {
          System.out.print("Testing game = " + game.number);
@@ -313,6 +321,7 @@ public class Pong
       int    randomSeed        = DEFAULT_RANDOM_SEED;
       String pongTrainingFile  = null;
       String pongTestingFile   = null;
+      boolean nativeNN         = false;
       int    NUM_NEIGHBORHOODS = Morphognostic.DEFAULT_NUM_NEIGHBORHOODS;
       int    NEIGHBORHOOD_INITIAL_DIMENSION    = Morphognostic.DEFAULT_NEIGHBORHOOD_INITIAL_DIMENSION;
       int    NEIGHBORHOOD_DIMENSION_STRIDE     = Morphognostic.DEFAULT_NEIGHBORHOOD_DIMENSION_STRIDE;
@@ -499,6 +508,11 @@ public class Pong
             }
             continue;
          }
+         if (args[i].equals("-nativeNN"))
+         {
+            nativeNN = true;
+            continue;
+         }
          if (args[i].equals("-pongTrainingFile"))
          {
             i++;
@@ -552,18 +566,10 @@ public class Pong
          System.exit(2);
       }
 
-      // Set look and feel.
-      try {
-         UIManager.setLookAndFeel(UIManager.getSystemLookAndFeelClassName());
-      }
-      catch (Exception e)
-      {
-         System.err.println("Warning: cannot set look and feel");
-      }
-
       // Create game.
       Pong pong = new Pong();
       pong.random = new Random(randomSeed);
+      pong.nativeNN = nativeNN;
 
       // Run pong.
       try
@@ -8,8 +8,6 @@ import java.io.*;
 
 import morphognosis.Utility;
 
-import java.awt.*;
-
 public class PongCells
 {
    // Cell values.
@@ -17,12 +15,12 @@ public class PongCells
    public static final int LANDMARK_CELLS_BEGIN_VALUE = 1;
 
    // Cells.
-   public Dimension size;
+   public GridSize  size;
    public int[][]   cells;
    public int[][]   restoreCells;
 
    // Constructors.
-   public PongCells(Dimension size)
+   public PongCells(GridSize size)
    {
       // Create cells.
       this.size    = size;
@@ -40,7 +38,7 @@ public class PongCells
 
    public PongCells()
    {
-      size = new Dimension();
+      size = new GridSize();
    }
 
 
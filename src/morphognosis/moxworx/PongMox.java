@@ -6,12 +6,10 @@ package morphognosis.moxworx;
 
 import java.io.*;
 import java.util.ArrayList;
-import java.util.Vector;
 
 import morphognosis.Metamorph;
 import morphognosis.Morphognostic;
 import morphognosis.Orientation;
-import morphognosis.Utility;
 import weka.classifiers.Evaluation;
 import weka.classifiers.functions.MultilayerPerceptron;
 import weka.core.Attribute;
@@ -39,13 +37,20 @@ public class PongMox
    public Morphognostic morphognostic;
 
    // Metamorphs.
+   // The Weka network is created when trained, since its classes load Swing.
    public ArrayList<Metamorph> metamorphs;
+   MetamorphIndex              metamorphIndex;
    public FastVector           metamorphNNattributeNames;
    public Instances            metamorphInstances;
    MultilayerPerceptron        metamorphNN;
    public static final boolean saveMetamorphInstances = false;
    public static final boolean saveMetamorphNN        = false;
    public static final boolean evaluateMetamorphNN    = true;
+   public boolean              nativeMetamorphNN      = false;
+
+   // Native metamorph NN and its reused input buffer.
+   MetamorphMLP metamorphMLP;
+   float[]      metamorphNNinput;
 
    // Input/output.
    float[] sensors;
@@ -62,24 +67,11 @@ public class PongMox
    public static final int NUM_RESPONSES = 4;
 
    // Navigation.
-   public boolean[][] landmarkMap;
+   public LandmarkMap landmarkMap;
    public int         maxLandmarkEventAge;
-   public class LandmarkEvent
-   {
-      public int value;
-      public int x;
-      public int y;
-      public int time;
-      public LandmarkEvent(int value, int x, int y, int time)
-      {
-         this.value = value;
-         this.x     = x;
-         this.y     = y;
-         this.time  = time;
-      }
-   }
-   public Vector<LandmarkEvent> landmarkEvents;
+   public EventHistory landmarkEvents;
    public int eventTime;
+   EventWindow eventWindow;
 
    // Driver type.
    public enum DRIVER_TYPE
@@ -114,6 +106,7 @@ public class PongMox
       Morphognostic.Neighborhood n = morphognostic.neighborhoods.get(morphognostic.NUM_NEIGHBORHOODS - 1);
       maxLandmarkEventAge = n.epoch + n.duration - 1;
       metamorphs          = new ArrayList<Metamorph>();
+      metamorphIndex      = new MetamorphIndex(metamorphs);
       initMetamorphNN();
    }
 
@@ -142,6 +135,7 @@ public class PongMox
       Morphognostic.Neighborhood n = morphognostic.neighborhoods.get(morphognostic.NUM_NEIGHBORHOODS - 1);
       maxLandmarkEventAge = n.epoch + n.duration - 1;
       metamorphs          = new ArrayList<Metamorph>();
+      metamorphIndex      = new MetamorphIndex(metamorphs);
       initMetamorphNN();
    }
 
@@ -158,6 +152,7 @@ public class PongMox
       Morphognostic.Neighborhood n = morphognostic.neighborhoods.get(morphognostic.NUM_NEIGHBORHOODS - 1);
       maxLandmarkEventAge = n.epoch + n.duration - 1;
       metamorphs          = new ArrayList<Metamorph>();
+      metamorphIndex      = new MetamorphIndex(metamorphs);
       initMetamorphNN();
    }
 
@@ -176,15 +171,8 @@ public class PongMox
       response       = WAIT;
       driver         = DRIVER_TYPE.METAMORPH_DB.getValue();
       driverResponse = WAIT;
-      landmarkMap    = new boolean[pongCells.size.width][pongCells.size.height];
-      for (int i = 0; i < pongCells.size.width; i++)
-      {
-         for (int j = 0; j < pongCells.size.height; j++)
-         {
-            landmarkMap[i][j] = false;
-         }
-      }
-      landmarkEvents = new Vector<LandmarkEvent>();
+      landmarkMap    = new LandmarkMap(pongCells.size.width, pongCells.size.height);
+      landmarkEvents = new EventHistory(1);
       eventTime      = 0;
    }
 
@@ -207,13 +195,7 @@ public class PongMox
       }
       response       = WAIT;
       driverResponse = WAIT;
-      for (int i = 0; i < pongCells.size.width; i++)
-      {
-         for (int j = 0; j < pongCells.size.height; j++)
-         {
-            landmarkMap[i][j] = false;
-         }
-      }
+      landmarkMap.clear();
       landmarkEvents.clear();
       morphognostic.clear();
    }
@@ -240,24 +222,31 @@ public class PongMox
    // Save mox.
    public void save(FileOutputStream output) throws IOException
    {
-      DataOutputStream writer = new DataOutputStream(new BufferedOutputStream(output));
-
-      Utility.saveInt(writer, id);
-      Utility.saveInt(writer, x);
-      Utility.saveInt(writer, y);
-      Utility.saveInt(writer, direction);
-      Utility.saveInt(writer, numLandmarkTypes);
-      Utility.saveInt(writer, x2);
-      Utility.saveInt(writer, y2);
-      Utility.saveInt(writer, direction2);
-      morphognostic.save(writer);
-      Utility.saveInt(writer, maxLandmarkEventAge);
-      Utility.saveInt(writer, metamorphs.size());
+      SnapshotWriter writer = new SnapshotWriter(output);
+
+      save(writer);
+      writer.flush();
+   }
+
+
+   // Save mox to snapshot.
+   public void save(SnapshotWriter writer) throws IOException
+   {
+      writer.writeInt(id);
+      writer.writeInt(x);
+      writer.writeInt(y);
+      writer.writeInt(direction);
+      writer.writeInt(numLandmarkTypes);
+      writer.writeInt(x2);
+      writer.writeInt(y2);
+      writer.writeInt(direction2);
+      writer.writeMorphognostic(morphognostic);
+      writer.writeInt(maxLandmarkEventAge);
+      writer.writeInt(metamorphs.size());
       for (Metamorph m : metamorphs)
       {
-         m.save(writer);
+         writer.writeMetamorph(m);
       }
-      writer.flush();
    }
 
 
@@ -282,25 +271,33 @@ public class PongMox
    // Load mox.
    public void load(FileInputStream input) throws IOException
    {
-      // Load the properties.
-      // DataInputStream is for unbuffered input.
-      DataInputStream reader = new DataInputStream(input);
-
-      id                  = Utility.loadInt(reader);
-      x                   = Utility.loadInt(reader);
-      y                   = Utility.loadInt(reader);
-      direction           = Utility.loadInt(reader);
-      numLandmarkTypes    = Utility.loadInt(reader);
-      x2                  = Utility.loadInt(reader);
-      y2                  = Utility.loadInt(reader);
-      direction2          = Utility.loadInt(reader);
-      morphognostic       = Morphognostic.load(reader);
-      maxLandmarkEventAge = Utility.loadInt(reader);
+      SnapshotReader reader = new SnapshotReader(input);
+
+      load(reader);
+      reader.finish();
+   }
+
+
+   // Load mox from snapshot.
+   public void load(SnapshotReader reader) throws IOException
+   {
+      id                  = reader.readInt();
+      x                   = reader.readInt();
+      y                   = reader.readInt();
+      direction           = reader.readInt();
+      numLandmarkTypes    = reader.readInt();
+      x2                  = reader.readInt();
+      y2                  = reader.readInt();
+      direction2          = reader.readInt();
+      morphognostic       = reader.readMorphognostic();
+      maxLandmarkEventAge = reader.readInt();
+      eventWindow         = null;
       metamorphs.clear();
-      int n = Utility.loadInt(reader);
+      metamorphIndex.clear();
+      int n = reader.readInt();
       for (int i = 0; i < n; i++)
       {
-         metamorphs.add(Metamorph.load(reader));
+         metamorphs.add(reader.readMetamorph());
       }
       initMetamorphNN();
    }
@@ -312,38 +309,32 @@ public class PongMox
       this.sensors = sensors;
 
       // Update morphognostic.
-      landmarkEvents.add(new LandmarkEvent(pongCells.cells[fx][fy], fx, fy, eventTime));
-      if ((eventTime - landmarkEvents.get(0).time) > maxLandmarkEventAge)
+      landmarkEvents.setValue(landmarkEvents.add(fx, fy, eventTime), 0, pongCells.cells[fx][fy]);
+      if ((eventTime - landmarkEvents.getTime(0)) > maxLandmarkEventAge)
       {
-         landmarkEvents.remove(0);
+         landmarkEvents.removeFirst();
       }
-      int w = pongCells.size.width;
-      int h = pongCells.size.height;
-      int a = maxLandmarkEventAge + 1;
-      int landmarks[][][][] = new int[w][h][1][a];
-      for (int x = 0; x < w; x++)
+      if (eventWindow == null)
       {
-         for (int y = 0; y < h; y++)
-         {
-            for (int t = 0; t < a; t++)
-            {
-               landmarks[x][y][0][t] = -1;
-            }
-         }
+         eventWindow = new EventWindow(morphognostic, pongCells.size.width,
+                                       pongCells.size.height, maxLandmarkEventAge);
       }
-      for (LandmarkEvent e : landmarkEvents)
+      eventWindow.clear(x, y);
+      for (int i = 0, n = landmarkEvents.size(); i < n; i++)
       {
-         if (e.value >= PongCells.LANDMARK_CELLS_BEGIN_VALUE)
+         int value = landmarkEvents.getValue(i, 0);
+         int age   = eventTime - landmarkEvents.getTime(i);
+         if (value >= PongCells.LANDMARK_CELLS_BEGIN_VALUE)
          {
-            landmarks[e.x][e.y][0][eventTime - e.time] = e.value -
-                                                         PongCells.LANDMARK_CELLS_BEGIN_VALUE + 1;
+            eventWindow.set(landmarkEvents.getX(i), landmarkEvents.getY(i), 0, age,
+                            value - PongCells.LANDMARK_CELLS_BEGIN_VALUE + 1);
          }
          else
          {
-            landmarks[e.x][e.y][0][eventTime - e.time] = MoxWorx.EMPTY_CELL_VALUE;
+            eventWindow.set(landmarkEvents.getX(i), landmarkEvents.getY(i), 0, age, MoxWorx.EMPTY_CELL_VALUE);
          }
       }
-      morphognostic.update(landmarks, x, y);
+      eventWindow.update(morphognostic);
 
       // Respond.
       if (driver == DRIVER_TYPE.METAMORPH_DB.getValue())
@@ -360,20 +351,7 @@ public class PongMox
       }
 
       // Update metamorphs.
-      Metamorph metamorph = new Metamorph(morphognostic.clone(), response);
-      boolean   found     = false;
-      for (Metamorph m : metamorphs)
-      {
-         if (m.equals(metamorph))
-         {
-            found = true;
-            break;
-         }
-      }
-      if (!found)
-      {
-         metamorphs.add(metamorph);
-      }
+      metamorphIndex.add(morphognostic, response);
 
       eventTime++;
       return(response);
@@ -384,21 +362,10 @@ public class PongMox
    void metamorphDBresponse()
    {
       response = WAIT;
-      Metamorph metamorph = null;
-      float     d         = 0.0f;
-      float     d2;
-      for (Metamorph m : metamorphs)
+      ArrayList<Metamorph> nearest = metamorphIndex.nearest(morphognostic);
+      if (nearest.size() > 0)
       {
-         d2 = morphognostic.compare(m.morphognostic);
-         if ((metamorph == null) || (d2 < d))
-         {
-            d         = d2;
-            metamorph = m;
-         }
-      }
-      if (metamorph != null)
-      {
-         response = metamorph.response;
+         response = nearest.get(0).response;
       }
    }
 
@@ -438,13 +405,21 @@ public class PongMox
       }
       metamorphNNattributeNames.addElement(new Attribute("type", responseVals));
       metamorphInstances = new Instances("metamorphs", metamorphNNattributeNames, 0);
-      metamorphNN        = new MultilayerPerceptron();
+      metamorphNN        = null;
+      metamorphMLP       = null;
+      metamorphNNinput   = new float[metamorphNNattributeNames.size() - 1];
    }
 
 
    // Create and train metamorph neural network.
    public void createMetamorphNN() throws Exception
    {
+      if (nativeMetamorphNN)
+      {
+         createNativeMetamorphNN();
+         return;
+      }
+
       // Create instances.
       metamorphInstances = new Instances("metamorphs", metamorphNNattributeNames, 0);
       for (Metamorph m : metamorphs)
@@ -489,6 +464,63 @@ public class PongMox
    }
 
 
+   // Create and train native metamorph neural network.
+   void createNativeMetamorphNN()
+   {
+      int       n       = metamorphs.size();
+      float[][] values  = new float[n][metamorphNNinput.length];
+      int[]     classes = new int[n];
+
+      for (int i = 0; i < n; i++)
+      {
+         Metamorph m = metamorphs.get(i);
+         flattenMorphognostic(m.morphognostic, values[i]);
+         classes[i] = m.response;
+      }
+      metamorphMLP = new MetamorphMLP(metamorphNNinput.length, MetamorphMLP.HIDDEN_UNITS, NUM_RESPONSES);
+      metamorphMLP.setNormalization(values);
+      metamorphMLP.randomize(new FastRandom(MetamorphMLP.RANDOM_SEED));
+      metamorphMLP.train(values, classes, 2000, MetamorphMLP.LEARNING_RATE,
+                         MetamorphMLP.MOMENTUM, new FastRandom(MetamorphMLP.RANDOM_SEED));
+
+      // Evaluate the network.
+      if (evaluateMetamorphNN)
+      {
+         System.out.println("Error rate=" + metamorphMLP.errorRate(values, classes));
+      }
+   }
+
+
+   // Flatten morphognostic sector densities into NN input values.
+   // Returns number of values.
+   int flattenMorphognostic(Morphognostic morphognostic, float[] values)
+   {
+      int a = 0;
+      for (int i = 0; i < morphognostic.NUM_NEIGHBORHOODS; i++)
+      {
+         Morphognostic.Neighborhood.Sector[][] sectors = morphognostic.neighborhoods.get(i).sectors;
+         int n = sectors.length;
+         for (int x = 0; x < n; x++)
+         {
+            for (int y = 0; y < n; y++)
+            {
+               Morphognostic.Neighborhood.Sector s = sectors[x][y];
+               for (int d = 0; d < morphognostic.eventDimensions; d++)
+               {
+                  float[] densities = s.typeDensities[d];
+                  for (int j = 0; j < densities.length; j++)
+                  {
+                     values[a] = densities[j];
+                     a++;
+                  }
+               }
+            }
+         }
+      }
+      return(a);
+   }
+
+
    // Create metamorph NN instance.
    Instance createInstance(Instances instances, Metamorph m)
    {
@@ -522,6 +554,13 @@ public class PongMox
    // Use metamorph NN to classify morphognostic as a response.
    public int classifyMorphognostic(Morphognostic morphognostic)
    {
+      // Run native network on reused input buffer.
+      if (metamorphMLP != null)
+      {
+         flattenMorphognostic(morphognostic, metamorphNNinput);
+         return(metamorphMLP.classify(metamorphNNinput));
+      }
+
       Metamorph metamorph = new Metamorph(morphognostic, 0);
       int       response  = 0;
 
@@ -0,0 +1,178 @@
+// For conditions of distribution and use, see copyright notice in MoxWorx.java
+
+// Display render loop.
+// Frames are rendered on a dedicated thread at a capped rate, apart from the
+// simulation thread. The simulation captures world frames into a triple buffer
+// only when the loop asks for one, so it never waits on painting, and the
+// loop only paints frames it has not painted yet. Frames it never painted
+// are merged into their replacements.
+
+package morphognosis.moxworx;
+
+public abstract class RenderLoop<F> implements Runnable
+{
+   // Default frame rate (frames per second).
+   public static final int DEFAULT_FRAME_RATE = 30;
+
+   // Frame rate.
+   int frameRate;
+
+   // Frames: captured by simulation, ready to render, and rendering.
+   F captured;
+   F ready;
+   F rendering;
+
+   // Ready frame not yet rendered?
+   boolean fresh;
+
+   // Frame wanted by render loop?
+   volatile boolean frameRequested;
+
+   // Render thread.
+   Thread           thread;
+   volatile boolean running;
+
+   // Constructor.
+   public RenderLoop(int frameRate)
+   {
+      setFrameRate(frameRate);
+      captured       = newFrame();
+      ready          = newFrame();
+      rendering      = newFrame();
+      fresh          = false;
+      frameRequested = true;
+   }
+
+
+   // Create frame.
+   protected abstract F newFrame();
+
+   // Capture world into frame (simulation thread).
+   protected abstract void capture(F frame);
+
+   // Render frame (render thread).
+   protected abstract void render(F frame);
+
+   // Merge unrendered frame into the newer frame replacing it (simulation thread).
+   // Frames holding only changes since the previous frame override this.
+   protected void merge(F frame, F newer) {}
+
+
+   // Set frame rate.
+   public void setFrameRate(int frameRate)
+   {
+      if (frameRate < 1) { frameRate = 1; }
+      this.frameRate = frameRate;
+   }
+
+
+   // Get frame interval (ms).
+   public int getFrameInterval()
+   {
+      return(Math.max(1, 1000 / frameRate));
+   }
+
+
+   // Start render thread.
+   public synchronized void start()
+   {
+      if (thread == null)
+      {
+         running = true;
+         thread  = new Thread(this, "RenderLoop");
+         thread.setDaemon(true);
+         thread.start();
+      }
+   }
+
+
+   // Stop render thread.
+   public void stop()
+   {
+      Thread t;
+
+      synchronized (this)
+      {
+         running = false;
+         t       = thread;
+         thread  = null;
+      }
+      if ((t != null) && (t != Thread.currentThread()))
+      {
+         t.interrupt();
+      }
+   }
+
+
+   // Frame wanted?
+   public boolean isFrameRequested()
+   {
+      return(frameRequested);
+   }
+
+
+   // Capture and publish frame (simulation thread).
+   public void publish()
+   {
+      frameRequested = false;
+      capture(captured);
+      synchronized (this)
+      {
+         if (fresh)
+         {
+            merge(ready, captured);
+         }
+         F frame = ready;
+         ready    = captured;
+         captured = frame;
+         fresh    = true;
+      }
+   }
+
+
+   // Render loop.
+   public void run()
+   {
+      long next = System.currentTimeMillis();
+
+      while (running)
+      {
+         // Wait for next frame time.
+         next += getFrameInterval();
+         long delay = next - System.currentTimeMillis();
+         if (delay > 0)
+         {
+            try
+            {
+               Thread.sleep(delay);
+            }
+            catch (InterruptedException e) {
+               break;
+            }
+         }
+         else
+         {
+            next = System.currentTimeMillis();
+         }
+
+         // Render newest frame, if any.
+         boolean render = false;
+         synchronized (this)
+         {
+            if (fresh)
+            {
+               F frame = rendering;
+               rendering = ready;
+               ready     = frame;
+               fresh     = false;
+               render    = true;
+            }
+         }
+         frameRequested = true;
+         if (render && running)
+         {
+            render(rendering);
+         }
+      }
+   }
+}
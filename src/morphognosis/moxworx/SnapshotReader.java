@@ -0,0 +1,311 @@
+// For conditions of distribution and use, see copyright notice in MoxWorx.java
+
+// Binary snapshot reader.
+// Snapshots are read through a large buffer filled from the file channel,
+// with bulk array reads for cells and morphognostics. Files without the
+// snapshot magic number are legacy saves, which are read in their original
+// layout through a buffered data stream.
+
+package morphognosis.moxworx;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+import morphognosis.Metamorph;
+import morphognosis.Morphognostic;
+import morphognosis.Utility;
+
+public class SnapshotReader
+{
+   // Input buffer size.
+   public static final int BUFFER_SIZE = 1 << 20;
+
+   // Arrays at least this long are copied through a buffer view.
+   public static final int BULK_SIZE = 64;
+
+   // Snapshot format version: 0 for legacy.
+   public int version;
+
+   // Snapshot input.
+   FileChannel channel;
+   ByteBuffer  buffer;
+   long        position;
+
+   // Legacy input.
+   DataInputStream legacy;
+
+   // Constructor: read snapshot header, or detect legacy file.
+   public SnapshotReader(FileInputStream input) throws IOException
+   {
+      channel  = input.getChannel();
+      position = channel.position();
+      buffer   = ByteBuffer.allocate(BUFFER_SIZE);
+      buffer.limit(0);
+      long start = position;
+      if (((channel.size() - start) >= 8) && (readInt() == SnapshotWriter.MAGIC))
+      {
+         version = readInt();
+         if ((version < 1) || (version > SnapshotWriter.VERSION))
+         {
+            throw new IOException("Unsupported snapshot version " + version);
+         }
+      }
+      else
+      {
+         version = 0;
+         channel.position(start);
+         legacy = new DataInputStream(new BufferedInputStream(input, BUFFER_SIZE));
+      }
+   }
+
+
+   // Legacy file?
+   public boolean isLegacy()
+   {
+      return(version == 0);
+   }
+
+
+   // Make given number of bytes available in the buffer.
+   void fill(int bytes) throws IOException
+   {
+      if (buffer.remaining() >= bytes)
+      {
+         return;
+      }
+      buffer.compact();
+      while (buffer.position() < bytes)
+      {
+         if (channel.read(buffer) < 0)
+         {
+            throw new EOFException("Unexpected end of snapshot");
+         }
+      }
+      buffer.flip();
+   }
+
+
+   // Read int.
+   public int readInt() throws IOException
+   {
+      if (legacy != null)
+      {
+         return(Utility.loadInt(legacy));
+      }
+      fill(4);
+      position += 4;
+      return(buffer.getInt());
+   }
+
+
+   // Read int array.
+   public void readInts(int[] values) throws IOException
+   {
+      if (legacy != null)
+      {
+         for (int i = 0; i < values.length; i++)
+         {
+            values[i] = Utility.loadInt(legacy);
+         }
+         return;
+      }
+      for (int i = 0, n; i < values.length; i += n)
+      {
+         fill(4);
+         n = Math.min(values.length - i, buffer.remaining() / 4);
+         if (n < BULK_SIZE)
+         {
+            for (int j = i; j < i + n; j++)
+            {
+               values[j] = buffer.getInt();
+            }
+         }
+         else
+         {
+            buffer.asIntBuffer().get(values, i, n);
+            buffer.position(buffer.position() + (n * 4));
+         }
+      }
+      position += values.length * 4L;
+   }
+
+
+   // Read byte array.
+   public void readBytes(byte[] values) throws IOException
+   {
+      if (legacy != null)
+      {
+         legacy.readFully(values);
+         return;
+      }
+      for (int i = 0, n; i < values.length; i += n)
+      {
+         fill(1);
+         n = Math.min(values.length - i, buffer.remaining());
+         buffer.get(values, i, n);
+      }
+      position += values.length;
+   }
+
+
+   // Read short array.
+   public void readShorts(short[] values) throws IOException
+   {
+      if (legacy != null)
+      {
+         for (int i = 0; i < values.length; i++)
+         {
+            values[i] = legacy.readShort();
+         }
+         return;
+      }
+      for (int i = 0, n; i < values.length; i += n)
+      {
+         fill(2);
+         n = Math.min(values.length - i, buffer.remaining() / 2);
+         buffer.asShortBuffer().get(values, i, n);
+         buffer.position(buffer.position() + (n * 2));
+      }
+      position += values.length * 2L;
+   }
+
+
+   // Read float array.
+   public void readFloats(float[] values) throws IOException
+   {
+      if (legacy != null)
+      {
+         for (int i = 0; i < values.length; i++)
+         {
+            values[i] = Utility.loadFloat(legacy);
+         }
+         return;
+      }
+      for (int i = 0, n; i < values.length; i += n)
+      {
+         fill(4);
+         n = Math.min(values.length - i, buffer.remaining() / 4);
+         if (n < BULK_SIZE)
+         {
+            for (int j = i; j < i + n; j++)
+            {
+               values[j] = buffer.getFloat();
+            }
+         }
+         else
+         {
+            buffer.asFloatBuffer().get(values, i, n);
+            buffer.position(buffer.position() + (n * 4));
+         }
+      }
+      position += values.length * 4L;
+   }
+
+
+   // Read string.
+   public String readString() throws IOException
+   {
+      if (legacy != null)
+      {
+         return(Utility.loadString(legacy));
+      }
+      int n = readInt();
+      if (n < 0)
+      {
+         return(null);
+      }
+      byte[] bytes = new byte[n];
+      for (int i = 0, m; i < n; i += m)
+      {
+         fill(1);
+         m = Math.min(n - i, buffer.remaining());
+         buffer.get(bytes, i, m);
+      }
+      position += n;
+      return(new String(bytes, "UTF-8"));
+   }
+
+
+   // Read morphognostic.
+   public Morphognostic readMorphognostic() throws IOException
+   {
+      if (legacy != null)
+      {
+         return(Morphognostic.load(legacy));
+      }
+      int NUM_NEIGHBORHOODS                 = readInt();
+      int NEIGHBORHOOD_INITIAL_DIMENSION    = readInt();
+      int NEIGHBORHOOD_DIMENSION_STRIDE     = readInt();
+      int NEIGHBORHOOD_DIMENSION_MULTIPLIER = readInt();
+      int EPOCH_INTERVAL_STRIDE             = readInt();
+      int EPOCH_INTERVAL_MULTIPLIER         = readInt();
+      int orientation     = readInt();
+      int eventDimensions = readInt();
+      if (eventDimensions < 0)
+      {
+         throw new IOException("Invalid morphognostic event dimensions " + eventDimensions);
+      }
+      int[] numEventTypes = new int[eventDimensions];
+      readInts(numEventTypes);
+      Morphognostic morphognostic = new Morphognostic(orientation, numEventTypes,
+                                                      NUM_NEIGHBORHOODS,
+                                                      NEIGHBORHOOD_INITIAL_DIMENSION,
+                                                      NEIGHBORHOOD_DIMENSION_STRIDE,
+                                                      NEIGHBORHOOD_DIMENSION_MULTIPLIER,
+                                                      EPOCH_INTERVAL_STRIDE,
+                                                      EPOCH_INTERVAL_MULTIPLIER);
+      for (Morphognostic.Neighborhood neighborhood : morphognostic.neighborhoods)
+      {
+         Morphognostic.Neighborhood.Sector[][] sectors = neighborhood.sectors;
+         for (int x = 0; x < sectors.length; x++)
+         {
+            for (int y = 0; y < sectors[x].length; y++)
+            {
+               Morphognostic.Neighborhood.Sector s = sectors[x][y];
+               for (int d = 0; d < eventDimensions; d++)
+               {
+                  readFloats(s.typeDensities[d]);
+               }
+               for (int i = 0; i < s.events.length; i++)
+               {
+                  for (int j = 0; j < s.events[i].length; j++)
+                  {
+                     readInts(s.events[i][j]);
+                  }
+               }
+            }
+         }
+      }
+      return(morphognostic);
+   }
+
+
+   // Read metamorph.
+   public Metamorph readMetamorph() throws IOException
+   {
+      if (legacy != null)
+      {
+         return(Metamorph.load(legacy));
+      }
+      Morphognostic morphognostic = readMorphognostic();
+      int           response      = readInt();
+      String        responseName  = readString();
+      return(new Metamorph(morphognostic, response, responseName));
+   }
+
+
+   // Done reading: leave the channel just past the snapshot data read.
+   // Legacy reads are buffered ahead, so the channel position is then undefined.
+   public void finish() throws IOException
+   {
+      if (legacy == null)
+      {
+         channel.position(position);
+      }
+   }
+}
@@ -0,0 +1,165 @@
+// For conditions of distribution and use, see copyright notice in MoxWorx.java
+
+// Binary snapshot writer.
+// A snapshot starts with a magic number and format version. Worlds, cells and
+// moxen follow in the legacy save order, but cell grids and morphognostic
+// densities and events are stored as contiguous arrays that are read back in
+// bulk. All output goes through one buffered stream, flushed when done.
+// Version 2 stores cell grids in their byte and short cell types; version 1
+// stored a 4-byte int per cell.
+
+package morphognosis.moxworx;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+import morphognosis.Metamorph;
+import morphognosis.Morphognostic;
+
+public class SnapshotWriter
+{
+   // Snapshot magic number ("MOXS") and format version.
+   public static final int MAGIC   = 0x4d4f5853;
+   public static final int VERSION = 2;
+
+   // Output buffer size.
+   public static final int BUFFER_SIZE = 1 << 16;
+
+   // Output.
+   DataOutputStream writer;
+
+   // Bulk conversion buffer.
+   byte[] bulk;
+
+   // Constructor: write snapshot header.
+   public SnapshotWriter(OutputStream output) throws IOException
+   {
+      writer = new DataOutputStream(new BufferedOutputStream(output, BUFFER_SIZE));
+      writer.writeInt(MAGIC);
+      writer.writeInt(VERSION);
+   }
+
+
+   // Write int.
+   public void writeInt(int value) throws IOException
+   {
+      writer.writeInt(value);
+   }
+
+
+   // Write int array.
+   public void writeInts(int[] values) throws IOException
+   {
+      for (int i = 0; i < values.length; i++)
+      {
+         writer.writeInt(values[i]);
+      }
+   }
+
+
+   // Write byte array.
+   public void writeBytes(byte[] values) throws IOException
+   {
+      writer.write(values);
+   }
+
+
+   // Write short array.
+   public void writeShorts(short[] values) throws IOException
+   {
+      if (bulk == null)
+      {
+         bulk = new byte[BUFFER_SIZE];
+      }
+      for (int i = 0, n; i < values.length; i += n)
+      {
+         n = Math.min(values.length - i, bulk.length / 2);
+         ByteBuffer.wrap(bulk).asShortBuffer().put(values, i, n);
+         writer.write(bulk, 0, n * 2);
+      }
+   }
+
+
+   // Write float array.
+   public void writeFloats(float[] values) throws IOException
+   {
+      for (int i = 0; i < values.length; i++)
+      {
+         writer.writeFloat(values[i]);
+      }
+   }
+
+
+   // Write string: UTF-8 byte count, -1 if null, and bytes.
+   public void writeString(String value) throws IOException
+   {
+      if (value == null)
+      {
+         writer.writeInt(-1);
+         return;
+      }
+      byte[] bytes = value.getBytes("UTF-8");
+      writer.writeInt(bytes.length);
+      writer.write(bytes);
+   }
+
+
+   // Write morphognostic: parameters and event types, then for each
+   // neighborhood sector, type densities by dimension and events by cell.
+   public void writeMorphognostic(Morphognostic morphognostic) throws IOException
+   {
+      writer.writeInt(morphognostic.NUM_NEIGHBORHOODS);
+      writer.writeInt(morphognostic.NEIGHBORHOOD_INITIAL_DIMENSION);
+      writer.writeInt(morphognostic.NEIGHBORHOOD_DIMENSION_STRIDE);
+      writer.writeInt(morphognostic.NEIGHBORHOOD_DIMENSION_MULTIPLIER);
+      writer.writeInt(morphognostic.EPOCH_INTERVAL_STRIDE);
+      writer.writeInt(morphognostic.EPOCH_INTERVAL_MULTIPLIER);
+      writer.writeInt(morphognostic.orientation);
+      writer.writeInt(morphognostic.eventDimensions);
+      for (int d = 0; d < morphognostic.eventDimensions; d++)
+      {
+         writer.writeInt(morphognostic.numEventTypes[d]);
+      }
+      for (Morphognostic.Neighborhood neighborhood : morphognostic.neighborhoods)
+      {
+         Morphognostic.Neighborhood.Sector[][] sectors = neighborhood.sectors;
+         for (int x = 0; x < sectors.length; x++)
+         {
+            for (int y = 0; y < sectors[x].length; y++)
+            {
+               Morphognostic.Neighborhood.Sector s = sectors[x][y];
+               for (int d = 0; d < morphognostic.eventDimensions; d++)
+               {
+                  writeFloats(s.typeDensities[d]);
+               }
+               for (int i = 0; i < s.events.length; i++)
+               {
+                  for (int j = 0; j < s.events[i].length; j++)
+                  {
+                     writeInts(s.events[i][j]);
+                  }
+               }
+            }
+         }
+      }
+   }
+
+
+   // Write metamorph.
+   public void writeMetamorph(Metamorph metamorph) throws IOException
+   {
+      writeMorphognostic(metamorph.morphognostic);
+      writer.writeInt(metamorph.response);
+      writeString(metamorph.responseName);
+   }
+
+
+   // Flush output.
+   public void flush() throws IOException
+   {
+      writer.flush();
+   }
+}
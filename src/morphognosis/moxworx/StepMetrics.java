@@ -0,0 +1,179 @@
+// For conditions of distribution and use, see copyright notice in MoxWorx.java
+
+// Step phase timings and counters.
+// Phase times go into log2 nanosecond histograms.
+// Each mox records into its own metrics, so concurrently cycling moxen
+// need no synchronization. Instrumented code holds a null reference when
+// metrics are off and skips timing entirely.
+
+package morphognosis.moxworx;
+
+import java.util.Arrays;
+
+public class StepMetrics
+{
+   // Phases.
+   public static final int SENSE      = 0;
+   public static final int UPDATE     = 1;
+   public static final int RESPOND    = 2;
+   public static final int METAMORPH  = 3;
+   public static final int COMMIT     = 4;
+   public static final int STEP       = 5;
+   public static final int NUM_PHASES = 6;
+   public static final String[] PHASE_NAMES =
+   {
+      "sense", "update", "respond", "metamorph", "commit", "step"
+   };
+
+   // Counters.
+   public static final int METAMORPHS        = 0;
+   public static final int DEDUP_HITS        = 1;
+   public static final int SEARCH_EXPANSIONS = 2;
+   public static final int NUM_COUNTERS      = 3;
+   public static final String[] COUNTER_NAMES =
+   {
+      "metamorphs", "dedupHits", "searchExpansions"
+   };
+
+   // Histogram buckets: bucket i holds times in [2^(i-1), 2^i) nanoseconds.
+   public static final int NUM_BUCKETS = 64;
+
+   // Phase statistics.
+   long[] counts;
+   long[] totals;
+   long[] maximums;
+   long[] buckets;
+
+   // Counter values.
+   long[] counters;
+
+   // Constructor.
+   public StepMetrics()
+   {
+      counts   = new long[NUM_PHASES];
+      totals   = new long[NUM_PHASES];
+      maximums = new long[NUM_PHASES];
+      buckets  = new long[NUM_PHASES * NUM_BUCKETS];
+      counters = new long[NUM_COUNTERS];
+   }
+
+
+   // Record phase started at given time and return current time.
+   public long record(int phase, long start)
+   {
+      long now = System.nanoTime();
+
+      add(phase, now - start);
+      return(now);
+   }
+
+
+   // Add phase time.
+   public void add(int phase, long nanos)
+   {
+      if (nanos < 0) { nanos = 0; }
+      counts[phase]++;
+      totals[phase] += nanos;
+      if (nanos > maximums[phase]) { maximums[phase] = nanos; }
+      buckets[(phase * NUM_BUCKETS) + (64 - Long.numberOfLeadingZeros(nanos))]++;
+   }
+
+
+   // Increment counter.
+   public void count(int counter, long amount)
+   {
+      counters[counter] += amount;
+   }
+
+
+   // Set counter.
+   public void set(int counter, long value)
+   {
+      counters[counter] = value;
+   }
+
+
+   // Merge metrics into these.
+   public void merge(StepMetrics metrics)
+   {
+      for (int i = 0; i < NUM_PHASES; i++)
+      {
+         counts[i] += metrics.counts[i];
+         totals[i] += metrics.totals[i];
+         if (metrics.maximums[i] > maximums[i]) { maximums[i] = metrics.maximums[i]; }
+      }
+      for (int i = 0; i < buckets.length; i++)
+      {
+         buckets[i] += metrics.buckets[i];
+      }
+      for (int i = 0; i < NUM_COUNTERS; i++)
+      {
+         counters[i] += metrics.counters[i];
+      }
+   }
+
+
+   // Clear metrics.
+   public void clear()
+   {
+      Arrays.fill(counts, 0L);
+      Arrays.fill(totals, 0L);
+      Arrays.fill(maximums, 0L);
+      Arrays.fill(buckets, 0L);
+      Arrays.fill(counters, 0L);
+   }
+
+
+   // Phase accessors.
+   public long getCount(int phase)
+   {
+      return(counts[phase]);
+   }
+
+
+   public long getTotal(int phase)
+   {
+      return(totals[phase]);
+   }
+
+
+   public long getMean(int phase)
+   {
+      if (counts[phase] == 0) { return(0); }
+      return(totals[phase] / counts[phase]);
+   }
+
+
+   public long getMaximum(int phase)
+   {
+      return(maximums[phase]);
+   }
+
+
+   public long getCounter(int counter)
+   {
+      return(counters[counter]);
+   }
+
+
+   // Get phase time quantile, as the upper bound of its histogram bucket.
+   public long getQuantile(int phase, double quantile)
+   {
+      long n = counts[phase];
+
+      if (n == 0) { return(0); }
+      long rank = (long)Math.ceil(quantile * (double)n);
+      if (rank < 1) { rank = 1; }
+      long sum = 0;
+      for (int i = 0; i < NUM_BUCKETS; i++)
+      {
+         sum += buckets[(phase * NUM_BUCKETS) + i];
+         if (sum >= rank)
+         {
+            if (i == 0) { return(0); }
+            return(Math.min((1L << i) - 1, maximums[phase]));
+         }
+      }
+      return(maximums[phase]);
+   }
+}
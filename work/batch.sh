@@ -0,0 +1 @@
+java -cp ../bin/moxworx.jar morphognosis.moxworx.BatchRunner $*